@@ -0,0 +1,32 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/********************************************************************
+ * RunBenchmarks.java
+ *
+ * Entry point of benchmarks.jar. Accepts the usual JMH command line
+ * options and always adds the GC profiler, so every result reports
+ * its allocation rate (gc.alloc.rate.norm is bytes per operation).
+ *
+ * Run from the top of the repository so the router benchmarks can
+ * find the config directory:
+ *   java -jar benchmarks/target/benchmarks.jar [JMH options]
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class RunBenchmarks {
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,59 @@
+package client;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/********************************************************************
+ * BuildPacketBenchmark.java
+ *
+ * Encapsulation of a client message in its IPv4 and UDP headers.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildPacketBenchmark {
+
+	@Param({"16", "256", "1400"})
+	public int messageLength;
+
+	private String message;
+
+	private InetAddress dstAddr;
+
+	private int srcAddress;
+
+	@Setup
+	public void setup() throws Exception {
+		StringBuilder sb = new StringBuilder();
+
+		for (int i = 0; i < messageLength; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+
+		message = sb.toString();
+		dstAddr = InetAddress.getByName("10.2.1.1");
+		srcAddress = 0x0A000001;
+	}
+
+	@Benchmark
+	public byte[] buildPacket() {
+		return Client.buildPacket(srcAddress, message, dstAddr);
+	}
+}
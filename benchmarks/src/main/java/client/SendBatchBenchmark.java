@@ -0,0 +1,89 @@
+package client;
+
+import transport.SinkTransport;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/********************************************************************
+ * SendBatchBenchmark.java
+ *
+ * A burst of messages to a few destinations, sent one at a time with
+ * Client.sendMessage and all at once with Client.sendBatch, each
+ * waiting until the burst is written. Scores are per message. Uses
+ * host 1's configuration, so run it from the top of the repository.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendBatchBenchmark {
+
+	/** Messages in each burst. */
+	private static final int BURST = 1000;
+
+	@Param({"16", "256", "1400"})
+	public int messageLength;
+
+	private Client client;
+
+	private List<Message> messages;
+
+	@Setup
+	public void setup() throws Exception {
+		client = new Client(new SinkTransport());
+		client.setHostNumber(1);
+
+		StringBuilder sb = new StringBuilder();
+
+		for (int i = 0; i < messageLength; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+
+		messages = new ArrayList<Message>();
+
+		for (int i = 0; i < BURST; i++) {
+			InetAddress dst = InetAddress.getByName("10.2." + (i % 8) + ".1");
+			messages.add(new Message(dst, sb.toString()));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BURST)
+	public void sendMessage() {
+		CompletableFuture<Void> last = null;
+
+		for (Message m : messages) {
+			last = client.sendMessage(m.getText(), m.getDestination());
+		}
+
+		// Sends are written in order, so the burst is done with the last
+		last.join();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BURST)
+	public void sendBatch() {
+		client.sendBatch(messages).join();
+	}
+}
@@ -0,0 +1,94 @@
+package headers;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/********************************************************************
+ * ChecksumBenchmark.java
+ *
+ * Checksum calculation of the IPv4, UDP and ICMP headers over
+ * packets with payloads from empty to the largest UDP datagram.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+
+	@Param({"0", "64", "512", "1472", "8192", "65507"})
+	public int payloadSize;
+
+	private static final IP_Header IP = new IP_Header();
+	private static final UDP_Header UDP = new UDP_Header();
+	private static final ICMP_Header ICMP = new ICMP_Header();
+
+	/** The packet as an array, and as a direct buffer. */
+	private byte[] packet;
+	private ByteBuffer direct;
+
+	@Setup
+	public void setup() {
+		int length = IP_Header.LENGTH + UDP_Header.LENGTH + payloadSize;
+
+		packet = new byte[length];
+		new Random(457).nextBytes(packet);
+
+		ByteBuffer buf = ByteBuffer.wrap(packet);
+		IP.setup(buf, IP_Header.UDP);
+		IP.setSource(buf, 0x0A000001);
+		IP.setDestination(buf, 0x0A020101);
+		IP.setTotalLength(buf, length);
+		UDP.setLength(buf, length - IP_Header.LENGTH);
+		UDP.updateChecksum(buf, IP);
+		IP.updateChecksum(buf);
+
+		direct = ByteBuffer.allocateDirect(length);
+		direct.put(packet);
+		direct.clear();
+	}
+
+	@Benchmark
+	public int ipChecksum() {
+		return IP_Header.calculateChecksum(packet, 0, IP_Header.LENGTH);
+	}
+
+	@Benchmark
+	public int udpChecksum() {
+		return UDP_Header.calculateChecksum(packet, IP_Header.LENGTH,
+				packet.length);
+	}
+
+	@Benchmark
+	public int udpChecksumDirectBuffer() {
+		return UDP.calculateChecksum(direct, IP);
+	}
+
+	/* Treats everything after the IPv4 header as one ICMP message. */
+	@Benchmark
+	public int icmpChecksum() {
+		return ICMP_Header.calculateChecksum(packet, IP_Header.LENGTH,
+				packet.length);
+	}
+
+	@Benchmark
+	public int icmpChecksumDirectBuffer() {
+		return ICMP.calculateChecksum(direct, packet.length);
+	}
+}
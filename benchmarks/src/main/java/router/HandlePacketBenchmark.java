@@ -0,0 +1,94 @@
+package router;
+
+import headers.IP_Header;
+import headers.UDP_Header;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import transport.SinkTransport;
+
+/********************************************************************
+ * HandlePacketBenchmark.java
+ *
+ * The whole per packet path of router 1: validation, lookup, TTL
+ * and checksum patching and the send, against an in-memory transport.
+ * Reads config/router-1.txt, so it must be run from the top of the
+ * repository.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandlePacketBenchmark {
+
+	@Param({"16", "512", "1472"})
+	public int payloadSize;
+
+	private static final IP_Header IP = new IP_Header();
+	private static final UDP_Header UDP = new UDP_Header();
+
+	private Router router;
+
+	/** Received packet, forwarded in place on every call. */
+	private ByteBuffer packet;
+
+	private int length;
+
+	/** Original TTL, protocol and IP checksum, restored after each
+	 * call since forwarding patches them. */
+	private int ttlWord;
+
+	@Setup
+	public void setup() throws Exception {
+		router = new Router(1, new SinkTransport());
+
+		length = IP_Header.LENGTH + UDP_Header.LENGTH + payloadSize;
+		packet = ByteBuffer.allocateDirect(length);
+
+		// From host 1 to host 3, which router 1 forwards to router 2
+		IP.setup(packet, IP_Header.UDP);
+		IP.setSource(packet, 0x0A000001);
+		IP.setDestination(packet, 0x0A020001);
+		IP.setTotalLength(packet, length);
+		UDP.setSrcPort(packet, 4529);
+		UDP.setDstPort(packet, 4529);
+		UDP.setLength(packet, length - IP_Header.LENGTH);
+
+		for (int i = IP_Header.LENGTH + UDP_Header.LENGTH; i < length; i++) {
+			packet.put(i, (byte) ('a' + i % 26));
+		}
+
+		UDP.updateChecksum(packet, IP);
+		IP.updateChecksum(packet);
+
+		ttlWord = packet.getInt(8);
+	}
+
+	@Benchmark
+	public ByteBuffer handlePacket() throws Exception {
+		packet.putInt(8, ttlWord);
+		packet.limit(length);
+		packet.position(0);
+
+		router.handlePacket(packet);
+
+		return packet;
+	}
+}
@@ -0,0 +1,103 @@
+package router;
+
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/********************************************************************
+ * RoutingTableBenchmark.java
+ *
+ * Longest prefix match lookups, which is all Router.findMatch does,
+ * over tables of random prefixes from 10 to 100k entries. Half of the
+ * destinations are drawn from inside the table's prefixes and half
+ * are random. cachedLookup() goes through a RouteCache, as findMatch
+ * does, sized so every destination fits.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingTableBenchmark {
+
+	@Param({"10", "100", "1000", "10000", "100000"})
+	public int tableSize;
+
+	/** Number of destinations cycled through. A power of two. */
+	private static final int DESTINATIONS = 4096;
+
+	private RoutingTable table;
+
+	private RouteCache cache;
+
+	private int[] destinations;
+
+	private int next;
+
+	@Setup
+	public void setup() throws Exception {
+		Random rand = new Random(457);
+
+		InetAddress[] hops = new InetAddress[16];
+
+		for (int i = 0; i < hops.length; i++) {
+			hops[i] = InetAddress.getByAddress(
+					new byte[] {(byte) 148, 61, 112, (byte) (100 + i)});
+		}
+
+		table = new RoutingTable();
+		int[] prefixes = new int[tableSize];
+
+		/* Mostly /16 to /24 prefixes, like a real table */
+		for (int i = 0; i < tableSize; i++) {
+			int length = 8 + rand.nextInt(25);
+
+			if (rand.nextInt(4) != 0) length = 16 + rand.nextInt(9);
+
+			prefixes[i] = rand.nextInt() & RoutingTable.mask(length);
+			table.add(prefixes[i], length, hops[rand.nextInt(hops.length)]);
+		}
+
+		destinations = new int[DESTINATIONS];
+
+		for (int i = 0; i < DESTINATIONS; i++) {
+			if (i % 2 == 0) {
+				destinations[i] = rand.nextInt();
+			} else {
+				int prefix = prefixes[rand.nextInt(tableSize)];
+				destinations[i] = prefix | (rand.nextInt() & 0xFF);
+			}
+		}
+
+		cache = new RouteCache(4 * DESTINATIONS);
+	}
+
+	@Benchmark
+	public InetAddress lookup() {
+		next = (next + 1) & (DESTINATIONS - 1);
+
+		return table.lookup(destinations[next]);
+	}
+
+	@Benchmark
+	public InetAddress cachedLookup() {
+		next = (next + 1) & (DESTINATIONS - 1);
+
+		return cache.lookup(table, destinations[next]);
+	}
+}
@@ -0,0 +1,61 @@
+package transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+/********************************************************************
+ * SinkTransport.java
+ *
+ * In-memory stand-in for the real network. Nothing is ever received,
+ * and sent datagrams are counted and discarded, so benchmarks measure
+ * packet handling without any socket I/O.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class SinkTransport implements Transport {
+
+	private long datagrams;
+
+	private long bytes;
+
+	@Override
+	public InetAddress receive(ByteBuffer dst) throws IOException {
+		throw new IOException("SinkTransport never receives");
+	}
+
+	@Override
+	public InetAddress poll(ByteBuffer dst) {
+		return null;
+	}
+
+	@Override
+	public void send(ByteBuffer src, InetAddress dst) {
+		datagrams++;
+		bytes += src.remaining();
+		src.position(src.limit());
+	}
+
+	@Override
+	public boolean trySend(ByteBuffer src, InetAddress dst) {
+		send(src, dst);
+		return true;
+	}
+
+	/****************************************************************
+	 * @return the number of datagrams sent.
+	 ***************************************************************/
+	public long getDatagrams() {
+		return datagrams;
+	}
+
+	/****************************************************************
+	 * @return the number of bytes sent.
+	 ***************************************************************/
+	public long getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public void close() {}
+}
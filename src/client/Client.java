@@ -1,16 +1,34 @@
 package client;
 
+import headers.Checksum;
+import headers.Fragmenter;
+import headers.ICMP_Header;
 import headers.IP_Header;
+import headers.Reassembler;
 import headers.UDP_Header;
+import transport.BufferPool;
+import transport.Transport;
+import transport.UdpTransport;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.io.InterruptedIOException;
 import java.net.InetAddress;
-import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,6 +36,12 @@ import java.util.regex.Pattern;
  * CIS 457-10 Project 4
  * 
  * Logic for the client on our virtual network.
+ * 
+ * Messages are sent in order by the client's sender thread, and
+ * received messages are handed to the registered MessageListeners
+ * by a single I/O thread. Packets larger than the MTU of the link
+ * to the router are sent in fragments, and received fragments are
+ * put back together before being handed on.
  *
  * @author Jack O'Brien
  * @author Megan Maher
@@ -28,11 +52,11 @@ import java.util.regex.Pattern;
 public class Client {
 
 	/** The port to send the datagram packet on is 1618. */
-	private final int PORT = 1618;
+	private static final int PORT = 1618;
 	
 	/** The port used in the UDP header created by this
 	 * client is 4529. */
-	private final int VIRTUAL_PORT = 4529;
+	private static final int VIRTUAL_PORT = 4529;
 	
 	/** Path to the configuration files. */
 	private final String PATH = "config/";
@@ -43,17 +67,97 @@ public class Client {
 	
 	private InetAddress srcIP;
 	
-	/** The socket used by this client. */
-	private DatagramSocket clientSocket;
+	/** The virtual source address as an int. */
+	private int srcAddress;
+	
+	/** Views of the headers in packets sent and received by this 
+	 * client. */
+	private static final IP_Header IP = new IP_Header();
+	private static final UDP_Header UDP = new UDP_Header();
+	private static final ICMP_Header ICMP = new ICMP_Header();
+	
+	/** View of the IPv4 header quoted by an ICMP message. */
+	private static final IP_Header QUOTED_IP = 
+			new IP_Header(IP_Header.LENGTH + ICMP_Header.LENGTH);
+	
+	/** Largest IPv4 packet, and the default size of the buffers 
+	 * messages are received into. */
+	public static final int MAX_PACKET = 65535;
+	
+	/** Memory for partial packets being reassembled, and how long 
+	 * to wait for the rest of one in milliseconds. */
+	private static final int REASSEMBLY_MEMORY = 1024 * 1024;
+	private static final int REASSEMBLY_TIMEOUT = 30000;
+	
+	/** Largest packet sent to the router in one piece. */
+	private int mtu = IP_Header.MAX_LENGTH;
+	
+	/** Type of service byte of the packets sent, which routers queue
+	 * by. */
+	private volatile int tos;
+	
+	/** Puts received fragments back together. Only used by the I/O
+	 * thread. */
+	private final Reassembler reassembler = 
+			new Reassembler(REASSEMBLY_MEMORY, REASSEMBLY_TIMEOUT);
+	
+	/** Buffers messages are received into. Replaced when the size
+	 * changes. */
+	private volatile BufferPool pool;
+	
+	/** Packets received, and those dropped because they were larger
+	 * than the receive buffer or malformed. */
+	private final LongAdder received = new LongAdder();
+	private final LongAdder truncated = new LongAdder();
+	
+	/** Times a listener threw. */
+	private final LongAdder listenerFailures = new LongAdder();
+	
+	/** The "real" network this client sends and receives on. */
+	private final Transport transport;
+	
+	/** Called with each received message. */
+	private final List<MessageListener> listeners = 
+			new CopyOnWriteArrayList<MessageListener>();
+	
+	/** Receives messages and calls the listeners. */
+	private Thread ioThread;
+	
+	/** Most sends waiting for the sender thread. A caller sending 
+	 * while this many are waiting blocks until there is room. */
+	private static final int SEND_QUEUE = 1024;
+	
+	/** How often a caller blocked on a full send queue checks 
+	 * whether the client was closed, in milliseconds. */
+	private static final long SEND_WAIT_MILLIS = 10;
+	
+	/** Sends waiting for the sender thread. */
+	private final BlockingQueue<Send> sends = 
+			new ArrayBlockingQueue<Send>(SEND_QUEUE);
+	
+	/** Writes the queued sends. Started by the first send. */
+	private volatile Thread senderThread;
+	
+	private volatile boolean closed;
 	
 	/****************************************************************
-	 * Constructor for this client. Instantiates the socket.
+	 * Constructor for this client. Opens a UDP transport.
 	 * 
-	 * @throws SocketException if the socket is unable to be created.
+	 * @throws IOException if the transport is unable to be created.
 	 * Most likely the port is already in use.
 	 ***************************************************************/
-	public Client() throws SocketException {		
-		clientSocket = new DatagramSocket(PORT);
+	public Client() throws IOException {		
+		this(new UdpTransport(PORT));
+	}
+	
+	/****************************************************************
+	 * Constructor for a client on the given transport.
+	 * 
+	 * @param transport the "real" network to send and receive on.
+	 ***************************************************************/
+	public Client(Transport transport) {
+		this.transport = transport;
+		pool = new BufferPool(MAX_PACKET, 1);
 	}
 	
 	public void setHostNumber(int host_number) throws Exception {
@@ -62,144 +166,552 @@ public class Client {
 		readConfigFile();
 	}
 	
-	public String[] receiveMessage() {
-		byte[] buf = new byte[1024];
-
-		DatagramPacket packet = new DatagramPacket(buf, buf.length);
+	/****************************************************************
+	 * Sets the size of the buffers packets are received into. Larger
+	 * packets are dropped and counted as truncated.
+	 * 
+	 * @param bytes the buffer size, at most MAX_PACKET.
+	 ***************************************************************/
+	public void setReceiveBufferSize(int bytes) {
+		int size = Math.max(IP_Header.LENGTH + UDP_Header.LENGTH, 
+				Math.min(bytes, MAX_PACKET));
+		
+		if (size != pool.getBufferSize()) {
+			pool = new BufferPool(size, 1);
+		}
+	}
+	
+	public int getReceiveBufferSize() {
+		return pool.getBufferSize();
+	}
+	
+	/****************************************************************
+	 * Sets the size of the socket buffer (SO_RCVBUF) holding packets
+	 * until the I/O thread receives them. A larger buffer rides out
+	 * longer bursts. Ignored unless the transport is UDP.
+	 * 
+	 * @param bytes the requested size.
+	 * @throws IOException if the option can't be set.
+	 ***************************************************************/
+	public void setSocketReceiveBufferSize(int bytes) throws IOException {
+		if (transport instanceof UdpTransport) {
+			((UdpTransport) transport).setReceiveBufferSize(bytes);
+		}
+	}
+	
+	/****************************************************************
+	 * Sets the MTU of the link to the router. Larger packets are sent
+	 * in fragments.
+	 * 
+	 * @param bytes the MTU, at least IP_Header.MIN_MTU.
+	 ***************************************************************/
+	public void setMtu(int bytes) {
+		mtu = Math.max(IP_Header.MIN_MTU, Math.min(bytes, MAX_PACKET));
+	}
+	
+	public int getMtu() {
+		return mtu;
+	}
+	
+	/****************************************************************
+	 * Sets the type of service byte of the packets sent. Routers
+	 * send IP_Header.TOS_EXPEDITED packets ahead of others on a busy
+	 * link, and IP_Header.TOS_BULK packets after them.
+	 * 
+	 * @param tos the DSCP in the upper six bits.
+	 ***************************************************************/
+	public void setTos(int tos) {
+		this.tos = tos & 0xFF;
+	}
+	
+	public int getTos() {
+		return tos;
+	}
+	
+	/****************************************************************
+	 * @return the number of packets received.
+	 ***************************************************************/
+	public long getReceivedCount() {
+		return received.sum();
+	}
+	
+	/****************************************************************
+	 * @return the number of packets dropped because they did not fit
+	 * the receive buffer, were cut short or were malformed.
+	 ***************************************************************/
+	public long getTruncatedCount() {
+		return truncated.sum();
+	}
+	
+	/****************************************************************
+	 * @return the number of times a listener threw.
+	 ***************************************************************/
+	public long getListenerFailureCount() {
+		return listenerFailures.sum();
+	}
+	
+	/****************************************************************
+	 * Registers a listener for received messages.
+	 * 
+	 * @param listener the listener to add.
+	 ***************************************************************/
+	public void addMessageListener(MessageListener listener) {
+		listeners.add(listener);
+	}
+	
+	public void removeMessageListener(MessageListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/****************************************************************
+	 * Starts the I/O thread which receives messages and passes them
+	 * to the listeners. Does nothing if it is already running.
+	 ***************************************************************/
+	public synchronized void start() {
+		if (ioThread != null) return;
+		
+		ioThread = new Thread(new Receiver(), "client-io");
+		ioThread.setDaemon(true);
+		ioThread.start();
+	}
+	
+	/****************************************************************
+	 * Stops the I/O and sender threads and closes the transport. 
+	 * Sends still waiting fail with a ClosedChannelException.
+	 * 
+	 * @throws IOException if the transport fails to close.
+	 ***************************************************************/
+	public void close() throws IOException {
+		closed = true;
+		
+		Thread sender;
+		synchronized (this) {
+			sender = senderThread;
+		}
 		
 		try {
-			clientSocket.receive(packet);
-		} catch (Exception e) {
-			return null;
+			transport.close();
+		} finally {
+			if (sender != null) {
+				sender.interrupt();
+				
+				try {
+					sender.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
 		}
+	}
+	
+	/****************************************************************
+	 * Starts the sender thread if it is not running yet and the 
+	 * client is still open.
+	 ***************************************************************/
+	private void startSender() {
+		if (senderThread != null) return;
 		
-		int protocol = buf[9] & 0xFF;
+		synchronized (this) {
+			if (senderThread != null || closed) return;
+			
+			Thread t = new Thread(new Sender(), "client-sender");
+			t.setDaemon(true);
+			t.start();
+			senderThread = t;
+		}
+	}
+	
+	/****************************************************************
+	 * Queues a send for the sender thread, blocking while the queue 
+	 * is full.
+	 * 
+	 * @param send the send to queue.
+	 * @return the send's future.
+	 ***************************************************************/
+	private CompletableFuture<Void> submit(Send send) {
+		startSender();
+		
+		boolean queued = false;
+		
+		try {
+			while (!queued && !closed) {
+				queued = sends.offer(send, SEND_WAIT_MILLIS, 
+						TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			send.result.completeExceptionally(new InterruptedIOException());
+			return send.result;
+		}
+		
+		/* The sender may already have stopped and failed what was 
+		 * queued, so a send it has not taken is failed here */
+		if (!queued || closed && sends.remove(send)) {
+			send.result.completeExceptionally(new ClosedChannelException());
+		}
+		
+		return send.result;
+	}
+	
+	/****************************************************************
+	 * Decodes a received packet and passes it to the listeners.
+	 * 
+	 * @param data the buffer holding the packet.
+	 * @param payload read-only view of the same buffer, set around
+	 * the payload for the listeners.
+	 ***************************************************************/
+	private void dispatch(ByteBuffer data, ByteBuffer payload) {
+		int length = data.limit();
+		
+		/* The IPv4 length says how much should have arrived */
+		if (length < IP_Header.LENGTH || IP.totalLength(data) > length) {
+			truncated.increment();
+			return;
+		}
 		
-		if (protocol == 1) {
-			String[] toReturn = new String[3];
+		if (IP.isFragment(data)) {
+			dispatchFragment(data);
+			return;
+		}
+		
+		InetAddress source = IP_Header.intToAddress(IP.source(data));
+		
+		if (IP.protocol(data) == IP_Header.ICMP) {
+			if (length < QUOTED_IP.offset() + IP_Header.LENGTH) return;
+			
+			int type = ICMP.type(data);
+			InetAddress dest = IP_Header.intToAddress(
+					QUOTED_IP.destination(data));
 			
-			toReturn[0] = Integer.toString((int) buf[20]);
-			toReturn[1] = translateIP(buf, 12);
-			toReturn[2] = translateIP(buf, 44);
+			for (MessageListener l : listeners) {
+				try {
+					l.icmpReceived(type, source, dest);
+				} catch (RuntimeException e) {
+					listenerFailed(l, e);
+				}
+			}
 			
-			return toReturn;
+			return;
 		}
 		
-		int data_length = (int) (((buf[2] << 8) | (buf[3] & 0xFF)) & 0xFFFF);
+		int start = IP_Header.LENGTH + UDP_Header.LENGTH;
+		int end = IP.totalLength(data);
 		
-		String message = "";
+		if (end < start) return;
 		
-		for (int i = 28; i < data_length; i++) {
-			message += (char) buf[i];
+		// Each listener gets the whole payload
+		for (MessageListener l : listeners) {
+			payload.limit(end).position(start);
+			
+			try {
+				l.messageReceived(source, payload);
+			} catch (RuntimeException e) {
+				listenerFailed(l, e);
+			}
 		}
+	}
+	
+	/****************************************************************
+	 * Counts a listener which threw and tells it so. A listener 
+	 * which throws from listenerFailed too is only counted.
+	 * 
+	 * @param l the listener.
+	 * @param e what it threw.
+	 ***************************************************************/
+	private void listenerFailed(MessageListener l, RuntimeException e) {
+		listenerFailures.increment();
 		
-		String[] srcAndMessage = new String[2];
+		try {
+			l.listenerFailed(e);
+		} catch (RuntimeException again) {}
+	}
+	
+	/****************************************************************
+	 * Adds a received fragment to its packet, and passes the packet
+	 * to the listeners once every fragment has arrived.
+	 * 
+	 * @param data the buffer holding the fragment.
+	 ***************************************************************/
+	private void dispatchFragment(ByteBuffer data) {
+		ByteBuffer packet = reassembler.add(data);
 		
-		srcAndMessage[0] = translateIP(buf, 12);
-		srcAndMessage[1] = message;
+		if (packet == null) return;
 		
-		return srcAndMessage;
+		try {
+			dispatch(packet, packet.asReadOnlyBuffer());
+		} finally {
+			reassembler.release(packet);
+		}
 	}
 	
 	/****************************************************************
-	 * Converts the 4 bytes from the given starting index into
-	 * IPv4 format as a String.
+	 * Sends a packet to the router, in fragments if it is larger than
+	 * the MTU.
 	 * 
-	 * @param data the byte array containing the IPv4 address.
-	 * @param start the index of the first byte of the address.
-	 * @return String representation of the address.
+	 * @param packet the buffer holding the packet from index 0.
+	 * @throws IOException if the packet or a fragment can't be sent.
 	 ***************************************************************/
-	private String translateIP(byte[] data, int start) {
-		String ip = "";
+	private void send(ByteBuffer packet) throws IOException {
+		int length = mtu;
+		
+		if (packet.remaining() <= length) {
+			transport.send(packet, realDst);
+			return;
+		}
+		
+		int count = Fragmenter.count(packet, length);
+		ByteBuffer fragment = ByteBuffer.allocate(length);
 		
-		for (int i = 0; i < 4; i++) {
-			ip += "." + Integer.toString((int) (data[i + start] & 0xFF));
+		for (int i = 0; i < count; i++) {
+			Fragmenter.write(packet, length, i, fragment);
+			transport.send(fragment, realDst);
 		}
+	}
+	
+	/****************************************************************
+	 * Sends the given text as UTF-8, as 
+	 * sendMessage(ByteBuffer, InetAddress) does.
+	 * 
+	 * @param message plain text message to send.
+	 * @param dstAddr destination IPv4 address.
+	 * @return a future completed once the message is written, or 
+	 * exceptionally if it could not be.
+	 ***************************************************************/
+	public CompletableFuture<Void> sendMessage(String message, 
+			InetAddress dstAddr) {
+		byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
 		
-		return ip.substring(1);
+		return sendMessage(ByteBuffer.wrap(bytes), dstAddr);
 	}
 	
 	/****************************************************************
 	 * Sends the given message to the IPv4 address given by the
 	 * configuration file. The message is encapsulated with an 
-	 * IPv4 and UDP layer.
+	 * IPv4 and UDP layer. 
 	 * 
-	 * @param message plain text message to send.
+	 * The packet is built on the caller's thread, so the payload 
+	 * may be reused as soon as this returns, and is then queued for 
+	 * the sender thread. The sender waits for room in the socket 
+	 * send buffer rather than dropping the packet. The caller only
+	 * blocks while SEND_QUEUE sends are already waiting.
+	 * 
+	 * @param payload the bytes to send, from the buffer's position
+	 * to its limit. The position is not changed.
 	 * @param dstAddr destination IPv4 address.
+	 * @return a future completed once the message is written, or 
+	 * exceptionally if it could not be.
 	 ***************************************************************/
-	public void sendMessage(String message, InetAddress dstAddr) {
-		byte[] data = buildPacket(message, dstAddr);	
+	public CompletableFuture<Void> sendMessage(ByteBuffer payload, 
+			InetAddress dstAddr) {
+		if (realDst == null) {
+			CompletableFuture<Void> result = new CompletableFuture<Void>();
+			result.completeExceptionally(
+					new IllegalStateException("No host number set"));
+			return result;
+		}
 		
-		DatagramPacket packet = 
-				new DatagramPacket(data, data.length, realDst, PORT);
-				
-		try {
-			clientSocket.send(packet);
-		} catch (IOException e) {
-			e.printStackTrace();
+		final byte[] data = buildPacket(srcAddress, payload, dstAddr, tos);
+		
+		return submit(new Send() {
+			@Override
+			void write() throws IOException {
+				send(ByteBuffer.wrap(data));
+			}
+		});
+	}
+	
+	/****************************************************************
+	 * Sends every message in the list, in order. The headers for 
+	 * each destination are built once, and each message only fills 
+	 * in the lengths, ID and checksums, summing nothing but its own
+	 * payload. A failed send does not stop the rest of the batch.
+	 * 
+	 * The batch is queued for the sender thread like sendMessage's
+	 * packets, which waits for room in the socket send buffer 
+	 * rather than dropping the rest of the batch. The payloads are 
+	 * read by the sender thread, so they must not change until the 
+	 * future completes.
+	 * 
+	 * @param messages the messages to send.
+	 * @return a future completed once every message is written, or 
+	 * exceptionally if any could not be.
+	 ***************************************************************/
+	public CompletableFuture<Void> sendBatch(List<Message> messages) {
+		if (realDst == null) {
+			CompletableFuture<Void> result = new CompletableFuture<Void>();
+			result.completeExceptionally(
+					new IllegalStateException("No host number set"));
+			return result;
+		}
+		
+		final List<Message> batch = new ArrayList<Message>(messages);
+		final int tos = this.tos;
+		
+		return submit(new Send() {
+			@Override
+			void write() throws IOException {
+				writeBatch(batch, tos);
+			}
+		});
+	}
+	
+	/****************************************************************
+	 * Builds and sends the packets of a batch. Only called by the 
+	 * sender thread.
+	 * 
+	 * @param messages the messages to send.
+	 * @param tos the type of service byte.
+	 * @throws IOException if any message could not be sent.
+	 ***************************************************************/
+	private void writeBatch(List<Message> messages, int tos) 
+			throws IOException {
+		Map<InetAddress, HeaderTemplate> templates = 
+				new HashMap<InetAddress, HeaderTemplate>();
+		
+		ByteBuffer buf = null;
+		int id = ThreadLocalRandom.current().nextInt(65536);
+		
+		IOException firstError = null;
+		int failed = 0;
+		
+		for (Message message : messages) {
+			HeaderTemplate template = templates.get(message.getDestination());
+			
+			if (template == null) {
+				template = new HeaderTemplate(srcAddress, 
+						IP_Header.addressToInt(message.getDestination()), tos);
+				templates.put(message.getDestination(), template);
+			}
+			
+			int udpLength = UDP_Header.LENGTH + message.length();
+			int totalLength = IP_Header.LENGTH + udpLength;
+			
+			if (buf == null || buf.capacity() < totalLength) {
+				buf = ByteBuffer.allocate(totalLength);
+			}
+			
+			buf.clear();
+			buf.put(template.headers);
+			message.copyTo(buf);
+			buf.flip();
+			
+			IP.setTotalLength(buf, totalLength);
+			IP.setId(buf, id);
+			IP.setChecksum(buf, Checksum.finish(template.ipSum + 
+					totalLength + id));
+			
+			// The length is in both the pseudo header and the header
+			long udpSum = template.udpSum + 2L * udpLength;
+			udpSum = Checksum.add(udpSum, buf, 
+					IP_Header.LENGTH + UDP_Header.LENGTH, totalLength);
+			
+			UDP.setLength(buf, udpLength);
+			UDP.setChecksum(buf, Checksum.finish(udpSum));
+			
+			id = (id + 1) & 0xFFFF;
+			
+			try {
+				send(buf);
+			} catch (IOException e) {
+				if (firstError == null) firstError = e;
+				failed++;
+			}
+		}
+		
+		if (firstError != null) {
+			throw new IOException(failed + " of " + messages.size() + 
+					" messages not sent", firstError);
 		}
 	}
 	
 	/****************************************************************
 	 * Encapsulates the data to be sent to the given address.
 	 * 
-	 * @param message plain text message to send.
+	 * @param srcAddress the virtual source address as an int.
+	 * @param message plain text message to send, as UTF-8.
 	 * @param dstAddr destination IPv4 address.
 	 * @return byte array representing the constructed packet.
 	 ***************************************************************/
-	private byte[] buildPacket(String message, InetAddress dstAddr) {
-		IP_Header ipH = new IP_Header();
-		UDP_Header udpH = new UDP_Header();
+	static byte[] buildPacket(int srcAddress, String message, 
+			InetAddress dstAddr) {
+		byte[] messageData = message.getBytes(StandardCharsets.UTF_8);
 		
-		// Set the IP addresses
-		ipH.setSource(srcIP);
-		ipH.setDestination(dstAddr);
-		
-		// Set the IP header data length field
-		ipH.setDataSize(message.length() + udpH.getLength());
-		
-		// Set the ports
-		udpH.setSrcPort(VIRTUAL_PORT);
-		udpH.setDstPort(VIRTUAL_PORT);
+		return buildPacket(srcAddress, ByteBuffer.wrap(messageData), dstAddr);
+	}
+	
+	/****************************************************************
+	 * Encapsulates the data to be sent to the given address.
+	 * 
+	 * @param srcAddress the virtual source address as an int.
+	 * @param payload the bytes to send, from the buffer's position to
+	 * its limit. The position is not changed.
+	 * @param dstAddr destination IPv4 address.
+	 * @return byte array representing the constructed packet.
+	 ***************************************************************/
+	static byte[] buildPacket(int srcAddress, ByteBuffer payload, 
+			InetAddress dstAddr) {
+		return buildPacket(srcAddress, payload, dstAddr, 0);
+	}
+	
+	/****************************************************************
+	 * Encapsulates the data to be sent to the given address.
+	 * 
+	 * @param srcAddress the virtual source address as an int.
+	 * @param payload the bytes to send, from the buffer's position to
+	 * its limit. The position is not changed.
+	 * @param dstAddr destination IPv4 address.
+	 * @param tos the type of service byte.
+	 * @return byte array representing the constructed packet.
+	 ***************************************************************/
+	static byte[] buildPacket(int srcAddress, ByteBuffer payload, 
+			InetAddress dstAddr, int tos) {
+		int length = payload.remaining();
 		
-		// Set the UDP header data length field
-		udpH.setDataLength(message.length());
+		int headerLength = IP_Header.LENGTH + UDP_Header.LENGTH;
+		byte[] bytes = new byte[headerLength + length];
 		
-		// Calculates and sets the UDP header checksum
-		udpH.calculateChecksum(ipH.getPseudoHeader(), message);
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
 		
-		// Gets the bit string for the UDP header
-		String udpBits = udpH.getBitString();
+		// Writes the default IP header values
+		IP.setup(buf, IP_Header.UDP);
+		IP.setTos(buf, tos);
 		
-		// Gets the bit string from the IP header
-		String ipBits = ipH.getBitString();
+		// Set the IP addresses
+		IP.setSource(buf, srcAddress);
+		IP.setDestination(buf, IP_Header.addressToInt(dstAddr));
 		
-		byte[] messageData = message.getBytes();
+		// Set the IP header data length field
+		IP.setDataSize(buf, UDP_Header.LENGTH + length);
 		
-		String packetBits = ipBits + udpBits;
-		int packetLength = packetBits.length() / 8;
+		// Set the ports
+		UDP.setSrcPort(buf, VIRTUAL_PORT);
+		UDP.setDstPort(buf, VIRTUAL_PORT);
 		
-		byte[] bytes = new byte[packetLength + messageData.length];
+		// Set the UDP header data length field
+		UDP.setDataLength(buf, length);
 		
-		/* Converts the bit strings into bytes and adds them
-		 * to the byte array. */
-		for (int i = 0; i < packetLength; i++) {
-			int start = i * 8;
-			int end = start + 8;
-			
-			String octet = packetBits.substring(start, end);
-			
-			bytes[i] = (byte) Integer.parseInt(octet, 2);
-		}
+		/* Adds the bytes of the message after the headers. */
+		buf.position(headerLength);
+		buf.put(payload.duplicate());
+		buf.clear();
 		
-		/* Adds the bytes of the message to the byte array. */
-		for (int i = packetLength; i < bytes.length; i++) {
-			bytes[i] = messageData[i-packetLength];
-		}
+		// Calculates and sets both checksums
+		UDP.updateChecksum(buf, IP);
+		IP.updateChecksum(buf);
 		
 		return bytes;
 	}
 	
+	/****************************************************************
+	 * Reads the host's configuration file. The first two addresses 
+	 * in it are the host's virtual address and its router's "real" 
+	 * address. Optional "buffer N" and "socket-buffer N" lines set 
+	 * the receive buffer and SO_RCVBUF sizes, "mtu N" the MTU of the
+	 * link to the router and "tos N" the type of service byte.
+	 * 
+	 * @throws Exception if the file is missing or has too few 
+	 * addresses.
+	 ***************************************************************/
 	private void readConfigFile() throws Exception {
 		String path = PATH + "host-" + host_number + ".txt";
 		
@@ -214,8 +726,22 @@ public class Client {
 			Pattern pattern = Pattern.compile(regex);
 			Matcher matcher = pattern.matcher(line);
 			
+			String[] strArr = line.split(" ");
+			
+			/* Checks for the optional buffer sizes */
+			if (strArr.length == 2 && strArr[0].equals("buffer")) {
+				setReceiveBufferSize(Integer.parseInt(strArr[1]));
+			} else if (strArr.length == 2 && 
+					strArr[0].equals("socket-buffer")) {
+				setSocketReceiveBufferSize(Integer.parseInt(strArr[1]));
+			} else if (strArr.length == 2 && strArr[0].equals("mtu")) {
+				setMtu(Integer.parseInt(strArr[1]));
+			} else if (strArr.length == 2 && strArr[0].equals("tos")) {
+				setTos(Integer.parseInt(strArr[1]));
+			}
+			
 			/* Checks if an IP has been found. */
-			if (matcher.find()) {
+			else if (matcher.find()) {
 				String ipStr = matcher.group(0);
 				InetAddress ip = InetAddress.getByName(ipStr);
 				ipArr.add(ip);
@@ -229,10 +755,140 @@ public class Client {
 		}
 		
 		srcIP = ipArr.get(0);
+		srcAddress = IP_Header.addressToInt(srcIP);
 		realDst = ipArr.get(1);	
 	}
 	
+	/****************************************************************
+	 * @return the virtual address of this host.
+	 ***************************************************************/
+	public InetAddress getAddress() {
+		return srcIP;
+	}
+	
 	public String getTitle() {
 		return host_number + ": " + srcIP.getHostAddress();
 	}
+	
+	/* IPv4 and UDP headers to one destination with the lengths, ID 
+	 * and checksums zeroed, and the sums of the rest of each header.
+	 * The UDP sum includes the pseudo header. */
+	private static final class HeaderTemplate {
+		
+		private final byte[] headers = 
+				new byte[IP_Header.LENGTH + UDP_Header.LENGTH];
+		
+		private final long ipSum;
+		
+		private final long udpSum;
+		
+		private HeaderTemplate(int srcAddress, int dstAddress, int tos) {
+			ByteBuffer buf = ByteBuffer.wrap(headers);
+			
+			IP.setup(buf, IP_Header.UDP);
+			IP.setTos(buf, tos);
+			IP.setTotalLength(buf, 0);
+			IP.setId(buf, 0);
+			IP.setSource(buf, srcAddress);
+			IP.setDestination(buf, dstAddress);
+			
+			UDP.setSrcPort(buf, VIRTUAL_PORT);
+			UDP.setDstPort(buf, VIRTUAL_PORT);
+			
+			ipSum = Checksum.add(0, headers, 0, IP_Header.LENGTH);
+			udpSum = Checksum.add(IP.addPseudoHeader(buf, 0), headers, 
+					IP_Header.LENGTH, headers.length);
+		}
+	}
+	
+	/****************************************************************
+	 * A packet or batch waiting for the sender thread.
+	 ***************************************************************/
+	private abstract class Send {
+		
+		/** Completed once the send is written. */
+		final CompletableFuture<Void> result = 
+				new CompletableFuture<Void>();
+		
+		/************************************************************
+		 * Writes the send to the transport.
+		 * 
+		 * @throws IOException if it can't be written.
+		 ***********************************************************/
+		abstract void write() throws IOException;
+	}
+	
+	/****************************************************************
+	 * Writes the queued sends in order and completes their futures.
+	 * Fails whatever is still queued once interrupted by close().
+	 ***************************************************************/
+	private class Sender implements Runnable {
+		
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					Send send = sends.take();
+					
+					try {
+						send.write();
+						send.result.complete(null);
+					} catch (IOException e) {
+						send.result.completeExceptionally(e);
+					} catch (RuntimeException e) {
+						send.result.completeExceptionally(e);
+					}
+				}
+			} catch (InterruptedException e) {
+				// Closed
+			}
+			
+			Send send;
+			while ((send = sends.poll()) != null) {
+				send.result.completeExceptionally(
+						new ClosedChannelException());
+			}
+		}
+	}
+	
+	/* Receives packets until the transport is closed. */
+	private class Receiver implements Runnable {
+		
+		/** Last buffer received into, and its read-only view. */
+		private ByteBuffer buf;
+		private ByteBuffer payload;
+		
+		@Override
+		public void run() {
+			while (true) {
+				BufferPool p = pool;
+				ByteBuffer next = p.acquire();
+				
+				if (next != buf) {
+					buf = next;
+					payload = buf.asReadOnlyBuffer();
+				}
+				
+				try {
+					transport.receive(buf);
+				} catch (IOException e) {
+					p.release(buf);
+					return;
+				}
+				
+				buf.flip();
+				received.increment();
+				
+				// A packet the client can't make sense of is dropped
+				// like a short one
+				try {
+					dispatch(buf, payload);
+				} catch (RuntimeException e) {
+					truncated.increment();
+				} finally {
+					p.release(buf);
+				}
+			}
+		}
+	}
 }
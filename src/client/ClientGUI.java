@@ -1,14 +1,17 @@
 package client;
 
 import headers.ICMP_Header;
+import headers.IP_Header;
 
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
@@ -192,34 +195,54 @@ public class ClientGUI {
 		new DestinationDialog(frame, firstTime, title);
 	}
 	
-	public void receive() {
-		String[] data = client.receiveMessage();
+	/****************************************************************
+	 * Appends a line to the text area. May be called from any 
+	 * thread, the text is added on the event dispatch thread.
+	 * 
+	 * @param line the text to append, without a line break.
+	 ***************************************************************/
+	private void appendLine(final String line) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				textArea.append(line + "\n");
+			}
+		});
+	}
+	
+	/* Prints messages received by the client. Called on the client's
+	 * I/O thread. */
+	private MessageListener ml = new MessageListener() {
 		
-		if (data == null) return;
-				
-		/* ICMP message */
-		if (data.length == 3) {
-			int type = Integer.parseInt(data[0]);
-			String src = data[1];
+		@Override
+		public void messageReceived(InetAddress source, ByteBuffer payload) {
+			String message = StandardCharsets.UTF_8.decode(payload).toString();
+			
+			appendLine("- Got from <" + source.getHostAddress() + "> - " + 
+					message);
+		}
+		
+		@Override
+		public void icmpReceived(int type, InetAddress source, 
+				InetAddress destination) {
+			String src = source.getHostAddress();
 			String message = "";
 			
 			if (type == ICMP_Header.UNREACHABLE) {
-				String badHost = data[2];
 				message = "-- ICMP from <" + src + "> Unknown host: " +
-						badHost;
+						destination.getHostAddress();
 			} else if (type == ICMP_Header.TIME_EXCEEDED) {
 				message = "-- ICMP from <" + src + "> TTL expired";
 			}
 			
-			textArea.append(message + "\n");
-			return;
-		} 
-		
-		String src = data[0];
-		String message = data[1];
+			appendLine(message);
+		}
 		
-		textArea.append("- Got from <" + src + "> - " + message + "\n");
-	}
+		@Override
+		public void listenerFailed(RuntimeException e) {
+			appendLine("-- Could not show a message: " + e);
+		}
+	};
 	
 	/* Action listener to handle user input from text field. */
 	private ActionListener al = new ActionListener() {
@@ -298,7 +321,16 @@ public class ClientGUI {
 						"> - " + message + "\n");
 				textField.setText("");
 				
-				client.sendMessage(message, dstAddr);
+				// Reports a failed send once the sender thread gets to it
+				client.sendMessage(message, dstAddr).whenComplete(
+						new BiConsumer<Void, Throwable>() {
+					@Override
+					public void accept(Void v, Throwable t) {
+						if (t != null) {
+							appendLine("-- Not sent: " + t.getMessage());
+						}
+					}
+				});
 			}
 		}
 	};
@@ -307,18 +339,19 @@ public class ClientGUI {
 		Client client = null;
 		try {
 			client = new Client();
-		} catch (SocketException e) {
+		} catch (IOException e) {
 			// TODO: Alert User then exit
 			System.err.println("Port in use");
 			return;
 		}
 		
-		ClientGUI gui = new ClientGUI(client);
+		// Chat is sent ahead of bulk traffic on busy links
+		client.setTos(IP_Header.TOS_EXPEDITED);
 		
-		while (true) {
-			gui.receive();
-		}
+		ClientGUI gui = new ClientGUI(client);
 		
+		client.addMessageListener(gui.ml);
+		client.start();
 	}
 	
 	/* Inner class to create the set destination window */
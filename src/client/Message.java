@@ -0,0 +1,109 @@
+package client;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/********************************************************************
+ * Message.java
+ *
+ * A message to send to a virtual address. The payload is any bytes.
+ * Text is carried as UTF-8, and is only decoded if getText() is
+ * called.
+ *
+ * The payload is not copied, so it must not be changed while the
+ * message is in use.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class Message {
+
+	private final InetAddress destination;
+
+	/** Read-only view of the payload, from position 0. */
+	private final ByteBuffer payload;
+
+	/** The payload's array when it has one, so it can be copied
+	 * without a view. */
+	private final byte[] bytes;
+
+	/** The payload as text, once decoded. */
+	private String text;
+
+	/****************************************************************
+	 * Constructor for a Message of the remaining bytes of a buffer.
+	 *
+	 * @param destination the virtual IPv4 address to send to.
+	 * @param payload the bytes to send.
+	 ***************************************************************/
+	public Message(InetAddress destination, ByteBuffer payload) {
+		this.destination = destination;
+		this.payload = payload.slice().asReadOnlyBuffer();
+		this.bytes = null;
+	}
+
+	/****************************************************************
+	 * Constructor for a Message of an array of bytes.
+	 *
+	 * @param destination the virtual IPv4 address to send to.
+	 * @param payload the bytes to send.
+	 ***************************************************************/
+	public Message(InetAddress destination, byte[] payload) {
+		this.destination = destination;
+		this.payload = ByteBuffer.wrap(payload).asReadOnlyBuffer();
+		this.bytes = payload;
+	}
+
+	/****************************************************************
+	 * Constructor for a text Message, sent as UTF-8.
+	 *
+	 * @param destination the virtual IPv4 address to send to.
+	 * @param text plain text message to send.
+	 ***************************************************************/
+	public Message(InetAddress destination, String text) {
+		this(destination, text.getBytes(StandardCharsets.UTF_8));
+		this.text = text;
+	}
+
+	public InetAddress getDestination() {
+		return destination;
+	}
+
+	/****************************************************************
+	 * @return a read-only view of the payload.
+	 ***************************************************************/
+	public ByteBuffer getPayload() {
+		return payload.duplicate();
+	}
+
+	/****************************************************************
+	 * @return the number of bytes in the payload.
+	 ***************************************************************/
+	public int length() {
+		return payload.remaining();
+	}
+
+	/****************************************************************
+	 * @return the payload decoded as UTF-8.
+	 ***************************************************************/
+	public String getText() {
+		if (text == null) {
+			text = StandardCharsets.UTF_8.decode(payload.duplicate()).toString();
+		}
+
+		return text;
+	}
+
+	/****************************************************************
+	 * Copies the payload to the buffer's position.
+	 *
+	 * @param dst the buffer to copy into.
+	 ***************************************************************/
+	void copyTo(ByteBuffer dst) {
+		if (bytes != null) {
+			dst.put(bytes);
+		} else {
+			dst.put(payload.duplicate());
+		}
+	}
+}
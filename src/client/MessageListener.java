@@ -0,0 +1,46 @@
+package client;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+/********************************************************************
+ * MessageListener.java
+ *
+ * Receives the messages arriving at a Client. Methods are called on
+ * the client's I/O thread, one message at a time, so they should
+ * return quickly and hand any slow work to another thread.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public interface MessageListener {
+
+	/****************************************************************
+	 * Called for each message from another host. The payload is a
+	 * read-only view of the client's receive buffer, which is reused
+	 * once this returns, so copy out anything to keep.
+	 *
+	 * @param source the virtual address of the sender.
+	 * @param payload the bytes of the message, from its position to
+	 * its limit. Text is UTF-8.
+	 ***************************************************************/
+	void messageReceived(InetAddress source, ByteBuffer payload);
+
+	/****************************************************************
+	 * Called for each ICMP error from a router.
+	 *
+	 * @param type ICMP_Header.UNREACHABLE or TIME_EXCEEDED.
+	 * @param source the virtual address of the router.
+	 * @param destination the destination of the packet which caused
+	 * the error.
+	 ***************************************************************/
+	void icmpReceived(int type, InetAddress source, InetAddress destination);
+
+	/****************************************************************
+	 * Called when one of the other methods of this listener threw.
+	 * The message is dropped for this listener only, and the client
+	 * carries on receiving.
+	 *
+	 * @param e what the listener threw.
+	 ***************************************************************/
+	void listenerFailed(RuntimeException e);
+}
@@ -0,0 +1,177 @@
+package headers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/********************************************************************
+ * Checksum.java
+ *
+ * The Internet checksum (RFC 1071) shared by the IPv4, UDP and ICMP
+ * headers. Sums are accumulated in a long over byte arrays or byte
+ * buffers without allocating, then folded to 16 bits and flipped
+ * with finish(). Also supports patching an existing checksum after
+ * a single 16-bit word changes (RFC 1624).
+ *
+ * A typical calculation looks like:
+ *   long sum = Checksum.add(0, data, start, end);
+ *   int checksum = Checksum.finish(sum);
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public final class Checksum {
+
+	private Checksum() {}
+
+	/****************************************************************
+	 * Adds the 16-bit words in the given range to the running sum.
+	 * A trailing odd byte is padded with zeros, so only the last
+	 * range of a calculation may have an odd length.
+	 *
+	 * @param sum the running sum.
+	 * @param data the bytes to add.
+	 * @param start index of the first byte (inclusive).
+	 * @param end index of the last byte (exclusive).
+	 * @return the new running sum.
+	 ***************************************************************/
+	public static long add(long sum, byte[] data, int start, int end) {
+		int i = start;
+
+		for (; i + 1 < end; i += 2) {
+			sum += ((data[i] & 0xFF) << 8) | (data[i + 1] & 0xFF);
+		}
+
+		/* Pads end of data with 0's if odd */
+		if (i < end) {
+			sum += (data[i] & 0xFF) << 8;
+		}
+
+		return sum;
+	}
+
+	/****************************************************************
+	 * Adds the 16-bit words in the given range of the buffer to the
+	 * running sum. Uses absolute indexes, so the position and limit
+	 * of the buffer are not changed.
+	 *
+	 * @param sum the running sum.
+	 * @param buf the buffer holding the bytes to add.
+	 * @param start index of the first byte (inclusive).
+	 * @param end index of the last byte (exclusive).
+	 * @return the new running sum.
+	 ***************************************************************/
+	public static long add(long sum, ByteBuffer buf, int start, int end) {
+		int i = start;
+
+		/* Sums 32 bits at a time. Folding the wider sum later gives
+		 * the same result as adding 16-bit words (RFC 1071). */
+		if (buf.order() == ByteOrder.BIG_ENDIAN) {
+			for (; i + 7 < end; i += 8) {
+				long value = buf.getLong(i);
+				sum += (value >>> 32) + (value & 0xFFFFFFFFL);
+			}
+		}
+
+		for (; i + 1 < end; i += 2) {
+			sum += ((buf.get(i) & 0xFF) << 8) | (buf.get(i + 1) & 0xFF);
+		}
+
+		/* Pads end of data with 0's if odd */
+		if (i < end) {
+			sum += (buf.get(i) & 0xFF) << 8;
+		}
+
+		return sum;
+	}
+
+	/****************************************************************
+	 * Folds the carries of a running sum back into the low 16 bits.
+	 *
+	 * @param sum the running sum.
+	 * @return the 16-bit one's complement sum.
+	 ***************************************************************/
+	public static int fold(long sum) {
+		while ((sum >>> 16) != 0) {
+			sum = (sum & 0xFFFF) + (sum >>> 16);
+		}
+
+		return (int) sum;
+	}
+
+	/****************************************************************
+	 * Folds and flips a running sum into the value stored in a
+	 * checksum field.
+	 *
+	 * @param sum the running sum.
+	 * @return the checksum.
+	 ***************************************************************/
+	public static int finish(long sum) {
+		return ~fold(sum) & 0xFFFF;
+	}
+
+	/****************************************************************
+	 * Calculates the checksum of the given range.
+	 *
+	 * @param data the bytes to sum.
+	 * @param start index of the first byte (inclusive).
+	 * @param end index of the last byte (exclusive).
+	 * @return the checksum.
+	 ***************************************************************/
+	public static int calculate(byte[] data, int start, int end) {
+		return finish(add(0, data, start, end));
+	}
+
+	/****************************************************************
+	 * Calculates the checksum of the given range, treating the
+	 * checksum field at the given index as zero.
+	 *
+	 * @param data the bytes to sum.
+	 * @param start index of the first byte (inclusive).
+	 * @param end index of the last byte (exclusive).
+	 * @param checksumIndex index of the checksum field. Must be an
+	 * even number of bytes from start.
+	 * @return the checksum.
+	 ***************************************************************/
+	public static int calculate(byte[] data, int start, int end,
+			int checksumIndex) {
+		long sum = add(0, data, start, checksumIndex);
+		sum = add(sum, data, checksumIndex + 2, end);
+
+		return finish(sum);
+	}
+
+	/****************************************************************
+	 * Calculates the checksum of the given range of the buffer,
+	 * treating the checksum field at the given index as zero.
+	 *
+	 * @param buf the buffer holding the bytes to sum.
+	 * @param start index of the first byte (inclusive).
+	 * @param end index of the last byte (exclusive).
+	 * @param checksumIndex index of the checksum field. Must be an
+	 * even number of bytes from start.
+	 * @return the checksum.
+	 ***************************************************************/
+	public static int calculate(ByteBuffer buf, int start, int end,
+			int checksumIndex) {
+		long sum = add(0, buf, start, checksumIndex);
+		sum = add(sum, buf, checksumIndex + 2, end);
+
+		return finish(sum);
+	}
+
+	/****************************************************************
+	 * Incrementally updates a checksum after one 16-bit word of the
+	 * data it covers has changed, using [Eqn. 3] of RFC 1624:
+	 *   HC' = ~(~HC + ~m + m')
+	 *
+	 * @param checksum the current checksum (HC).
+	 * @param oldWord the old value of the changed word (m).
+	 * @param newWord the new value of the changed word (m').
+	 * @return the updated checksum (HC').
+	 ***************************************************************/
+	public static int update(int checksum, int oldWord, int newWord) {
+		int sum = (~checksum & 0xFFFF) + (~oldWord & 0xFFFF) +
+				(newWord & 0xFFFF);
+
+		return finish(sum);
+	}
+}
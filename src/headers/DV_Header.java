@@ -0,0 +1,170 @@
+package headers;
+
+import java.nio.ByteBuffer;
+
+/********************************************************************
+ * DV_Header.java
+ *
+ * Flyweight view of a distance vector routing message, carried in 
+ * IPv4 packets with the DISTANCE_VECTOR protocol number. The message
+ * is an 8 byte header followed by 8 byte route entries:
+ *
+ *   header: version, command, entry count (2), checksum (2), zero (2)
+ *   entry:  prefix (4), prefix length, metric, zero (2)
+ *
+ * The checksum covers the header and entries, as ICMP's does.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class DV_Header {
+
+	/** Length in bytes of the header. */
+	public static final int LENGTH = 8;
+
+	/** Length in bytes of each route entry. */
+	public static final int ENTRY_LENGTH = 8;
+
+	public static final int VERSION = 1;
+
+	/** Asks the receiver to send its whole table. */
+	public static final int REQUEST = 1;
+
+	/** Carries routes. */
+	public static final int RESPONSE = 2;
+
+	/** Index of the first byte of the header in the buffer. */
+	private final int offset;
+
+	/****************************************************************
+	 * Default constructor for a DV_Header which directly follows a 
+	 * 20 byte IPv4 header at the start of the buffer.
+	 ***************************************************************/
+	public DV_Header() {
+		this(IP_Header.LENGTH);
+	}
+
+	/****************************************************************
+	 * Constructor for a DV_Header starting at the given offset.
+	 *
+	 * @param offset index of the first byte of the header.
+	 ***************************************************************/
+	public DV_Header(int offset) {
+		this.offset = offset;
+	}
+
+	/****************************************************************
+	 * @return index of the first byte of the header.
+	 ***************************************************************/
+	public int offset() {
+		return offset;
+	}
+
+	/****************************************************************
+	 * Writes a header with no entries.
+	 *
+	 * @param buf the buffer to write the header into.
+	 * @param command REQUEST or RESPONSE.
+	 ***************************************************************/
+	public void setup(ByteBuffer buf, int command) {
+		buf.put(offset, (byte) VERSION);
+		buf.put(offset + 1, (byte) command);
+		buf.putShort(offset + 2, (short) 0);
+		buf.putInt(offset + 4, 0);
+	}
+
+	public int version(ByteBuffer buf) {
+		return buf.get(offset) & 0xFF;
+	}
+
+	public int command(ByteBuffer buf) {
+		return buf.get(offset + 1) & 0xFF;
+	}
+
+	/****************************************************************
+	 * @return the number of route entries.
+	 ***************************************************************/
+	public int count(ByteBuffer buf) {
+		return buf.getShort(offset + 2) & 0xFFFF;
+	}
+
+	public void setCount(ByteBuffer buf, int count) {
+		buf.putShort(offset + 2, (short) count);
+	}
+
+	/****************************************************************
+	 * @return index just past the last entry.
+	 ***************************************************************/
+	public int end(ByteBuffer buf) {
+		return offset + LENGTH + count(buf) * ENTRY_LENGTH;
+	}
+
+	public int checksum(ByteBuffer buf) {
+		return buf.getShort(offset + 4) & 0xFFFF;
+	}
+
+	public void setChecksum(ByteBuffer buf, int checksum) {
+		buf.putShort(offset + 4, (short) checksum);
+	}
+
+	/****************************************************************
+	 * @return the checksum of the header and entries, ignoring the 
+	 * value currently stored.
+	 ***************************************************************/
+	public int calculateChecksum(ByteBuffer buf) {
+		return Checksum.calculate(buf, offset, end(buf), offset + 4);
+	}
+
+	/****************************************************************
+	 * Calculates the checksum and stores it in the header.
+	 ***************************************************************/
+	public void updateChecksum(ByteBuffer buf) {
+		setChecksum(buf, calculateChecksum(buf));
+	}
+
+	/****************************************************************
+	 * @param index which entry, below count().
+	 * @return the prefix of the entry as an int.
+	 ***************************************************************/
+	public int prefix(ByteBuffer buf, int index) {
+		return buf.getInt(entry(index));
+	}
+
+	/****************************************************************
+	 * @param index which entry, below count().
+	 * @return the number of significant bits of the prefix.
+	 ***************************************************************/
+	public int prefixLength(ByteBuffer buf, int index) {
+		return buf.get(entry(index) + 4) & 0xFF;
+	}
+
+	/****************************************************************
+	 * @param index which entry, below count().
+	 * @return the metric of the route.
+	 ***************************************************************/
+	public int metric(ByteBuffer buf, int index) {
+		return buf.get(entry(index) + 5) & 0xFF;
+	}
+
+	/****************************************************************
+	 * Writes a route entry. The count is not changed.
+	 *
+	 * @param index which entry.
+	 * @param prefix the prefix as an int.
+	 * @param length the number of significant bits of the prefix.
+	 * @param metric the metric of the route.
+	 ***************************************************************/
+	public void setEntry(ByteBuffer buf, int index, int prefix, 
+			int length, int metric) {
+		int start = entry(index);
+
+		buf.putInt(start, prefix);
+		buf.put(start + 4, (byte) length);
+		buf.put(start + 5, (byte) metric);
+		buf.putShort(start + 6, (short) 0);
+	}
+
+	/* @return index of the first byte of an entry. */
+	private int entry(int index) {
+		return offset + LENGTH + index * ENTRY_LENGTH;
+	}
+}
@@ -0,0 +1,82 @@
+package headers;
+
+import java.nio.ByteBuffer;
+
+/********************************************************************
+ * Fragmenter.java
+ *
+ * Splits an IPv4 packet into fragments which fit a link's MTU
+ * (RFC 791). Each fragment carries a copy of the original header with
+ * its own length, offset and More Fragments flag. A packet which is
+ * already a fragment is split further, keeping its offsets.
+ *
+ * The caller writes one fragment at a time into a buffer of its own,
+ * so no list of fragments is ever built.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public final class Fragmenter {
+
+	private static final IP_Header IP = new IP_Header();
+
+	private Fragmenter() {
+	}
+
+	/****************************************************************
+	 * @param packet the buffer holding the packet from index 0.
+	 * @param mtu the largest packet the link carries.
+	 * @return the number of fragments needed, 1 if the packet fits,
+	 * or 0 if the MTU is too small to carry any data.
+	 ***************************************************************/
+	public static int count(ByteBuffer packet, int mtu) {
+		int total = IP.totalLength(packet);
+
+		if (total <= mtu) return 1;
+
+		int dataLength = total - IP.headerLength(packet);
+		int chunk = chunkSize(packet, mtu);
+
+		return chunk <= 0 ? 0 : (dataLength + chunk - 1) / chunk;
+	}
+
+	/****************************************************************
+	 * Writes one fragment of a packet into a buffer. The buffer is
+	 * flipped so the fragment is between 0 and its limit.
+	 *
+	 * @param packet the buffer holding the packet from index 0.
+	 * @param mtu the largest packet the link carries.
+	 * @param index which fragment to write, below count().
+	 * @param dst the buffer to write the fragment into.
+	 ***************************************************************/
+	public static void write(ByteBuffer packet, int mtu, int index,
+			ByteBuffer dst) {
+		int headerLength = IP.headerLength(packet);
+		int dataLength = IP.totalLength(packet) - headerLength;
+		int chunk = chunkSize(packet, mtu);
+
+		int start = index * chunk;
+		int length = Math.min(chunk, dataLength - start);
+
+		ByteBuffer src = packet.duplicate();
+		dst.clear();
+
+		// The header, then this fragment's share of the data
+		src.limit(headerLength).position(0);
+		dst.put(src);
+
+		src.limit(headerLength + start + length).position(headerLength + start);
+		dst.put(src);
+		dst.flip();
+
+		boolean more = start + length < dataLength || IP.moreFragments(packet);
+
+		IP.setTotalLength(dst, headerLength + length);
+		IP.setFragment(dst, IP.fragmentOffset(packet) + start / 8, more);
+		IP.updateChecksum(dst);
+	}
+
+	/* Bytes of data per fragment, a multiple of 8. */
+	private static int chunkSize(ByteBuffer packet, int mtu) {
+		return (mtu - IP.headerLength(packet)) & ~7;
+	}
+}
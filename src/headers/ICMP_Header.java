@@ -1,8 +1,14 @@
 package headers;
 
+import java.nio.ByteBuffer;
+
 /********************************************************************
  * ICMP_Header.java
- * 
+ *
+ * Flyweight view of an ICMP header. The header is read and written
+ * in place in a caller supplied ByteBuffer, starting at the offset
+ * given to the constructor.
+ *
  * @author Jack O'Brien
  * @author Megan Maher
  * @author Tyler McCarthy
@@ -12,178 +18,145 @@ package headers;
 public class ICMP_Header {
 
 	/** Length in bytes */
-	private final int header_length = 8;
-	
-	/** Bit string representing this header */
-	private String bits;
-	
-	private int type;
-		
+	public static final int LENGTH = 8;
+
+	/** Length in bytes of the original IPv4 and UDP headers quoted
+	 * after the ICMP header. */
+	public static final int QUOTE_LENGTH = 28;
+
 	public static final int UNREACHABLE = 3;
-	
+
 	public static final int TIME_EXCEEDED = 11;
-	
-	
+
+	/** Code for an UNREACHABLE message: Destination host unknown. */
+	public static final int HOST_UNKNOWN = 7;
+
+	/** Code for an UNREACHABLE message: Fragmentation needed and 
+	 * Don't Fragment set. The next hop MTU is in the header. */
+	public static final int FRAGMENTATION_NEEDED = 4;
+
+	/** Index of the first byte of the header in the buffer. */
+	private final int offset;
+
 	/****************************************************************
-	 * Default constructor for ICMP_Header
-	 * 
-	 * @param t
-	 * @param c 
+	 * Default constructor for an ICMP_Header which directly follows
+	 * a 20 byte IPv4 header at the start of the buffer.
 	 ***************************************************************/
-	public ICMP_Header(int t) {
-		type = t;
-		
-		bits = new String(new char[header_length * 8]).replace("\0", "0");
-		
-		setupHeader();
+	public ICMP_Header() {
+		this(IP_Header.LENGTH);
 	}
-	
-	private void setupHeader() {
-		
-		// Set type and code fields
-		insertData(0, 8, type);
-		
-        if (type == UNREACHABLE) {
-        	setupUnreachableHeader();
-        }
-        
-        if (type == TIME_EXCEEDED) {
-        	setupTimeHeader();
-        }
-
-//        insertData(16, 32, calculateChecksum(bits));
+
+	/****************************************************************
+	 * Constructor for an ICMP_Header starting at the given offset.
+	 *
+	 * @param offset index of the first byte of the header.
+	 ***************************************************************/
+	public ICMP_Header(int offset) {
+		this.offset = offset;
 	}
-	
-	private void setupUnreachableHeader() {
-		int code = 7;
-		
-		insertData(8, 16, code); 
 
+	/****************************************************************
+	 * @return index of the first byte of the header.
+	 ***************************************************************/
+	public int offset() {
+		return offset;
 	}
-	
-	private void setupTimeHeader() {
+
+	/****************************************************************
+	 * Writes the type and code for the given message type. The
+	 * checksum and the rest of the header are zeroed.
+	 *
+	 * @param buf the buffer to write the header into.
+	 * @param type UNREACHABLE or TIME_EXCEEDED.
+	 ***************************************************************/
+	public void setup(ByteBuffer buf, int type) {
 		int code = 0;
-		
-		insertData(8, 16, code); 
 
-	}
-	
-	public byte[] getBytes(byte[] ipAndUDP) {
-		int length = bits.length() / 8;
-		
-		byte[] bytes = new byte[length + ipAndUDP.length];
-		
-		/* Converts the bit strings into bytes and adds them
-		 * to the byte array. */
-		for (int i = 0; i < length; i++) {
-			int start = i * 8;
-			int end = start + 8;
-			
-			String octet = bits.substring(start, end);
-			
-			bytes[i] = (byte) Integer.parseInt(octet, 2);
-		}
-		
-		for (int i = length; i < bytes.length; i++) {
-			bytes[i] = ipAndUDP[i - length];
+		if (type == UNREACHABLE) {
+			code = HOST_UNKNOWN;
 		}
-		
-		insertData(16, 32, calculateChecksum(bytes, 0, bytes.length));
-		
-		return bytes;
+
+		setType(buf, type);
+		setCode(buf, code);
+		setChecksum(buf, 0);
+		buf.putInt(offset + 4, 0);
 	}
-	
+
 	/****************************************************************
-     * Inserts the given data into the bit string at the given location.
-     * 
-     * @param start Starting index to be inserted (inclusive).
-     * @param end Ending index to be inserted (exclusive).
-     * @param data the data to be inserted.
+	 * @return the type field.
 	 ***************************************************************/
-	private void insertData(int start, int end, int data) {
-		// Converts data to binary string
-		String dataStr = Integer.toBinaryString(data);
-        int length = end - start;
-    
-        // Pads the binary string with 0's to fit in the given range
-        int bufferLength = (length - dataStr.length());
-        String binary = new String(new char[length]).replace("\0", "0");
-        binary = binary.substring(0, bufferLength) + dataStr;
-    
-        // Adds the binary string of data into the main bit string at
-        // the given location
-        bits = bits.substring(0, start) + binary + bits.substring(end);
+	public int type(ByteBuffer buf) {
+		return buf.get(offset) & 0xFF;
 	}
-	
-	private static String bytesToBitString(byte[] data, int start, int end) {
-		
-		String bitStr = "";
-		
-		for (int i = start; i < end; i++) {
-			String s = Integer.toBinaryString(data[i] & 0xFF);
-			s = String.format("%8s", s).replace(' ', '0');
-			bitStr += s;
-		}
-		
-		return bitStr;
+
+	public void setType(ByteBuffer buf, int type) {
+		buf.put(offset, (byte) type);
 	}
-	
-	public static int calculateChecksum(byte[] data, int start, int end) {
-		String bitStr = bytesToBitString(data, start, end);
-		
-		return calculateChecksum(bitStr);
+
+	/****************************************************************
+	 * @return the code field.
+	 ***************************************************************/
+	public int code(ByteBuffer buf) {
+		return buf.get(offset + 1) & 0xFF;
+	}
+
+	public void setCode(ByteBuffer buf, int code) {
+		buf.put(offset + 1, (byte) code);
+	}
+
+	/****************************************************************
+	 * @return the next hop MTU of a Fragmentation Needed message
+	 * (RFC 1191).
+	 ***************************************************************/
+	public int nextHopMtu(ByteBuffer buf) {
+		return buf.getShort(offset + 6) & 0xFFFF;
+	}
+
+	public void setNextHopMtu(ByteBuffer buf, int mtu) {
+		buf.putShort(offset + 6, (short) mtu);
+	}
+
+	/****************************************************************
+	 * @return the checksum stored in the header.
+	 ***************************************************************/
+	public int checksum(ByteBuffer buf) {
+		return buf.getShort(offset + 2) & 0xFFFF;
 	}
-	
-	private static int calculateChecksum(String bitStr) {
-		int header_length = 36;
-		
-		String[] octets = new String[header_length];
-		
-		/* Adds the IP header to the octets array */
-		for (int i = 0; i < header_length; i++) {
-			int start = i * 8;
-			int end = start + 8;
-			
-			octets[i] = bitStr.substring(start, end);
-		}
-				
-		// Set checksum to 0
-		octets[2] = "00000000";
-		octets[3] = "00000000";
-		
-		String sum = new String(new char[16]).replace("\0", "0");
-		
-		/* Loops through every pair of octets and adds them to the sum
-		 * as a 16 bit value */
-		for (int i = 0; i < octets.length; i += 2) {
-			String value = "";
-			
-			// Converts two octets into 16 bit value
-			value = octets[i] + octets[i + 1];
-						
-			// Adds value to the current sum
-			int s = Integer.parseInt(sum, 2) + Integer.parseInt(value, 2);
-			sum = Integer.toBinaryString(s);
-			sum = String.format("%16s", sum).replace(' ', '0');
-			
-			// Handles 16-bit carry correction
-			if (sum.length() > 16) {
-				String carryStr = sum.substring(0, sum.length() - 16);
-				int carry = Integer.parseInt(carryStr, 2);
-				
-				s = Integer.parseInt(sum.substring(carryStr.length()), 2);
-				s += carry;
-				
-				sum = Integer.toBinaryString(s);
-				sum = String.format("%16s", sum).replace(' ', '0');
-			}
-		}
-		
-		// Flips the bits 
-		sum = sum.replace('1', '2');
-		sum = sum.replace('0', '1');
-		sum = sum.replace('2', '0');
 
-		return Integer.parseInt(sum, 2);
+	public void setChecksum(ByteBuffer buf, int checksum) {
+		buf.putShort(offset + 2, (short) checksum);
+	}
+
+	/****************************************************************
+	 * Calculates the ICMP checksum over the ICMP header and the data
+	 * which follows it.
+	 *
+	 * @param end index of the last byte of the message (exclusive).
+	 * @return the checksum, ignoring the value currently stored.
+	 ***************************************************************/
+	public int calculateChecksum(ByteBuffer buf, int end) {
+		return Checksum.calculate(buf, offset, end, offset + 2);
+	}
+
+	/****************************************************************
+	 * Calculates and inserts the ICMP checksum.
+	 *
+	 * @param end index of the last byte of the message (exclusive).
+	 ***************************************************************/
+	public void updateChecksum(ByteBuffer buf, int end) {
+		setChecksum(buf, calculateChecksum(buf, end));
+	}
+
+	/****************************************************************
+	 * Calculates the ICMP checksum over the ICMP header and the data
+	 * which follows it.
+	 *
+	 * @param data the byte array containing the ICMP message.
+	 * @param start index of the first byte of the ICMP header.
+	 * @param end index of the last byte of the message (exclusive).
+	 * @return the checksum of the message.
+	 ***************************************************************/
+	public static int calculateChecksum(byte[] data, int start, int end) {
+		return Checksum.calculate(data, start, end, start + 2);
 	}
 }
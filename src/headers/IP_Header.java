@@ -1,11 +1,18 @@
 package headers;
 
 import java.net.InetAddress;
-import java.util.Random;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
 
 /********************************************************************
  * IP_Header.java
  *
+ * Flyweight view of an IPv4 header. The header is read and written
+ * in place in a caller supplied ByteBuffer, starting at the offset
+ * given to the constructor. A single instance can be shared by any
+ * number of buffers and threads.
+ *
  * @author Jack O'Brien
  * @author Megan Maher
  * @author Tyler McCarthy
@@ -15,237 +22,372 @@ import java.util.Random;
 public class IP_Header {
 
 	/** Length in bytes */
-	private final int header_length = 20;
-		
-	/** Bit string representing this header. */
-	private String bits;
-	
-	private int protocol;
-	
+	public static final int LENGTH = 20;
+
+	/** Protocol number for ICMP. */
+	public static final int ICMP = 1;
+
+	/** Protocol number for UDP. */
+	public static final int UDP = 17;
+
+	/** Protocol number of the distance vector routing protocol, one
+	 * of those set aside for experiments (RFC 3692). */
+	public static final int DISTANCE_VECTOR = 253;
+
+	/** Protocol number of the link state routing protocol. */
+	public static final int LINK_STATE = 254;
+
+	/** TOS byte of the Expedited Forwarding class (RFC 3246), for
+	 * traffic which must not wait behind bulk transfers. */
+	public static final int TOS_EXPEDITED = 46 << 2;
+
+	/** TOS byte of class selector 1, low priority data (RFC 4594). */
+	public static final int TOS_BULK = 8 << 2;
+
+	/** Default Time To Live of new packets. */
+	public static final int DEFAULT_TTL = 64;
+
+	/** Smallest MTU every link must support (RFC 791). */
+	public static final int MIN_MTU = 68;
+
+	/** Largest possible packet. */
+	public static final int MAX_LENGTH = 65535;
+
+	/** Flags in the word holding the fragment offset. */
+	private static final int DONT_FRAGMENT = 0x4000;
+	private static final int MORE_FRAGMENTS = 0x2000;
+
+	/** Index of the first byte of the header in the buffer. */
+	private final int offset;
+
 	/****************************************************************
-	 * Default constructor for IP_Header. Sets all the default values
-	 * into the bit string representing this header.
+	 * Default constructor for IP_Header. The header starts at the
+	 * beginning of the buffer.
 	 ***************************************************************/
 	public IP_Header() {
-		bits = new String(new char[header_length * 8]).replace("\0", "0");
-		protocol = 17;
-		setupHeader();
+		this(0);
 	}
-	
-	public IP_Header(int proto) {
-		bits = new String(new char[header_length * 8]).replace("\0", "0");
-		protocol = proto;
-		setupHeader();
+
+	/****************************************************************
+	 * Constructor for an IP_Header starting at the given offset.
+	 *
+	 * @param offset index of the first byte of the header.
+	 ***************************************************************/
+	public IP_Header(int offset) {
+		this.offset = offset;
+	}
+
+	/****************************************************************
+	 * @return index of the first byte of the header.
+	 ***************************************************************/
+	public int offset() {
+		return offset;
 	}
-	
+
 	/****************************************************************
-	 * Sets all the default values of the IPv4 Header.
+	 * Writes all the default values of the IPv4 Header. The length,
+	 * addresses and checksum are zeroed.
 	 * Version: 4
 	 * IHL: 20
 	 * ID: Random int between 0 and 2^16 - 1
 	 * TTL: 64
-	 * Protocol: 17 (UDP)
+	 *
+	 * @param buf the buffer to write the header into.
+	 * @param protocol the protocol of the data following the header.
 	 ***************************************************************/
-	private void setupHeader() {
+	public void setup(ByteBuffer buf, int protocol) {
 		int version = 4;
-		insertData(0, 4, version);
-		
-		insertData(4, 8, (header_length / 4));
-		
-		Random rand = new Random();
-		int id = rand.nextInt(65536);
-		insertData(32, 48, id);
-		
-		int ttl = 64;
-		insertData(64, 72, ttl);
-		
-		insertData(72, 80, protocol);
-	}
-	
-	/****************************************************************
-	 * Inserts the given data into the bit string at the given location.
-	 * 
-	 * @param start Starting index to be inserted (inclusive).
-	 * @param end Ending index to be inserted (exclusive).
-	 * @param data the data to be inserted.
-	 ***************************************************************/
-	private void insertData(int start, int end, int data) {
-		
-		// Converts data to binary string
-		String dataStr = Integer.toBinaryString(data);
-		int length = end - start;
-		
-		// Pads the binary string with 0's to fit in the given range
-		int bufferLength = (length - dataStr.length());
-		String binary = new String(new char[length]).replace("\0", "0");
-		binary = binary.substring(0, bufferLength) + dataStr;
-		
-		// Adds the binary string of data into the main bit string at
-		// the given location
-		bits = bits.substring(0, start) + binary + bits.substring(end);
-	}
-	
-	/****************************************************************
-	 * Calculates the IPv4 checksum.
-	 ***************************************************************/
-	private void calculateChecksum() {
-		int checksum = calculateChecksum(bits);
-		insertData(80, 96, checksum);
-	}
-	
+		buf.put(offset, (byte) ((version << 4) | (LENGTH / 4)));
+		buf.put(offset + 1, (byte) 0);
+		buf.putInt(offset + 4, 0);
+		buf.putInt(offset + 12, 0);
+		buf.putInt(offset + 16, 0);
+
+		setTotalLength(buf, LENGTH);
+		setId(buf, ThreadLocalRandom.current().nextInt(65536));
+		setTtl(buf, DEFAULT_TTL);
+		setProtocol(buf, protocol);
+		setChecksum(buf, 0);
+	}
+
+	/****************************************************************
+	 * @return the header length in bytes, from the IHL field.
+	 ***************************************************************/
+	public int headerLength(ByteBuffer buf) {
+		return (buf.get(offset) & 0x0F) * 4;
+	}
+
+	/****************************************************************
+	 * @return the Type Of Service byte, the DSCP in its top six bits.
+	 ***************************************************************/
+	public int tos(ByteBuffer buf) {
+		return buf.get(offset + 1) & 0xFF;
+	}
+
+	public void setTos(ByteBuffer buf, int tos) {
+		buf.put(offset + 1, (byte) tos);
+	}
+
+	/****************************************************************
+	 * @return the total length of the packet in bytes.
+	 ***************************************************************/
+	public int totalLength(ByteBuffer buf) {
+		return buf.getShort(offset + 2) & 0xFFFF;
+	}
+
+	/****************************************************************
+	 * Sets the total length field of the IPv4 header.
+	 *
+	 * @param length length of the header and its data in bytes.
+	 ***************************************************************/
+	public void setTotalLength(ByteBuffer buf, int length) {
+		buf.putShort(offset + 2, (short) length);
+	}
+
 	/****************************************************************
 	 * Sets the length field of the IPv4 header. Adds the header length
 	 * the the given length.
-	 * 
+	 *
 	 * @param length Number of bytes that follow the IPv4 header.
 	 ***************************************************************/
-	public void setDataSize(int length) {
-		length += header_length;
-		insertData(16, 32, length);
+	public void setDataSize(ByteBuffer buf, int length) {
+		setTotalLength(buf, length + headerLength(buf));
+	}
+
+	/****************************************************************
+	 * @return the identification field.
+	 ***************************************************************/
+	public int id(ByteBuffer buf) {
+		return buf.getShort(offset + 4) & 0xFFFF;
+	}
+
+	public void setId(ByteBuffer buf, int id) {
+		buf.putShort(offset + 4, (short) id);
 	}
-	
+
+	/****************************************************************
+	 * @return the fragment offset field, in units of 8 bytes.
+	 ***************************************************************/
+	public int fragmentOffset(ByteBuffer buf) {
+		return buf.getShort(offset + 6) & 0x1FFF;
+	}
+
+	/****************************************************************
+	 * @return true if the Don't Fragment flag is set.
+	 ***************************************************************/
+	public boolean dontFragment(ByteBuffer buf) {
+		return (buf.getShort(offset + 6) & DONT_FRAGMENT) != 0;
+	}
+
+	/****************************************************************
+	 * @return true if the More Fragments flag is set.
+	 ***************************************************************/
+	public boolean moreFragments(ByteBuffer buf) {
+		return (buf.getShort(offset + 6) & MORE_FRAGMENTS) != 0;
+	}
+
+	/****************************************************************
+	 * @return true if the packet is a fragment of a larger one.
+	 ***************************************************************/
+	public boolean isFragment(ByteBuffer buf) {
+		return (buf.getShort(offset + 6) & (MORE_FRAGMENTS | 0x1FFF)) != 0;
+	}
+
+	/****************************************************************
+	 * Sets the fragment offset and More Fragments flag. The Don't
+	 * Fragment flag is kept.
+	 *
+	 * @param fragmentOffset offset of the data in units of 8 bytes.
+	 * @param more true if more fragments follow this one.
+	 ***************************************************************/
+	public void setFragment(ByteBuffer buf, int fragmentOffset,
+			boolean more) {
+		int word = buf.getShort(offset + 6) & DONT_FRAGMENT;
+
+		word |= fragmentOffset & 0x1FFF;
+
+		if (more) word |= MORE_FRAGMENTS;
+
+		buf.putShort(offset + 6, (short) word);
+	}
+
+	/****************************************************************
+	 * @return the Time To Live field.
+	 ***************************************************************/
+	public int ttl(ByteBuffer buf) {
+		return buf.get(offset + 8) & 0xFF;
+	}
+
+	public void setTtl(ByteBuffer buf, int ttl) {
+		buf.put(offset + 8, (byte) ttl);
+	}
+
+	/****************************************************************
+	 * Decrements the TTL and patches the header checksum for it in
+	 * place, using the incremental update of RFC 1624 rather than
+	 * summing the whole header again. The TTL shares a 16-bit word
+	 * with the protocol, so only that word and the checksum are read
+	 * and written.
+	 *
+	 * @return the new TTL.
+	 ***************************************************************/
+	public int decrementTtl(ByteBuffer buf) {
+		int oldWord = buf.getShort(offset + 8) & 0xFFFF;
+		int newWord = oldWord - 0x0100;
+
+		buf.putShort(offset + 8, (short) newWord);
+		setChecksum(buf, Checksum.update(checksum(buf), oldWord, newWord));
+
+		return newWord >>> 8;
+	}
+
+	/****************************************************************
+	 * @return the protocol field.
+	 ***************************************************************/
+	public int protocol(ByteBuffer buf) {
+		return buf.get(offset + 9) & 0xFF;
+	}
+
+	public void setProtocol(ByteBuffer buf, int protocol) {
+		buf.put(offset + 9, (byte) protocol);
+	}
+
+	/****************************************************************
+	 * @return the checksum stored in the header.
+	 ***************************************************************/
+	public int checksum(ByteBuffer buf) {
+		return buf.getShort(offset + 10) & 0xFFFF;
+	}
+
+	public void setChecksum(ByteBuffer buf, int checksum) {
+		buf.putShort(offset + 10, (short) checksum);
+	}
+
+	/****************************************************************
+	 * @return the source address as an int.
+	 ***************************************************************/
+	public int source(ByteBuffer buf) {
+		return buf.getInt(offset + 12);
+	}
+
 	/****************************************************************
 	 * Inserts the given IPv4 address into the Source IP field.
-	 * 
-	 * @param srcIP the source IPv4 address to be inserted.
-	 ***************************************************************/
-	public void setSource(InetAddress srcIP) {
-		String[] ipStrArr = srcIP.getHostAddress().split("\\.");
-		
-		// First index of the source IP field
-		int srcIndex = 96;
-		
-		/* Adds all elements of the IP to the bit string */
-		for (int i = 0; i < ipStrArr.length; i++) {
-			int start = srcIndex + (i * 8);
-			int end = start + 8;
-			
-			insertData(start, end, Integer.parseInt(ipStrArr[i]));
-		}
-		
+	 *
+	 * @param srcIP the source IPv4 address as an int.
+	 ***************************************************************/
+	public void setSource(ByteBuffer buf, int srcIP) {
+		buf.putInt(offset + 12, srcIP);
 	}
-	
+
 	/****************************************************************
-	 * Inserts the given IPv4 address into the Destination IP field.
-	 * 
-	 * @param dstIP the destination IPv4 address to be inserted.
+	 * @return the destination address as an int.
 	 ***************************************************************/
-	public void setDestination(InetAddress dstIP) {
-		String[] ipStrArr = dstIP.getHostAddress().split("\\.");
+	public int destination(ByteBuffer buf) {
+		return buf.getInt(offset + 16);
+	}
 
-		// First index of the destination IP field
-		int srcIndex = 128;
+	/****************************************************************
+	 * Inserts the given IPv4 address into the Destination IP field.
+	 *
+	 * @param dstIP the destination IPv4 address as an int.
+	 ***************************************************************/
+	public void setDestination(ByteBuffer buf, int dstIP) {
+		buf.putInt(offset + 16, dstIP);
+	}
 
-		/* Adds all elements of the IP to the bit string */
-		for (int i = 0; i < ipStrArr.length; i++) {
-			int start = srcIndex + (i * 8);
-			int end = start + 8;
+	/****************************************************************
+	 * @return the checksum of the header in the buffer, ignoring the
+	 * value currently stored in the checksum field.
+	 ***************************************************************/
+	public int calculateChecksum(ByteBuffer buf) {
+		return Checksum.calculate(buf, offset, offset + headerLength(buf),
+				offset + 10);
+	}
 
-			insertData(start, end, Integer.parseInt(ipStrArr[i]));
-		}
+	/****************************************************************
+	 * Calculates the IPv4 checksum and stores it in the header.
+	 ***************************************************************/
+	public void updateChecksum(ByteBuffer buf) {
+		setChecksum(buf, calculateChecksum(buf));
 	}
-	
+
 	/****************************************************************
-	 * Returns a bit string of most of the IPv4 Pseudo Header for 
-	 * the UDP checksum calculation. The length field is NOT included.
-	 * 
-	 * @return Bit string of the pseudo header with out the length field.
+	 * Adds the IPv4 Pseudo Header used by the UDP checksum to the
+	 * running sum. The length field is NOT included.
+	 *
+	 * @param sum the running checksum sum.
+	 * @return the running sum including the pseudo header.
 	 ***************************************************************/
-	public String getPseudoHeader() {
-		
+	public long addPseudoHeader(ByteBuffer buf, long sum) {
+
 		// Adds the source then destination addresses
-		String pseudoBits = bits.substring(96, 160);
-		
+		sum = Checksum.add(sum, buf, offset + 12, offset + 20);
+
 		// Adds protocol padded by zeros
-		pseudoBits += "00000000" + bits.substring(72, 80);
-		
-		return pseudoBits;
-	}
-	
-	/****************************************************************
-	 * Calculates the checksum and returns the bit string which
-	 * represents this header.
-	 * 
-	 * @return the bit string representing this header.
-	 ***************************************************************/
-	public String getBitString() {
-		calculateChecksum();
-		return bits;
-	}
-	
-	private static String bytesToBitString(byte[] data, int start, int end) {
-		
-		String bitStr = "";
-		
-		for (int i = start; i < end; i++) {
-			String s = Integer.toBinaryString(data[i] & 0xFF);
-			s = String.format("%8s", s).replace(' ', '0');
-			bitStr += s;
+		return sum + protocol(buf);
+	}
+
+	/****************************************************************
+	 * Reads the 4 bytes from the given starting index as an IPv4
+	 * address in network byte order.
+	 *
+	 * @param data the byte array containing the IPv4 address.
+	 * @param start the index of the first byte of the address.
+	 * @return the address as an int.
+	 ***************************************************************/
+	public static int readAddress(byte[] data, int start) {
+		return ((data[start] & 0xFF) << 24) |
+			   ((data[start + 1] & 0xFF) << 16) |
+			   ((data[start + 2] & 0xFF) << 8) |
+			   (data[start + 3] & 0xFF);
+	}
+
+	/****************************************************************
+	 * @param addr an IPv4 address.
+	 * @return the address as an int in network byte order.
+	 ***************************************************************/
+	public static int addressToInt(InetAddress addr) {
+		return readAddress(addr.getAddress(), 0);
+	}
+
+	/****************************************************************
+	 * @param addr an IPv4 address as an int.
+	 * @return the address as an InetAddress.
+	 ***************************************************************/
+	public static InetAddress intToAddress(int addr) {
+		byte[] bytes = {(byte) (addr >>> 24), (byte) (addr >>> 16),
+				(byte) (addr >>> 8), (byte) addr};
+
+		try {
+			return InetAddress.getByAddress(bytes);
+		} catch (UnknownHostException e) {
+			// Only thrown for a wrong number of bytes
+			throw new IllegalStateException(e);
 		}
-		
-		return bitStr;
 	}
-	
+
+	/****************************************************************
+	 * @param addr an IPv4 address as an int.
+	 * @return String representation of the address.
+	 ***************************************************************/
+	public static String addressToString(int addr) {
+		return ((addr >>> 24) & 0xFF) + "." + ((addr >>> 16) & 0xFF) +
+				"." + ((addr >>> 8) & 0xFF) + "." + (addr & 0xFF);
+	}
+
+	/****************************************************************
+	 * Calculates the IPv4 header checksum. The header length is read
+	 * from the IHL field of the header at the given start index.
+	 *
+	 * @param data the byte array containing the header.
+	 * @param start the index of the first byte of the header.
+	 * @param end unused, the length comes from the IHL field.
+	 * @return the checksum of the header.
+	 ***************************************************************/
 	public static int calculateChecksum(byte[] data, int start, int end) {
-		String bitStr = bytesToBitString(data, start, end);
-		
-		return calculateChecksum(bitStr);
-	}
-	
-	public static int calculateChecksum(String bitString) {
-		
-		// Parses the header length in bytes
-		int header_length = 
-				Integer.parseInt(bitString.substring(4, 8), 2);
-		header_length *= 4;
-		
-		String[] octets = new String[header_length];
-		
-		/* Adds the IP header to the octets array */
-		for (int i = 0; i < header_length; i++) {
-			int start = i * 8;
-			int end = start + 8;
-			
-			octets[i] = bitString.substring(start, end);
-		}
-				
-		// Set checksum to 0
-		octets[10] = "00000000";
-		octets[11] = "00000000";
-		
-		String sum = new String(new char[16]).replace("\0", "0");
-		
-		/* Loops through every pair of octets and adds them to the sum
-		 * as a 16 bit value */
-		for (int i = 0; i < octets.length; i += 2) {
-			String value = "";
-			
-			// Converts two octets into 16 bit value
-			value = octets[i] + octets[i + 1];
-						
-			// Adds value to the current sum
-			int s = Integer.parseInt(sum, 2) + Integer.parseInt(value, 2);
-			sum = Integer.toBinaryString(s);
-			sum = String.format("%16s", sum).replace(' ', '0');
-			
-			// Handles 16-bit carry correction
-			if (sum.length() > 16) {
-				String carryStr = sum.substring(0, sum.length() - 16);
-				int carry = Integer.parseInt(carryStr, 2);
-				
-				s = Integer.parseInt(sum.substring(carryStr.length()), 2);
-				s += carry;
-				
-				sum = Integer.toBinaryString(s);
-				sum = String.format("%16s", sum).replace(' ', '0');
-			}
-		}
-		
-		// Flips the bits 
-		sum = sum.replace('1', '2');
-		sum = sum.replace('0', '1');
-		sum = sum.replace('2', '0');
-										
-		return Integer.parseInt(sum, 2);
+		int header_length = (data[start] & 0x0F) * 4;
+
+		return Checksum.calculate(data, start, start + header_length,
+				start + 10);
 	}
 }
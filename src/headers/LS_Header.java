@@ -0,0 +1,234 @@
+package headers;
+
+import java.nio.ByteBuffer;
+
+/********************************************************************
+ * LS_Header.java
+ *
+ * Flyweight view of a link state routing message, carried in IPv4 
+ * packets with the LINK_STATE protocol number. The message is a 16 
+ * byte header followed by 8 byte link entries, then 8 byte prefix 
+ * entries:
+ *
+ *   header: version, type, checksum (2), origin (4), sequence (4),
+ *           link count (2), prefix count (2)
+ *   link:   neighbor's router ID (4), cost (2), zero (2)
+ *   prefix: prefix (4), prefix length, zero (3)
+ *
+ * A HELLO carries only the sender's router ID in the origin field.
+ * An ADVERTISEMENT carries the links and prefixes of the origin 
+ * router. The checksum covers the header and entries, as ICMP's does.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class LS_Header {
+
+	/** Length in bytes of the header. */
+	public static final int LENGTH = 16;
+
+	/** Length in bytes of each link or prefix entry. */
+	public static final int ENTRY_LENGTH = 8;
+
+	public static final int VERSION = 1;
+
+	/** Tells a neighbor the sender is up. */
+	public static final int HELLO = 1;
+
+	/** Carries the links and prefixes of a router. */
+	public static final int ADVERTISEMENT = 2;
+
+	/** Index of the first byte of the header in the buffer. */
+	private final int offset;
+
+	/****************************************************************
+	 * Default constructor for an LS_Header which directly follows a 
+	 * 20 byte IPv4 header at the start of the buffer.
+	 ***************************************************************/
+	public LS_Header() {
+		this(IP_Header.LENGTH);
+	}
+
+	/****************************************************************
+	 * Constructor for an LS_Header starting at the given offset.
+	 *
+	 * @param offset index of the first byte of the header.
+	 ***************************************************************/
+	public LS_Header(int offset) {
+		this.offset = offset;
+	}
+
+	/****************************************************************
+	 * @return index of the first byte of the header.
+	 ***************************************************************/
+	public int offset() {
+		return offset;
+	}
+
+	/****************************************************************
+	 * Writes a header with no entries.
+	 *
+	 * @param buf the buffer to write the header into.
+	 * @param type HELLO or ADVERTISEMENT.
+	 * @param origin router ID of the router described.
+	 * @param sequence sequence number of the advertisement.
+	 ***************************************************************/
+	public void setup(ByteBuffer buf, int type, int origin, int sequence) {
+		buf.put(offset, (byte) VERSION);
+		buf.put(offset + 1, (byte) type);
+		buf.putShort(offset + 2, (short) 0);
+		buf.putInt(offset + 4, origin);
+		buf.putInt(offset + 8, sequence);
+		buf.putInt(offset + 12, 0);
+	}
+
+	public int version(ByteBuffer buf) {
+		return buf.get(offset) & 0xFF;
+	}
+
+	public int type(ByteBuffer buf) {
+		return buf.get(offset + 1) & 0xFF;
+	}
+
+	public int checksum(ByteBuffer buf) {
+		return buf.getShort(offset + 2) & 0xFFFF;
+	}
+
+	public void setChecksum(ByteBuffer buf, int checksum) {
+		buf.putShort(offset + 2, (short) checksum);
+	}
+
+	/****************************************************************
+	 * @return router ID of the router described, or of the sender of
+	 * a HELLO.
+	 ***************************************************************/
+	public int origin(ByteBuffer buf) {
+		return buf.getInt(offset + 4);
+	}
+
+	/****************************************************************
+	 * @return sequence number of the advertisement, higher is newer.
+	 ***************************************************************/
+	public int sequence(ByteBuffer buf) {
+		return buf.getInt(offset + 8);
+	}
+
+	/****************************************************************
+	 * @return the number of link entries.
+	 ***************************************************************/
+	public int linkCount(ByteBuffer buf) {
+		return buf.getShort(offset + 12) & 0xFFFF;
+	}
+
+	/****************************************************************
+	 * @return the number of prefix entries.
+	 ***************************************************************/
+	public int prefixCount(ByteBuffer buf) {
+		return buf.getShort(offset + 14) & 0xFFFF;
+	}
+
+	/****************************************************************
+	 * Sets the number of entries. Links must be written before the
+	 * counts are set, and prefixes after.
+	 *
+	 * @param links the number of link entries.
+	 * @param prefixes the number of prefix entries.
+	 ***************************************************************/
+	public void setCounts(ByteBuffer buf, int links, int prefixes) {
+		buf.putShort(offset + 12, (short) links);
+		buf.putShort(offset + 14, (short) prefixes);
+	}
+
+	/****************************************************************
+	 * @return index just past the last entry.
+	 ***************************************************************/
+	public int end(ByteBuffer buf) {
+		return entry(linkCount(buf) + prefixCount(buf));
+	}
+
+	/****************************************************************
+	 * @return the checksum of the header and entries, ignoring the 
+	 * value currently stored.
+	 ***************************************************************/
+	public int calculateChecksum(ByteBuffer buf) {
+		return Checksum.calculate(buf, offset, end(buf), offset + 2);
+	}
+
+	/****************************************************************
+	 * Calculates the checksum and stores it in the header.
+	 ***************************************************************/
+	public void updateChecksum(ByteBuffer buf) {
+		setChecksum(buf, calculateChecksum(buf));
+	}
+
+	/****************************************************************
+	 * @param index which link, below linkCount().
+	 * @return router ID of the neighbor at the other end.
+	 ***************************************************************/
+	public int neighbor(ByteBuffer buf, int index) {
+		return buf.getInt(entry(index));
+	}
+
+	/****************************************************************
+	 * @param index which link, below linkCount().
+	 * @return the cost of the link.
+	 ***************************************************************/
+	public int cost(ByteBuffer buf, int index) {
+		return buf.getShort(entry(index) + 4) & 0xFFFF;
+	}
+
+	/****************************************************************
+	 * Writes a link entry. The counts are not changed.
+	 *
+	 * @param index which link.
+	 * @param neighbor router ID of the neighbor at the other end.
+	 * @param cost the cost of the link.
+	 ***************************************************************/
+	public void setLink(ByteBuffer buf, int index, int neighbor, 
+			int cost) {
+		int start = entry(index);
+
+		buf.putInt(start, neighbor);
+		buf.putShort(start + 4, (short) cost);
+		buf.putShort(start + 6, (short) 0);
+	}
+
+	/****************************************************************
+	 * @param index which prefix, below prefixCount().
+	 * @return the prefix as an int.
+	 ***************************************************************/
+	public int prefix(ByteBuffer buf, int index) {
+		return buf.getInt(entry(linkCount(buf) + index));
+	}
+
+	/****************************************************************
+	 * @param index which prefix, below prefixCount().
+	 * @return the number of significant bits of the prefix.
+	 ***************************************************************/
+	public int prefixLength(ByteBuffer buf, int index) {
+		return buf.get(entry(linkCount(buf) + index) + 4) & 0xFF;
+	}
+
+	/****************************************************************
+	 * Writes a prefix entry after the given number of links. The 
+	 * counts are not changed.
+	 *
+	 * @param links the number of link entries before the prefixes.
+	 * @param index which prefix.
+	 * @param prefix the prefix as an int.
+	 * @param length the number of significant bits of the prefix.
+	 ***************************************************************/
+	public void setPrefix(ByteBuffer buf, int links, int index, 
+			int prefix, int length) {
+		int start = entry(links + index);
+
+		buf.putInt(start, prefix);
+		buf.put(start + 4, (byte) length);
+		buf.put(start + 5, (byte) 0);
+		buf.putShort(start + 6, (short) 0);
+	}
+
+	/* @return index of the first byte of an entry. */
+	private int entry(int index) {
+		return offset + LENGTH + index * ENTRY_LENGTH;
+	}
+}
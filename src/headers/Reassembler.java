@@ -0,0 +1,297 @@
+package headers;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/********************************************************************
+ * Reassembler.java
+ *
+ * Puts IPv4 fragments back together into the original packets. The
+ * data of each fragment is copied straight to its offset in one
+ * buffer per packet, and the 8-byte blocks received so far are kept
+ * in a bitmap, so fragments may arrive in any order, overlap or be
+ * duplicated.
+ *
+ * Buffers are reused from a pool whose size is the memory cap. When
+ * every buffer is in use the oldest partial packet is dropped to make
+ * room. Partial packets are also dropped once they are older than the
+ * timeout.
+ *
+ * Safe to share between threads.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class Reassembler {
+
+	private static final IP_Header IP = new IP_Header();
+
+	/** Most 8-byte blocks of data in a packet. */
+	private static final int BLOCKS = (IP_Header.MAX_LENGTH + 7) / 8;
+
+	/** Longest IPv4 header. Data is kept after room for one until the
+	 * first fragment says how long the header really is. */
+	private static final int MAX_HEADER = 60;
+
+	/** Size of each buffer. */
+	private static final int BUFFER_SIZE = MAX_HEADER + IP_Header.MAX_LENGTH;
+
+	/** Most packets being reassembled at once. */
+	private final int maxPackets;
+
+	private final long timeoutNanos;
+
+	/** Partial packets, oldest first. */
+	private final LinkedHashMap<Key, Partial> partials;
+
+	/** Free buffers, each large enough for any packet. */
+	private final ArrayBlockingQueue<ByteBuffer> free;
+
+	/** Number of buffers allocated so far, at most maxPackets. */
+	private int allocated;
+
+	private long reassembled;
+
+	private long timedOut;
+
+	private long evicted;
+
+	/****************************************************************
+	 * Constructor for Reassembler.
+	 *
+	 * @param maxBytes most memory to hold partial packets in. Each
+	 * takes a buffer a little over IP_Header.MAX_LENGTH bytes.
+	 * @param timeoutMillis how long to wait for the rest of a packet.
+	 ***************************************************************/
+	public Reassembler(int maxBytes, long timeoutMillis) {
+		maxPackets = Math.max(1, maxBytes / BUFFER_SIZE);
+		timeoutNanos = timeoutMillis * 1000000L;
+
+		partials = new LinkedHashMap<Key, Partial>();
+		free = new ArrayBlockingQueue<ByteBuffer>(maxPackets);
+	}
+
+	/****************************************************************
+	 * Adds a fragment.
+	 *
+	 * @param fragment the buffer holding the fragment from index 0.
+	 * It is only read during the call.
+	 * @return null while the packet is incomplete, then a buffer 
+	 * holding the whole packet between 0 and its limit. Pass it to 
+	 * release() when done with it.
+	 ***************************************************************/
+	public synchronized ByteBuffer add(ByteBuffer fragment) {
+		long now = System.nanoTime();
+		expire(now);
+
+		int headerLength = IP.headerLength(fragment);
+		int length = IP.totalLength(fragment) - headerLength;
+		int start = IP.fragmentOffset(fragment) * 8;
+		boolean last = !IP.moreFragments(fragment);
+
+		/* Only the last fragment may end off an 8-byte boundary, and
+		 * nothing may end past the largest packet. */
+		if (length <= 0 || (!last && length % 8 != 0) ||
+				headerLength + start + length > IP_Header.MAX_LENGTH) {
+			return null;
+		}
+
+		Key key = new Key(fragment);
+		Partial partial = partials.get(key);
+
+		if (partial == null) {
+			ByteBuffer buf = acquire();
+
+			// Every buffer is held by a caller that has not released it
+			if (buf == null) return null;
+
+			partial = new Partial(buf, now);
+			partials.put(key, partial);
+		}
+
+		partial.add(fragment, headerLength, start, length, last);
+
+		if (!partial.isComplete()) return null;
+
+		partials.remove(key);
+		reassembled++;
+
+		return partial.finish();
+	}
+
+	/****************************************************************
+	 * Returns the buffer of a reassembled packet to the pool.
+	 *
+	 * @param buf a buffer returned by add().
+	 ***************************************************************/
+	public void release(ByteBuffer buf) {
+		buf.clear();
+		free.offer(buf);
+	}
+
+	/****************************************************************
+	 * @return the number of packets completed.
+	 ***************************************************************/
+	public synchronized long getReassembled() {
+		return reassembled;
+	}
+
+	/****************************************************************
+	 * @return the number of partial packets dropped for the timeout.
+	 ***************************************************************/
+	public synchronized long getTimedOut() {
+		return timedOut;
+	}
+
+	/****************************************************************
+	 * @return the number of partial packets dropped for the memory
+	 * cap.
+	 ***************************************************************/
+	public synchronized long getEvicted() {
+		return evicted;
+	}
+
+	/* Drops partial packets older than the timeout. */
+	private void expire(long now) {
+		Iterator<Partial> it = partials.values().iterator();
+
+		while (it.hasNext()) {
+			Partial partial = it.next();
+
+			if (now - partial.created < timeoutNanos) break;
+
+			it.remove();
+			release(partial.buf);
+			timedOut++;
+		}
+	}
+
+	/* A free buffer, dropping the oldest partial packet if the cap
+	 * has been reached. Null if there is none to drop. */
+	private ByteBuffer acquire() {
+		ByteBuffer buf = free.poll();
+
+		if (buf != null) return buf;
+
+		if (allocated < maxPackets) {
+			allocated++;
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+
+		if (partials.isEmpty()) return null;
+
+		Iterator<Map.Entry<Key, Partial>> it = partials.entrySet().iterator();
+		Partial oldest = it.next().getValue();
+		it.remove();
+		evicted++;
+
+		return oldest.buf;
+	}
+
+	/* A packet being reassembled. */
+	private static final class Partial {
+
+		private final ByteBuffer buf;
+
+		private final long created;
+
+		/** One bit per 8-byte block of data received. */
+		private final long[] blocks = new long[(BLOCKS + 63) / 64];
+
+		/** Length of the data, once the last fragment has arrived. */
+		private int dataLength = -1;
+
+		/** Length of the header, once the first fragment has. */
+		private int headerLength = -1;
+
+		private Partial(ByteBuffer buf, long created) {
+			this.buf = buf;
+			this.created = created;
+		}
+
+		private void add(ByteBuffer fragment, int fragmentHeaderLength,
+				int start, int length, boolean last) {
+			ByteBuffer src = fragment.duplicate();
+
+			// The first fragment's header becomes the packet's
+			if (start == 0) {
+				headerLength = fragmentHeaderLength;
+				src.limit(headerLength).position(0);
+				buf.limit(BUFFER_SIZE).position(0);
+				buf.put(src);
+			}
+
+			src.limit(fragmentHeaderLength + length)
+					.position(fragmentHeaderLength);
+			buf.limit(BUFFER_SIZE).position(MAX_HEADER + start);
+			buf.put(src);
+
+			if (last) dataLength = start + length;
+
+			for (int b = start / 8; b < (start + length + 7) / 8; b++) {
+				blocks[b >>> 6] |= 1L << b;
+			}
+		}
+
+		private boolean isComplete() {
+			if (dataLength < 0 || headerLength < 0) return false;
+
+			int count = (dataLength + 7) / 8;
+
+			for (int b = 0; b < count; b++) {
+				if ((blocks[b >>> 6] & (1L << b)) == 0) return false;
+			}
+
+			return true;
+		}
+
+		/* Moves the data up against the header and fixes the header. */
+		private ByteBuffer finish() {
+			ByteBuffer data = buf.duplicate();
+			data.limit(MAX_HEADER + dataLength).position(MAX_HEADER);
+
+			buf.limit(BUFFER_SIZE).position(headerLength);
+			buf.put(data);
+			buf.flip();
+
+			IP.setTotalLength(buf, headerLength + dataLength);
+			IP.setFragment(buf, 0, false);
+			IP.updateChecksum(buf);
+
+			return buf;
+		}
+	}
+
+	/* Identifies the fragments of one packet (RFC 791). */
+	private static final class Key {
+
+		private final int source;
+
+		private final int destination;
+
+		private final int idAndProtocol;
+
+		private Key(ByteBuffer fragment) {
+			source = IP.source(fragment);
+			destination = IP.destination(fragment);
+			idAndProtocol = (IP.id(fragment) << 8) | IP.protocol(fragment);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+
+			Key k = (Key) o;
+
+			return source == k.source && destination == k.destination &&
+					idAndProtocol == k.idAndProtocol;
+		}
+
+		@Override
+		public int hashCode() {
+			return (source * 31 + destination) * 31 + idAndProtocol;
+		}
+	}
+}
@@ -1,8 +1,14 @@
 package headers;
 
+import java.nio.ByteBuffer;
+
 /********************************************************************
  * UDP_Header.java
  *
+ * Flyweight view of a UDP header. The header is read and written
+ * in place in a caller supplied ByteBuffer, starting at the offset
+ * given to the constructor.
+ *
  * @author Jack O'Brien
  * @author Megan Maher
  * @author Tyler McCarthy
@@ -12,233 +18,152 @@ package headers;
 public class UDP_Header {
 
 	/** The UDP header length is 8 bytes. */
-	private final int header_length = 8;
-	
-	/** Bit string representing this header. */
-	String bits;
-	
+	public static final int LENGTH = 8;
+
+	/** Index of the first byte of the header in the buffer. */
+	private final int offset;
+
 	/****************************************************************
-	 * Constructor for this UDP_Header. Instantates the bit string
-	 * to be 8 bytes worth of zeros.
+	 * Constructor for a UDP_Header which directly follows a 20 byte
+	 * IPv4 header at the start of the buffer.
 	 ***************************************************************/
 	public UDP_Header() {
-		bits = new String(new byte[header_length * 8]).replace("\0", "0");
+		this(IP_Header.LENGTH);
 	}
-	
+
+	/****************************************************************
+	 * Constructor for a UDP_Header starting at the given offset.
+	 *
+	 * @param offset index of the first byte of the header.
+	 ***************************************************************/
+	public UDP_Header(int offset) {
+		this.offset = offset;
+	}
+
+	/****************************************************************
+	 * @return index of the first byte of the header.
+	 ***************************************************************/
+	public int offset() {
+		return offset;
+	}
+
+	/****************************************************************
+	 * @return the source port.
+	 ***************************************************************/
+	public int srcPort(ByteBuffer buf) {
+		return buf.getShort(offset) & 0xFFFF;
+	}
+
 	/****************************************************************
 	 * Sets the source port.
-	 * 
+	 *
 	 * @param srcPort the source port number to be inserted.
 	 ***************************************************************/
-	public void setSrcPort(int srcPort) {
-		insertData(0, 16, srcPort);
+	public void setSrcPort(ByteBuffer buf, int srcPort) {
+		buf.putShort(offset, (short) srcPort);
+	}
+
+	/****************************************************************
+	 * @return the destination port.
+	 ***************************************************************/
+	public int dstPort(ByteBuffer buf) {
+		return buf.getShort(offset + 2) & 0xFFFF;
 	}
-	
+
 	/****************************************************************
 	 * Sets the destination port.
-	 * 
+	 *
 	 * @param dstPort the destination port number to be inserted.
 	 ***************************************************************/
-	public void setDstPort(int dstPort) {
-		insertData(16, 32, dstPort);
+	public void setDstPort(ByteBuffer buf, int dstPort) {
+		buf.putShort(offset + 2, (short) dstPort);
 	}
-	
+
 	/****************************************************************
-	 * Sets the UDP length field.
-	 * 
-	 * @param length number of bytes in the data field.
+	 * @return the UDP length field, header included.
 	 ***************************************************************/
-	public void setDataLength(int length) {
-		insertData(32, 48, (length + header_length));
+	public int length(ByteBuffer buf) {
+		return buf.getShort(offset + 4) & 0xFFFF;
 	}
-	
+
 	/****************************************************************
-	 * Calculates and inserts the UDP checksum.
-	 * 
-	 * @param ipv4Bits the bit string representing the IPv4 pseudo
-	 * header not including the length field.
-	 * @param message the plain text message.
+	 * Sets the UDP length field.
+	 *
+	 * @param length number of bytes in the header and data field.
 	 ***************************************************************/
-	public void calculateChecksum(String ipv4Bits, String message) {
-		int checksum = calculateChecksum(bits, ipv4Bits, message);
-		
-		insertData(48, 64, checksum);
+	public void setLength(ByteBuffer buf, int length) {
+		buf.putShort(offset + 4, (short) length);
 	}
-	
+
 	/****************************************************************
-	 * Inserts the given data into the bit string at the given location.
-	 * 
-	 * @param start Starting index to be inserted (inclusive).
-	 * @param end Ending index to be inserted (exclusive).
-	 * @param data the data to be inserted.
+	 * Sets the UDP length field.
+	 *
+	 * @param length number of bytes in the data field.
 	 ***************************************************************/
-	private void insertData(int start, int end, int data) {
-
-		// Converts data to binary string
-		String dataStr = Integer.toBinaryString(data);
-		int length = end - start;
-		
-		// Pads the binary string with 0's to fit in the given range
-		int bufferLength = (length - dataStr.length());
-		String binary = new String(new char[length]).replace("\0", "0");
-		binary = binary.substring(0, bufferLength) + dataStr;
-		
-		// Adds the binary string of data into the main bit string at
-		// the given location
-		bits = bits.substring(0, start) + binary + bits.substring(end);
+	public void setDataLength(ByteBuffer buf, int length) {
+		setLength(buf, length + LENGTH);
 	}
 
 	/****************************************************************
-	 * @return the length in bytes of this header.
+	 * @return the checksum stored in the header.
 	 ***************************************************************/
-	public int getLength() {
-		return header_length;
+	public int checksum(ByteBuffer buf) {
+		return buf.getShort(offset + 6) & 0xFFFF;
 	}
-	
+
+	public void setChecksum(ByteBuffer buf, int checksum) {
+		buf.putShort(offset + 6, (short) checksum);
+	}
+
 	/****************************************************************
-	 * @return the bit string representation of this header.
+	 * Calculates the UDP checksum over the IPv4 pseudo header, this
+	 * header and the number of data bytes given by the length field.
+	 *
+	 * @param ip the IPv4 header this UDP header is carried in.
+	 * @return the checksum, ignoring the value currently stored.
 	 ***************************************************************/
-	public String getBitString() {
-		return bits;
-	}
-	
-	private static String bytesToBitString(byte[] data, int start, int end) {
-		
-		String bitStr = "";
-		
-		for (int i = start; i < end; i++) {
-			String s = Integer.toBinaryString(data[i] & 0xFF);
-			s = String.format("%8s", s).replace(' ', '0');
-			bitStr += s;
-		}
-		
-		return bitStr;
+	public int calculateChecksum(ByteBuffer buf, IP_Header ip) {
+		int length = length(buf);
+
+		long sum = ip.addPseudoHeader(buf, 0);
+		sum += length;
+
+		// UDP header without the checksum, then the message
+		sum = Checksum.add(sum, buf, offset, offset + 6);
+		sum = Checksum.add(sum, buf, offset + LENGTH, offset + length);
+
+		return Checksum.finish(sum);
 	}
-	
-	private static String bytesToString(byte[] data, int start, int end) {
-		
-		String str = "";
-		
-		for (int i = start; i < end; i++) {
-			str += (char) (data[i] & 0xFF);
-		}
-		
-		return str;
+
+	/****************************************************************
+	 * Calculates and inserts the UDP checksum.
+	 *
+	 * @param ip the IPv4 header this UDP header is carried in.
+	 ***************************************************************/
+	public void updateChecksum(ByteBuffer buf, IP_Header ip) {
+		setChecksum(buf, calculateChecksum(buf, ip));
 	}
-	
-	
+
+	/****************************************************************
+	 * Calculates the UDP checksum of a packet where the UDP header
+	 * directly follows a 20 byte IPv4 header.
+	 *
+	 * @param data the byte array containing the packet.
+	 * @param start index of the first byte of the UDP header.
+	 * @param end index of the last byte of the message (exclusive).
+	 * @return the checksum of the UDP header and message.
+	 ***************************************************************/
 	public static int calculateChecksum(byte[] data, int start, int end) {
-		byte[] pseudoHeader = new byte[10];
-		int index = start - 8; // Index of source from IPv4 above UDP
-		
-		/* Adds the source and destination to the pseudo header */
-		for (int i = 0; i < 8; i++) {
-			pseudoHeader[i] = data[index + i];
-		}
-		
-		// Protocol
-		pseudoHeader[9] = data[start - 11]; 
-		
-		String ipBits = bytesToBitString(pseudoHeader, 0, pseudoHeader.length);
-		String udpBits = bytesToBitString(data, start, start + 8);
-		String message = bytesToString(data, start + 8, end);
-		
-		return calculateChecksum(udpBits, ipBits, message);
-	}
-	
-	private static int calculateChecksum(String bits, String ipv4Bits, 
-			String message) {
-		
-		int header_length = 8;
-		
-		// Add length to IPv4 Pseudo Header
-		ipv4Bits += bits.substring(32, 48);
-		
-		int lenIP = (ipv4Bits.length() / 8); 	// #IPv4 octets
-		int lenUDP = (header_length - 2);		// Length of UDP - checksum
-		int lenMsg = message.length();
-		
-		/* Checks for a message of odd length */
-		if (message.length() % 2 != 0) {
-			lenMsg++;
-		}
-		
-		// Creates the array of octets for the first three
-		// fields (ignores the checksum field)
-		String[] octets = new String[lenIP + lenUDP + lenMsg];
-		
-		/* Adds IPv4 pseudo header bits to octet array */
-		for (int i = 0; i < lenIP; i++) {
-			int start = i * 8;
-			int end = start + 8;
-			
-			octets[i] = ipv4Bits.substring(start, end);
-		}
-		
-		/* Adds UDP bits to octet array */
-		for (int i = 0; i < lenUDP; i++) {
-			int start = i * 8;
-			int end = start + 8;
-						
-			octets[i + lenIP] = bits.substring(start, end);
-		}
-		
-		String messageBits = "";
-		
-		/* Convert message into bit string */
-		for (int i = 0; i < message.length(); i++) {
-			int ascii = (int) message.charAt(i);
-			String binary = Integer.toBinaryString(ascii);
-			binary = String.format("%8s", binary).replace(' ', '0');
-			messageBits += binary;
-		}		
-		
-		/* Pads end of message with 0's if odd */
-		if (message.length() != lenMsg) {
-			messageBits += "00000000";
-		}
-		
-		/* Adds message bits into octet array */
-		for (int i = 0; i < lenMsg; i++) {
-			int start = i * 8;
-			int end = start + 8;
-			
-			octets[i + lenIP + lenUDP] = messageBits.substring(start, end);
-		}
-		
-		String sum = new String(new char[16]).replace("\0", "0");
-		
-		/* Loops through every pair of octets and adds them to the sum
-		 * as a 16 bit value */
-		for (int i = 0; i < octets.length; i += 2) {
-			String value = "";
-			
-			// Converts two octets into 16 bit value
-			value = octets[i] + octets[i + 1];
-
-			// Adds value to the current sum
-			int s = Integer.parseInt(sum, 2) + Integer.parseInt(value, 2);
-			sum = Integer.toBinaryString(s);
-			sum = String.format("%16s", sum).replace(' ', '0');
-			
-			// Handles 16-bit carry correction
-			if (sum.length() > 16) {
-				String carryStr = sum.substring(0, sum.length() - 16);
-				int carry = Integer.parseInt(carryStr, 2);
-				
-				s = Integer.parseInt(sum.substring(carryStr.length()), 2);
-				s += carry;
-				
-				sum = Integer.toBinaryString(s);
-				sum = String.format("%16s", sum).replace(' ', '0');
-			}
-		}
-
-		sum = sum.replace('1', '2');
-		sum = sum.replace('0', '1');
-		sum = sum.replace('2', '0');
-		
-		return Integer.parseInt(sum, 2);
+
+		// IPv4 Pseudo Header: source, destination, protocol and length
+		long sum = Checksum.add(0, data, start - 8, start);
+		sum += data[start - 11] & 0xFF;
+		sum += ((data[start + 4] & 0xFF) << 8) | (data[start + 5] & 0xFF);
+
+		// UDP header without the checksum, then the message
+		sum = Checksum.add(sum, data, start, start + 6);
+		sum = Checksum.add(sum, data, start + 8, end);
+
+		return Checksum.finish(sum);
 	}
-	
 }
@@ -0,0 +1,60 @@
+package router;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/********************************************************************
+ * AdminServer.java
+ *
+ * Plain text metrics on a TCP port bound to the loopback address.
+ * Each connection is sent the current report and closed, so
+ *
+ *     nc localhost PORT
+ *
+ * prints the router's counters.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class AdminServer implements Runnable {
+
+	private final ServerSocket server;
+
+	private final Metrics metrics;
+
+	/****************************************************************
+	 * Constructor for AdminServer. Binds the port.
+	 *
+	 * @param port the TCP port to listen on.
+	 * @param metrics the counters to report.
+	 * @throws IOException if the port can't be bound.
+	 ***************************************************************/
+	public AdminServer(int port, Metrics metrics) throws IOException {
+		this.server = new ServerSocket(port, 4,
+				InetAddress.getLoopbackAddress());
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				Socket client = server.accept();
+
+				try {
+					OutputStream out = client.getOutputStream();
+					out.write(metrics.getReport()
+							.getBytes(StandardCharsets.US_ASCII));
+					out.flush();
+				} finally {
+					client.close();
+				}
+			} catch (IOException e) {
+				if (server.isClosed()) return;
+			}
+		}
+	}
+}
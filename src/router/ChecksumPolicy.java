@@ -0,0 +1,163 @@
+package router;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/********************************************************************
+ * ChecksumPolicy.java
+ *
+ * Decides how much of a forwarded packet the router verifies, by the
+ * virtual source prefix the packet came from. The IPv4 header
+ * checksum is always checked, since the router rewrites that header.
+ * The UDP or ICMP checksum covers the whole payload and is really the
+ * destination's job, so over trusted links it can be skipped or only
+ * checked on a sample of packets.
+ *
+ * Rules are matched longest prefix first. Sources no rule matches
+ * are fully checked.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class ChecksumPolicy {
+
+	/** How much of a packet to verify. */
+	public enum Mode {
+		/** Both the IPv4 and the payload checksum. */
+		ALL,
+
+		/** Only the IPv4 header checksum. */
+		IP_ONLY,
+
+		/** The IPv4 checksum, and the payload checksum of 1 in N
+		 * packets. */
+		SAMPLED;
+
+		/************************************************************
+		 * @param name "all", "ip" or "sample".
+		 * @return the mode, or null if there is none by that name.
+		 ***********************************************************/
+		public static Mode parse(String name) {
+			if (name.equals("all")) return ALL;
+			if (name.equals("ip")) return IP_ONLY;
+			if (name.equals("sample")) return SAMPLED;
+
+			return null;
+		}
+	}
+
+	/** Rule prefixes and lengths, longest first. */
+	private int[] prefixes;
+	private int[] lengths;
+
+	private Mode[] modes;
+
+	/** N of a SAMPLED rule, 1 otherwise. */
+	private int[] rates;
+
+	/****************************************************************
+	 * Constructor for a ChecksumPolicy which checks everything.
+	 ***************************************************************/
+	public ChecksumPolicy() {
+		prefixes = new int[0];
+		lengths = new int[0];
+		modes = new Mode[0];
+		rates = new int[0];
+	}
+
+	/****************************************************************
+	 * Adds a rule for packets from the given source prefix. A rule
+	 * for a prefix already added replaces it.
+	 *
+	 * @param prefix the virtual source prefix as an int.
+	 * @param length the prefix length, 0 for every source.
+	 * @param mode how much to verify.
+	 * @param rate N for SAMPLED, ignored otherwise.
+	 ***************************************************************/
+	public void add(int prefix, int length, Mode mode, int rate) {
+		prefix &= RoutingTable.mask(length);
+		rate = mode == Mode.SAMPLED ? Math.max(1, rate) : 1;
+
+		int i = 0;
+
+		while (i < lengths.length && lengths[i] > length) i++;
+
+		if (i < lengths.length && lengths[i] == length) {
+			for (int j = i; j < lengths.length && lengths[j] == length; j++) {
+				if (prefixes[j] == prefix) {
+					modes[j] = mode;
+					rates[j] = rate;
+					return;
+				}
+			}
+		}
+
+		prefixes = insert(prefixes, i, prefix);
+		lengths = insert(lengths, i, length);
+		rates = insert(rates, i, rate);
+
+		Mode[] grown = Arrays.copyOf(modes, modes.length + 1);
+		System.arraycopy(modes, i, grown, i + 1, modes.length - i);
+		grown[i] = mode;
+		modes = grown;
+	}
+
+	/****************************************************************
+	 * @param source the virtual source address as an int.
+	 * @return the mode of the longest rule matching the source.
+	 ***************************************************************/
+	public Mode modeFor(int source) {
+		int i = match(source);
+
+		return i < 0 ? Mode.ALL : modes[i];
+	}
+
+	/****************************************************************
+	 * Decides whether to verify the payload checksum of one packet.
+	 * For SAMPLED sources this is a random 1 in N choice.
+	 *
+	 * @param source the virtual source address as an int.
+	 * @return true if the payload checksum should be checked.
+	 ***************************************************************/
+	public boolean checkPayload(int source) {
+		int i = match(source);
+
+		if (i < 0) return true;
+
+		switch (modes[i]) {
+		case IP_ONLY:
+			return false;
+		case SAMPLED:
+			return ThreadLocalRandom.current().nextInt(rates[i]) == 0;
+		default:
+			return true;
+		}
+	}
+
+	/****************************************************************
+	 * @return the number of rules.
+	 ***************************************************************/
+	public int size() {
+		return modes.length;
+	}
+
+	/* Index of the longest matching rule, or -1. */
+	private int match(int source) {
+		for (int i = 0; i < lengths.length; i++) {
+			if (((source ^ prefixes[i]) & RoutingTable.mask(lengths[i])) == 0) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	private static int[] insert(int[] arr, int index, int value) {
+		int[] grown = new int[arr.length + 1];
+
+		System.arraycopy(arr, 0, grown, 0, index);
+		System.arraycopy(arr, index, grown, index + 1, arr.length - index);
+		grown[index] = value;
+
+		return grown;
+	}
+}
@@ -0,0 +1,100 @@
+package router;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/********************************************************************
+ * ConfigWatcher.java
+ *
+ * Watches a configuration file and runs a task each time it is
+ * changed. Editors often write a file in several steps, so changes
+ * arriving close together are reported once.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class ConfigWatcher implements Runnable {
+
+	/** Time to wait for a burst of changes to finish. */
+	private static final long SETTLE_MILLIS = 200;
+
+	private final Path file;
+
+	private final Runnable onChange;
+
+	private final WatchService watcher;
+
+	/****************************************************************
+	 * Constructor for ConfigWatcher. Registers the directory of the
+	 * file with a WatchService.
+	 *
+	 * @param path path of the file to watch.
+	 * @param onChange task to run when the file changes.
+	 * @throws IOException if the directory can't be watched.
+	 ***************************************************************/
+	public ConfigWatcher(String path, Runnable onChange) throws IOException {
+		this.file = Paths.get(path).toAbsolutePath();
+		this.onChange = onChange;
+
+		watcher = FileSystems.getDefault().newWatchService();
+		file.getParent().register(watcher,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			WatchKey key;
+
+			try {
+				key = watcher.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			boolean changed = hasChanged(key);
+
+			if (!key.reset()) return;
+
+			if (!changed) continue;
+
+			/* Lets the writer finish, then drops the events it caused */
+			try {
+				Thread.sleep(SETTLE_MILLIS);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			while ((key = watcher.poll()) != null) {
+				key.pollEvents();
+				key.reset();
+			}
+
+			onChange.run();
+		}
+	}
+
+	/****************************************************************
+	 * @return true if any of the key's events are for the file.
+	 ***************************************************************/
+	private boolean hasChanged(WatchKey key) {
+		boolean changed = false;
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+			Object context = event.context();
+
+			if (context instanceof Path &&
+					file.getFileName().equals(context)) {
+				changed = true;
+			}
+		}
+
+		return changed;
+	}
+}
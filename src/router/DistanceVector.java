@@ -0,0 +1,481 @@
+package router;
+
+import headers.DV_Header;
+import headers.IP_Header;
+import transport.Transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import router.Log.Level;
+import router.RoutingTable.Entry;
+
+/********************************************************************
+ * DistanceVector.java
+ *
+ * RIP-style distance vector routing (RFC 2453) between a router and
+ * the neighbors in its configuration file. Messages are IPv4 packets
+ * with the DISTANCE_VECTOR protocol number, sent straight to each
+ * neighbor's "real" address.
+ *
+ * A router advertises its static prefixes and its own addresses with
+ * metric 1, along with the routes it has learned. A learned route 
+ * costs the advertised metric plus the cost of the link it was 
+ * learned over, up to INFINITY. Routes are advertised back to the 
+ * neighbor they were learned from as INFINITY (split horizon with 
+ * poisoned reverse). Static prefixes always win over learned ones.
+ *
+ * The whole table is sent every interval. Routes which change are
+ * sent on their own in a triggered update straight away, then at 
+ * most once per TRIGGER_HOLD_MILLIS. A route not refreshed for six
+ * intervals times out, and is advertised as unreachable for four 
+ * more before it is forgotten.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class DistanceVector extends RoutingProtocol {
+
+	/** Metric of an unreachable route. */
+	public static final int INFINITY = 16;
+
+	/** Most route entries in one message, which keeps messages under
+	 * 576 bytes. */
+	private static final int MAX_ENTRIES = 64;
+
+	/** Least time between triggered updates. */
+	private static final long TRIGGER_HOLD_MILLIS = 1000;
+
+	/** Longest the routing thread sleeps, so routes time out on time. */
+	private static final long TICK_MILLIS = 1000;
+
+	/** Virtual destination of every message, RIP's group address. */
+	private static final int ALL_ROUTERS = 0xE0000009;
+
+	private final IP_Header IP = new IP_Header();
+	private final DV_Header DV = new DV_Header();
+
+	/** Cost of the link to each neighbor, by "real" address. */
+	private Map<InetAddress, Integer> neighbors;
+
+	/** Routes and addresses from the configuration file. */
+	private RoutingTable statics;
+
+	/** Keys of the static prefixes and the router's addresses, which
+	 * are never learned. */
+	private Set<Long> staticKeys;
+
+	private long intervalNanos;
+
+	/** Learned routes, including unreachable ones not yet forgotten. */
+	private final Map<Long, Route> routes = new HashMap<Long, Route>();
+
+	/** Work for the routing thread. */
+	private boolean fullPending;
+	private boolean triggerPending;
+	private boolean tableChanged;
+
+	/** When the next full and triggered updates may be sent. */
+	private long nextPeriodic;
+	private long nextTrigger;
+
+	/****************************************************************
+	 * Constructor for DistanceVector. Nothing is sent until start().
+	 *
+	 * @param transport the "real" network to send messages on.
+	 * @param log the router's log.
+	 * @param onChange called on the routing thread whenever the 
+	 * learned routes change.
+	 ***************************************************************/
+	public DistanceVector(Transport transport, Log log, Runnable onChange) {
+		super(transport, log, onChange);
+
+		neighbors = Collections.emptyMap();
+		statics = new RoutingTable();
+		staticKeys = Collections.emptySet();
+		intervalNanos = TimeUnit.SECONDS.toNanos(DEFAULT_INTERVAL);
+	}
+
+	/****************************************************************
+	 * Sets the neighbors and static routes, and sends a full update
+	 * for them. Routes learned from neighbors which are gone become 
+	 * unreachable, and those for prefixes which are now static are 
+	 * forgotten.
+	 *
+	 * @param neighbors the cost of the link to each neighbor, by its
+	 * "real" address.
+	 * @param statics the routes and addresses from the configuration
+	 * file.
+	 * @param interval seconds between full updates.
+	 ***************************************************************/
+	@Override
+	public synchronized void configure(Map<InetAddress, Integer> neighbors,
+			RoutingTable statics, int interval) {
+		this.neighbors = neighbors;
+		this.statics = statics;
+		intervalNanos = TimeUnit.SECONDS.toNanos(Math.max(1, interval));
+
+		staticKeys = new HashSet<Long>();
+
+		for (Entry e : statics.entries()) {
+			staticKeys.add(key(e.getPrefix(), e.getLength()));
+		}
+
+		for (int local : statics.getLocalAddresses()) {
+			staticKeys.add(key(local, 32));
+		}
+
+		long now = System.nanoTime();
+		Iterator<Route> it = routes.values().iterator();
+
+		while (it.hasNext()) {
+			Route r = it.next();
+
+			if (staticKeys.contains(key(r.prefix, r.length))) {
+				it.remove();
+				tableChanged = true;
+			} else if (!neighbors.containsKey(r.nextHop)) {
+				unreachable(r, now);
+			}
+		}
+
+		fullPending = true;
+		wake();
+	}
+
+	/****************************************************************
+	 * Adds every reachable learned route to the table.
+	 *
+	 * @param table a table which has not been published yet.
+	 ***************************************************************/
+	@Override
+	public synchronized void addRoutes(RoutingTable table) {
+		for (Route r : routes.values()) {
+			if (r.metric < INFINITY) {
+				table.add(r.prefix, r.length, r.nextHop);
+			}
+		}
+	}
+
+	/****************************************************************
+	 * @return the number of reachable learned routes.
+	 ***************************************************************/
+	@Override
+	public synchronized int getRouteCount() {
+		int count = 0;
+
+		for (Route r : routes.values()) {
+			if (r.metric < INFINITY) count++;
+		}
+
+		return count;
+	}
+
+	@Override
+	protected void begin(long now) {
+		for (InetAddress neighbor : neighbors.keySet()) {
+			sendRequest(neighbor);
+		}
+
+		nextPeriodic = now;
+	}
+
+	@Override
+	protected boolean tick(long now) {
+		expire(now);
+		sendUpdates(now);
+
+		boolean changed = tableChanged;
+		tableChanged = false;
+
+		return changed;
+	}
+
+	@Override
+	protected long waitMillis(long now) {
+		if (fullPending) return 0;
+
+		long until = nextPeriodic - now;
+
+		if (triggerPending) until = Math.min(until, nextTrigger - now);
+
+		return Math.max(0, Math.min(TICK_MILLIS, 
+				TimeUnit.NANOSECONDS.toMillis(until)));
+	}
+
+	/* Validates a message from a neighbor and acts on it. */
+	@Override
+	protected void handle(InetAddress sender, ByteBuffer buf, long now) {
+		Integer cost = neighbors.get(sender);
+
+		if (cost == null) {
+			if (log.isEnabled(Level.DEBUG)) {
+				log.debug("Routing update from " + 
+						sender.getHostAddress() + ", not a neighbor");
+			}
+
+			return;
+		}
+
+		if (!isValid(buf)) {
+			log.debug("Invalid routing update from " + 
+					sender.getHostAddress());
+			return;
+		}
+
+		accepted();
+
+		if (DV.command(buf) == DV_Header.REQUEST) {
+			sendUpdate(sender, true);
+			return;
+		}
+
+		if (DV.command(buf) != DV_Header.RESPONSE) return;
+
+		int count = DV.count(buf);
+
+		for (int i = 0; i < count; i++) {
+			learn(DV.prefix(buf, i), DV.prefixLength(buf, i), 
+					DV.metric(buf, i), sender, cost, now);
+		}
+	}
+
+	/* @return true if the lengths and checksums of a message check 
+	 * out. */
+	private boolean isValid(ByteBuffer buf) {
+		int length = buf.limit();
+
+		if (length < IP_Header.LENGTH + DV_Header.LENGTH) return false;
+
+		if (IP.headerLength(buf) != IP_Header.LENGTH ||
+				IP.protocol(buf) != IP_Header.DISTANCE_VECTOR ||
+				IP.totalLength(buf) > length ||
+				IP.checksum(buf) != IP.calculateChecksum(buf)) {
+			return false;
+		}
+
+		return DV.version(buf) == DV_Header.VERSION &&
+				DV.end(buf) <= IP.totalLength(buf) &&
+				DV.checksum(buf) == DV.calculateChecksum(buf);
+	}
+
+	/* Merges one advertised route into the learned routes. */
+	private void learn(int prefix, int length, int metric, 
+			InetAddress neighbor, int cost, long now) {
+		if (length > 32 || metric < 1 || metric > INFINITY) return;
+
+		prefix &= RoutingTable.mask(length);
+		long key = key(prefix, length);
+
+		if (staticKeys.contains(key)) return;
+
+		int newMetric = Math.min(INFINITY, metric + cost);
+		Route r = routes.get(key);
+
+		if (r == null) {
+			if (newMetric == INFINITY) return;
+
+			r = new Route(prefix, length, neighbor, newMetric, now);
+			routes.put(key, r);
+			changed(r);
+		} else if (r.nextHop.equals(neighbor)) {
+
+			/* News from the current next hop is always believed */
+			if (newMetric < INFINITY) r.updated = now;
+
+			if (newMetric != r.metric) {
+				if (newMetric == INFINITY) {
+					unreachable(r, now);
+				} else {
+					r.metric = newMetric;
+					changed(r);
+				}
+			}
+		} else if (newMetric < r.metric) {
+			r.nextHop = neighbor;
+			r.metric = newMetric;
+			r.updated = now;
+			changed(r);
+		}
+	}
+
+	/* Times out routes which have not been refreshed, and forgets
+	 * those which have been unreachable long enough. */
+	private void expire(long now) {
+		Iterator<Route> it = routes.values().iterator();
+
+		while (it.hasNext()) {
+			Route r = it.next();
+			long age = now - r.updated;
+
+			if (r.metric < INFINITY && age > 6 * intervalNanos) {
+				unreachable(r, now);
+			} else if (r.metric == INFINITY && age > 4 * intervalNanos) {
+				it.remove();
+			}
+		}
+	}
+
+	private void unreachable(Route r, long now) {
+		if (r.metric == INFINITY) return;
+
+		r.metric = INFINITY;
+		r.updated = now;
+		changed(r);
+	}
+
+	private void changed(Route r) {
+		r.changed = true;
+		triggerPending = true;
+		tableChanged = true;
+
+		routeChanged();
+	}
+
+	/* Sends a full update if one is due, otherwise a triggered update
+	 * of the changed routes if one is allowed. */
+	private void sendUpdates(long now) {
+		boolean full = fullPending || now - nextPeriodic >= 0;
+
+		if (!full && !(triggerPending && now - nextTrigger >= 0)) return;
+
+		for (InetAddress neighbor : neighbors.keySet()) {
+			sendUpdate(neighbor, full);
+		}
+
+		for (Route r : routes.values()) {
+			r.changed = false;
+		}
+
+		if (full) {
+			// Spread by up to a sixth either way, so routers which
+			// start together don't stay in step
+			long jitter = intervalNanos / 6;
+			nextPeriodic = now + intervalNanos - jitter + 
+					ThreadLocalRandom.current().nextLong(2 * jitter + 1);
+		}
+
+		fullPending = false;
+		triggerPending = false;
+		nextTrigger = now + TimeUnit.MILLISECONDS.toNanos(TRIGGER_HOLD_MILLIS);
+	}
+
+	/* Sends the whole table, or only the changed routes, to one 
+	 * neighbor in as many messages as it takes. */
+	private void sendUpdate(InetAddress neighbor, boolean full) {
+		ByteBuffer buf = newMessage();
+		int count = 0;
+
+		if (full) {
+			for (Entry e : statics.entries()) {
+				int metric = e.getNextHops().contains(neighbor) ? 
+						INFINITY : 1;
+				count = add(buf, count, neighbor, e.getPrefix(), 
+						e.getLength(), metric);
+			}
+
+			for (int local : statics.getLocalAddresses()) {
+				count = add(buf, count, neighbor, local, 32, 1);
+			}
+		}
+
+		for (Route r : routes.values()) {
+			if (!full && !r.changed) continue;
+
+			// Poisoned reverse
+			int metric = r.nextHop.equals(neighbor) ? INFINITY : r.metric;
+			count = add(buf, count, neighbor, r.prefix, r.length, metric);
+		}
+
+		if (count > 0) send(buf, DV_Header.RESPONSE, count, neighbor);
+	}
+
+	private void sendRequest(InetAddress neighbor) {
+		send(newMessage(), DV_Header.REQUEST, 0, neighbor);
+	}
+
+	private ByteBuffer newMessage() {
+		return ByteBuffer.allocate(IP_Header.LENGTH + DV_Header.LENGTH + 
+				MAX_ENTRIES * DV_Header.ENTRY_LENGTH);
+	}
+
+	/* Adds an entry to the message, first sending it if it is full. */
+	private int add(ByteBuffer buf, int count, InetAddress neighbor, 
+			int prefix, int length, int metric) {
+		if (count == MAX_ENTRIES) {
+			send(buf, DV_Header.RESPONSE, count, neighbor);
+			count = 0;
+		}
+
+		DV.setEntry(buf, count, prefix, length, metric);
+
+		return count + 1;
+	}
+
+	/* Fills in the headers around the entries and sends the message. */
+	private void send(ByteBuffer buf, int command, int count, 
+			InetAddress neighbor) {
+		int length = IP_Header.LENGTH + DV_Header.LENGTH + 
+				count * DV_Header.ENTRY_LENGTH;
+
+		IP.setup(buf, IP_Header.DISTANCE_VECTOR);
+		IP.setTtl(buf, 1);
+		IP.setSource(buf, statics.getLocalAddress());
+		IP.setDestination(buf, ALL_ROUTERS);
+		IP.setTotalLength(buf, length);
+
+		DV.setup(buf, command);
+		DV.setCount(buf, count);
+		DV.updateChecksum(buf);
+		IP.updateChecksum(buf);
+
+		buf.limit(length).position(0);
+
+		try {
+			transport.send(buf, neighbor);
+			sent();
+		} catch (IOException e) {
+			if (log.isEnabled(Level.DEBUG)) {
+				log.debug("Routing update to " + neighbor.getHostAddress() +
+						" not sent: " + e.getMessage());
+			}
+		}
+
+		buf.clear();
+	}
+
+	/* A learned route. */
+	private static final class Route {
+
+		private final int prefix;
+
+		private final int length;
+
+		private InetAddress nextHop;
+
+		private int metric;
+
+		/** When the route was last refreshed, or became unreachable. */
+		private long updated;
+
+		/** True until the change has been sent to the neighbors. */
+		private boolean changed;
+
+		private Route(int prefix, int length, InetAddress nextHop, 
+				int metric, long updated) {
+			this.prefix = prefix;
+			this.length = length;
+			this.nextHop = nextHop;
+			this.metric = metric;
+			this.updated = updated;
+		}
+	}
+}
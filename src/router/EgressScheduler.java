@@ -0,0 +1,562 @@
+package router;
+
+import transport.Transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import router.Log.Level;
+import router.Metrics.Drop;
+
+/********************************************************************
+ * EgressScheduler.java
+ *
+ * Queues in front of the link to each next hop, one per traffic
+ * class, drained by deficit round robin. A packet is sent straight
+ * from the caller's buffer when nothing is queued for its link and
+ * no other thread is sending on it, so an idle link costs no more
+ * than the send. Otherwise a copy waits in the queue of its class,
+ * and the thread sending on the link sends it before letting go.
+ *
+ * Each round every waiting class earns its weight in quanta of
+ * credit, and the most urgent class with credit for its next packet
+ * goes first. A class whose queue was empty starts with a round of
+ * credit, so an interactive packet waits for little more than the
+ * packet being sent, while a backlogged class still gets its share
+ * of the link.
+ *
+ * Classes only come into play under back-pressure, that is while
+ * the link is busy with another send, out of tokens or blocked by a
+ * full socket send buffer. A link which keeps up sends every packet
+ * straight away, in the order it arrives, whatever its class.
+ *
+ * A link may also be given a rate, enforced by a token bucket with a
+ * token per byte. A packet which finds the bucket empty waits in the
+ * queues like one behind a busy link, and a timer sends on when the
+ * tokens for the next packet are due, so a shaped link delays its 
+ * traffic rather than dropping it. A packet the network is too busy
+ * for, such as when the socket send buffer is full, waits the same 
+ * way and the timer tries the link again shortly.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class EgressScheduler {
+
+	/** Default most bytes queued for one link. */
+	public static final int DEFAULT_QUEUE_BYTES = 256 * 1024;
+
+	/** Credit per round for each unit of a class's weight, about one
+	 * Ethernet frame. */
+	private static final int QUANTUM = 1500;
+
+	/** How long a link waits after the network was too busy to take
+	 * a packet. */
+	private static final long BLOCKED_RETRY_NANOS = 100 * 1000;
+
+	private static final TrafficClass[] CLASSES = TrafficClass.values();
+
+	private final Transport transport;
+
+	private final Metrics metrics;
+
+	private final Log log;
+
+	/** Most bytes queued for one link, more are dropped. */
+	private final int queueBytes;
+
+	/** The link to each next hop, added on first use. */
+	private final ConcurrentMap<InetAddress, Link> links =
+			new ConcurrentHashMap<InetAddress, Link>();
+
+	private final LongAdder queued = new LongAdder();
+
+	/** Times a shaped link waited for tokens. */
+	private final LongAdder shaperWaits = new LongAdder();
+
+	/** Times the network was too busy to take a packet. */
+	private final LongAdder sendBlocks = new LongAdder();
+
+	/** The rate of each shaped link, by next hop. */
+	private volatile Map<InetAddress, Rate> rates = 
+			Collections.emptyMap();
+
+	/** Resumes links when their tokens are due or the network may
+	 * have room again. Started on first use. */
+	private ScheduledExecutorService timer;
+
+	/****************************************************************
+	 * Constructor for EgressScheduler.
+	 *
+	 * @param transport the "real" network to send on.
+	 * @param metrics counts the packets sent and dropped.
+	 * @param log the router's log.
+	 * @param queueBytes most bytes queued for one link.
+	 ***************************************************************/
+	public EgressScheduler(Transport transport, Metrics metrics, Log log,
+			int queueBytes) {
+		this.transport = transport;
+		this.metrics = metrics;
+		this.log = log;
+		this.queueBytes = queueBytes;
+	}
+
+	/****************************************************************
+	 * Sets the rates of the shaped links. Every link not given one
+	 * is sent on as fast as the network takes it.
+	 *
+	 * @param rates the rate of each shaped link, by next hop.
+	 ***************************************************************/
+	public void setRates(Map<InetAddress, Rate> rates) {
+		Map<InetAddress, Rate> old = this.rates;
+		this.rates = rates;
+
+		for (Map.Entry<InetAddress, Link> e : links.entrySet()) {
+			InetAddress nextHop = e.getKey();
+			Rate rate = rates.get(nextHop);
+
+			// Links whose rate is unchanged keep their tokens
+			if (rate == null ? old.get(nextHop) == null : 
+					rate.equals(old.get(nextHop))) {
+				continue;
+			}
+
+			Link link = e.getValue();
+
+			synchronized (link) {
+				link.shaper = shaper(nextHop);
+			}
+		}
+	}
+
+	/****************************************************************
+	 * Sends a packet on the link to a next hop, or queues a copy of
+	 * it if the link is busy, out of tokens or the network can't take
+	 * it now. A packet which does not fit the queue is dropped.
+	 *
+	 * @param buf the packet, from the buffer's position to its limit.
+	 * Neither is changed, and the buffer may be reused once this
+	 * returns.
+	 * @param nextHop the "real" address to send to.
+	 * @param trafficClass the class of the packet.
+	 * @return false if the packet was dropped.
+	 * @throws IOException if the packet was sent straight away and
+	 * the send failed.
+	 ***************************************************************/
+	public boolean send(ByteBuffer buf, InetAddress nextHop,
+			TrafficClass trafficClass) throws IOException {
+		Link link = link(nextHop);
+
+		synchronized (link) {
+			if (link.sending || link.bytes > 0) {
+				return enqueue(link, buf, trafficClass, false);
+			}
+
+			long wait = charge(link, trafficClass.ordinal(), 
+					buf.remaining());
+
+			/* The link is left to the timer until the tokens are due */
+			if (wait > 0) {
+				if (!enqueue(link, buf, trafficClass, false)) return false;
+
+				link.sending = true;
+				shaperWaits.increment();
+				resume(link, nextHop, wait);
+				return true;
+			}
+
+			link.sending = true;
+		}
+
+		boolean sent;
+
+		try {
+			sent = transmit(buf, nextHop, trafficClass);
+		} catch (IOException e) {
+			drain(link, nextHop);
+			throw e;
+		}
+
+		if (sent) {
+			drain(link, nextHop);
+			return true;
+		}
+
+		/* The network is busy, so the packet waits at the front of its
+		 * class like one behind a busy link */
+		boolean queued;
+
+		synchronized (link) {
+			queued = enqueue(link, buf, trafficClass, true);
+
+			if (queued) {
+				link.prepaid[trafficClass.ordinal()] = buf.remaining();
+			}
+		}
+
+		blocked(link, nextHop);
+		return queued;
+	}
+
+	/****************************************************************
+	 * @return the number of packets which waited in a queue.
+	 ***************************************************************/
+	public long getQueuedPackets() {
+		return queued.sum();
+	}
+
+	/****************************************************************
+	 * @return the number of times a shaped link waited for tokens.
+	 ***************************************************************/
+	public long getShaperWaits() {
+		return shaperWaits.sum();
+	}
+
+	/****************************************************************
+	 * @return the number of times the network was too busy to take a
+	 * packet.
+	 ***************************************************************/
+	public long getSendBlocks() {
+		return sendBlocks.sum();
+	}
+
+	/****************************************************************
+	 * @return the bytes waiting in every queue.
+	 ***************************************************************/
+	public long getQueueBytes() {
+		long bytes = 0;
+
+		for (Link link : links.values()) {
+			synchronized (link) {
+				bytes += link.bytes;
+			}
+		}
+
+		return bytes;
+	}
+
+	/* Copies a packet into the queue of its class, at the front if
+	 * it was due to go first. Called with the link's lock held. */
+	private boolean enqueue(Link link, ByteBuffer buf,
+			TrafficClass trafficClass, boolean first) {
+		int length = buf.remaining();
+
+		if (link.bytes + length > queueBytes) {
+			metrics.dropped(Drop.EGRESS_FULL);
+			return false;
+		}
+
+		ByteBuffer copy = ByteBuffer.allocate(length);
+		copy.put(buf.duplicate()).flip();
+
+		int index = trafficClass.ordinal();
+		ArrayDeque<ByteBuffer> queue = link.queues[index];
+
+		// A class which was idle starts with a round of credit
+		if (queue.isEmpty()) {
+			link.deficits[index] = QUANTUM * trafficClass.getWeight();
+		}
+
+		if (first) {
+			queue.addFirst(copy);
+		} else {
+			queue.addLast(copy);
+		}
+
+		link.bytes += length;
+		queued.increment();
+
+		return true;
+	}
+
+	/* Sends what is queued for a link until it is empty, then lets go
+	 * of it. A shaped link out of tokens, or one the network is too
+	 * busy for, is handed to the timer. */
+	private void drain(Link link, InetAddress nextHop) {
+		while (true) {
+			ByteBuffer buf;
+			int index;
+
+			synchronized (link) {
+				index = link.next();
+
+				if (index < 0) {
+					link.sending = false;
+					return;
+				}
+
+				// Only the sending thread takes packets, so the head
+				// stays put while it is sent
+				buf = link.queues[index].peek();
+				long wait = charge(link, index, buf.remaining());
+
+				if (wait > 0) {
+					shaperWaits.increment();
+					resume(link, nextHop, wait);
+					return;
+				}
+			}
+
+			boolean sent;
+
+			try {
+				sent = transmit(buf, nextHop, CLASSES[index]);
+			} catch (IOException e) {
+				sent = true;
+				metrics.dropped(Drop.SEND_FAILED);
+
+				if (log.isEnabled(Level.DEBUG)) {
+					log.debug("Queued packet to " +
+							nextHop.getHostAddress() + " not sent: " +
+							e.getMessage());
+				}
+			}
+
+			synchronized (link) {
+				if (!sent) {
+					link.prepaid[index] = buf.remaining();
+				} else {
+					link.take(index);
+				}
+			}
+
+			if (!sent) {
+				blocked(link, nextHop);
+				return;
+			}
+		}
+	}
+
+	/* Takes the tokens for the head packet of a class from a shaped 
+	 * link, less any the class paid for by a send the network was 
+	 * too busy for. Called with the link's lock held.
+	 * @return 0 if the packet may be sent, or else the nanoseconds
+	 * until it may. */
+	private long charge(Link link, int index, int length) {
+		TokenBucket shaper = link.shaper;
+		int due = length - link.prepaid[index];
+
+		if (shaper != null && due > 0 && !shaper.tryAcquire(due)) {
+			return Math.max(1, shaper.waitNanos(due));
+		}
+
+		link.prepaid[index] = 0;
+		return 0;
+	}
+
+	/* Sends a packet if the network can take it now, leaving the
+	 * buffer's position as it was. */
+	private boolean transmit(ByteBuffer buf, InetAddress nextHop,
+			TrafficClass trafficClass) throws IOException {
+		int position = buf.position();
+		int length = buf.remaining();
+		boolean sent;
+
+		try {
+			sent = transport.trySend(buf, nextHop);
+		} finally {
+			buf.position(position);
+		}
+
+		if (sent) {
+			metrics.forwarded(nextHop, length);
+			metrics.sent(trafficClass, length);
+		}
+
+		return sent;
+	}
+
+	/* Tries a link again shortly after the network was too busy for 
+	 * it. */
+	private void blocked(Link link, InetAddress nextHop) {
+		sendBlocks.increment();
+		resume(link, nextHop, BLOCKED_RETRY_NANOS);
+	}
+
+	/* Drains a link again after a wait. */
+	private void resume(final Link link, final InetAddress nextHop,
+			long nanos) {
+		timer().schedule(new Runnable() {
+			@Override
+			public void run() {
+				drain(link, nextHop);
+			}
+		}, nanos, TimeUnit.NANOSECONDS);
+	}
+
+	private synchronized ScheduledExecutorService timer() {
+		if (timer == null) {
+			timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "router-shaper");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+
+		return timer;
+	}
+
+	/* @return a full token bucket at the rate of the link to a next 
+	 * hop, or null if it isn't shaped. */
+	private TokenBucket shaper(InetAddress nextHop) {
+		Rate rate = rates.get(nextHop);
+
+		return rate == null ? null : rate.newBucket();
+	}
+
+	private Link link(InetAddress nextHop) {
+		Link link = links.get(nextHop);
+
+		if (link == null) {
+			Link added = new Link(shaper(nextHop));
+			link = links.putIfAbsent(nextHop, added);
+
+			if (link == null) link = added;
+		}
+
+		return link;
+	}
+
+	/* The queues of one link. Guarded by its own lock. */
+	private static final class Link {
+
+		private final ArrayDeque<ByteBuffer>[] queues = newQueues();
+
+		/** Credit of each class, in bytes. */
+		private final int[] deficits = new int[CLASSES.length];
+
+		/** Bytes in every queue. */
+		private int bytes;
+
+		/** True while a thread is sending on the link, or the timer 
+		 * is to resume it. */
+		private boolean sending;
+
+		/** Limits the rate of the link, or null if it has none. */
+		private TokenBucket shaper;
+
+		/** Tokens already taken for the head packet of each class,
+		 * which the network was too busy for. Kept per class so that 
+		 * another class going first on the retry pays its own way. */
+		private final int[] prepaid = new int[CLASSES.length];
+
+		private Link(TokenBucket shaper) {
+			this.shaper = shaper;
+		}
+
+		/* @return an empty queue for each class. */
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		private static ArrayDeque<ByteBuffer>[] newQueues() {
+			ArrayDeque<ByteBuffer>[] queues = new ArrayDeque[CLASSES.length];
+
+			for (int i = 0; i < queues.length; i++) {
+				queues[i] = new ArrayDeque<ByteBuffer>();
+			}
+
+			return queues;
+		}
+
+		/* @return the class whose head packet goes next, or -1 if 
+		 * every queue is empty. */
+		private int next() {
+			if (bytes == 0) return -1;
+
+			while (true) {
+				for (int i = 0; i < queues.length; i++) {
+					ByteBuffer head = queues[i].peek();
+
+					if (head != null && deficits[i] >= head.remaining()) {
+						return i;
+					}
+				}
+
+				/* No class can send, so a new round starts */
+				for (int i = 0; i < queues.length; i++) {
+					if (!queues[i].isEmpty()) {
+						deficits[i] += QUANTUM * CLASSES[i].getWeight();
+					}
+				}
+			}
+		}
+
+		/* Removes the head packet of a class and charges the class 
+		 * for it. */
+		private ByteBuffer take(int index) {
+			ByteBuffer head = queues[index].poll();
+
+			deficits[index] -= head.remaining();
+			bytes -= head.remaining();
+
+			// Credit isn't saved up while a class is idle
+			if (queues[index].isEmpty()) deficits[index] = 0;
+
+			return head;
+		}
+	}
+
+	/****************************************************************
+	 * The rate of a shaped link.
+	 ***************************************************************/
+	public static final class Rate {
+
+		private final long bytesPerSecond;
+
+		private final int burst;
+
+		/************************************************************
+		 * Constructor for Rate.
+		 *
+		 * @param bytesPerSecond the most bytes sent per second.
+		 * @param burst the most bytes sent back to back after the 
+		 * link was idle.
+		 ***********************************************************/
+		public Rate(long bytesPerSecond, int burst) {
+			this.bytesPerSecond = Math.max(1, bytesPerSecond);
+			this.burst = Math.max(1, burst);
+		}
+
+		public long getBytesPerSecond() {
+			return bytesPerSecond;
+		}
+
+		public int getBurst() {
+			return burst;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Rate)) return false;
+
+			Rate r = (Rate) o;
+
+			return bytesPerSecond == r.bytesPerSecond && burst == r.burst;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(bytesPerSecond) * 31 + burst;
+		}
+
+		@Override
+		public String toString() {
+			return bytesPerSecond + " B/s, burst " + burst;
+		}
+
+		private TokenBucket newBucket() {
+			return new TokenBucket(bytesPerSecond, burst);
+		}
+	}
+}
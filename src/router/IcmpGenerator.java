@@ -0,0 +1,239 @@
+package router;
+
+import headers.Checksum;
+import headers.ICMP_Header;
+import headers.IP_Header;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+/********************************************************************
+ * IcmpGenerator.java
+ *
+ * Builds the ICMP error messages sent by a router. Each message type
+ * has a prebuilt template holding every field which is the same for
+ * all messages from the router, along with the partial checksums of
+ * those fields. A message is made by copying the template and filling
+ * in the destination, ID and quoted headers, so neither checksum is
+ * summed over the whole message.
+ *
+ * Errors are also limited as RFC 1812 section 4.3.2.8 asks, with a
+ * token bucket for the router as a whole and one per source. Per
+ * source buckets are a fixed table indexed by address, so a flood
+ * from many spoofed sources uses no more memory.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class IcmpGenerator {
+
+	/** Length of every message: IPv4 and ICMP headers and quote. */
+	public static final int LENGTH = IP_Header.LENGTH + ICMP_Header.LENGTH +
+			ICMP_Header.QUOTE_LENGTH;
+
+	/** Number of per source token buckets. A power of two. */
+	private static final int SOURCE_BUCKETS = 256;
+
+	private final IP_Header IP = new IP_Header();
+	private final ICMP_Header ICMP = new ICMP_Header();
+
+	/** Templates for the current router address. */
+	private volatile Templates templates;
+
+	/** Limit on all errors, or null for none. */
+	private final TokenBucket global;
+
+	/** Limits on errors to each source, or null for none. */
+	private final TokenBucket[] sources;
+
+	/****************************************************************
+	 * Constructor for IcmpGenerator.
+	 *
+	 * @param globalRate most errors per second in total, 0 for no 
+	 * limit.
+	 * @param sourceRate most errors per second to one source, 0 for
+	 * no limit.
+	 ***************************************************************/
+	public IcmpGenerator(int globalRate, int sourceRate) {
+		global = globalRate > 0 ? new TokenBucket(globalRate, globalRate) : null;
+
+		if (sourceRate > 0) {
+			sources = new TokenBucket[SOURCE_BUCKETS];
+
+			for (int i = 0; i < SOURCE_BUCKETS; i++) {
+				sources[i] = new TokenBucket(sourceRate, sourceRate);
+			}
+		} else {
+			sources = null;
+		}
+	}
+
+	/****************************************************************
+	 * Checks the rules of RFC 1812 section 4.3.2.7 for when an error
+	 * must not be sent: about another ICMP error, about a fragment 
+	 * other than the first, or to a source which is not a unicast 
+	 * host address.
+	 *
+	 * @param data the packet which caused the error.
+	 * @return true if an error may be sent about the packet.
+	 ***************************************************************/
+	public boolean isAllowed(ByteBuffer data) {
+		if (IP.fragmentOffset(data) != 0) return false;
+
+		if (IP.protocol(data) == IP_Header.ICMP) {
+			int icmpStart = IP.headerLength(data);
+
+			if (data.limit() <= icmpStart) return false;
+
+			int type = data.get(icmpStart) & 0xFF;
+
+			// Only queries (echo, timestamp, ...) may be answered
+			if (isError(type)) return false;
+		}
+
+		int source = IP.source(data);
+		int first = source >>> 24;
+
+		// 0/8, loopback, multicast and reserved
+		return first != 0 && first != 127 && first < 224;
+	}
+
+	/****************************************************************
+	 * Takes a token for an error to the given source.
+	 *
+	 * @param source the virtual address the error will be sent to.
+	 * @return false if the error should be dropped for the rate 
+	 * limit.
+	 ***************************************************************/
+	public boolean tryAcquire(int source) {
+		if (sources != null) {
+			int h = source * 0x9E3779B9;
+			TokenBucket bucket = sources[(h ^ (h >>> 16)) & (SOURCE_BUCKETS - 1)];
+
+			if (!bucket.tryAcquire()) return false;
+		}
+
+		return global == null || global.tryAcquire();
+	}
+
+	/****************************************************************
+	 * Writes an error message about a packet, addressed back to its
+	 * source. The packet's first 28 bytes are quoted, or as many as
+	 * it has. The buffer's position is 0 and its limit is LENGTH
+	 * afterwards.
+	 *
+	 * @param packet the buffer to write the message into.
+	 * @param type ICMP_Header.UNREACHABLE or TIME_EXCEEDED.
+	 * @param data the packet which caused the error.
+	 * @param localAddress the virtual address of the router.
+	 ***************************************************************/
+	public void build(ByteBuffer packet, int type, ByteBuffer data, 
+			int localAddress) {
+		build(packet, type == ICMP_Header.UNREACHABLE ? 0 : 1, data, 
+				localAddress, 0);
+	}
+
+	/****************************************************************
+	 * Writes a Fragmentation Needed message about a packet too big 
+	 * for the next link with Don't Fragment set, as build() does.
+	 *
+	 * @param packet the buffer to write the message into.
+	 * @param data the packet which caused the error.
+	 * @param localAddress the virtual address of the router.
+	 * @param mtu the MTU of the next link.
+	 ***************************************************************/
+	public void buildFragmentationNeeded(ByteBuffer packet, 
+			ByteBuffer data, int localAddress, int mtu) {
+		build(packet, 2, data, localAddress, mtu);
+	}
+
+	/* Fills in a copy of the template at the given index. */
+	private void build(ByteBuffer packet, int index, ByteBuffer data, 
+			int localAddress, int mtu) {
+		Templates t = templates;
+
+		if (t == null || t.source != localAddress) {
+			t = new Templates(localAddress);
+			templates = t;
+		}
+
+		int dest = IP.source(data);
+		int id = ThreadLocalRandom.current().nextInt(65536);
+
+		packet.clear();
+		packet.put(t.messages[index]);
+		packet.flip();
+
+		IP.setDestination(packet, dest);
+		IP.setId(packet, id);
+
+		long ipSum = t.ipSums[index] + id + (dest >>> 16) + (dest & 0xFFFF);
+		IP.setChecksum(packet, Checksum.finish(ipSum));
+
+		// Quotes the original headers, the template is zero padded
+		int quoteStart = ICMP.offset() + ICMP_Header.LENGTH;
+		int quoteLength = Math.min(ICMP_Header.QUOTE_LENGTH, data.limit());
+
+		for (int i = 0; i < quoteLength; i++) {
+			packet.put(quoteStart + i, data.get(i));
+		}
+
+		// Zero in the other templates, so it is always added
+		ICMP.setNextHopMtu(packet, mtu);
+
+		long icmpSum = Checksum.add(t.icmpSums[index] + mtu, packet, 
+				quoteStart, quoteStart + quoteLength);
+		ICMP.setChecksum(packet, Checksum.finish(icmpSum));
+	}
+
+	/* @return true for the ICMP types which report errors. */
+	private static boolean isError(int type) {
+		switch (type) {
+		case ICMP_Header.UNREACHABLE:
+		case ICMP_Header.TIME_EXCEEDED:
+		case 4:  // Source quench
+		case 5:  // Redirect
+		case 12: // Parameter problem
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/* Messages of each type from one router address, with the sums of
+	 * every field but the destination, ID, MTU and quote. The last is
+	 * Fragmentation Needed. */
+	private final class Templates {
+
+		private final int source;
+
+		private final byte[][] messages = new byte[3][];
+
+		private final long[] ipSums = new long[3];
+
+		private final long[] icmpSums = new long[3];
+
+		private Templates(int source) {
+			this.source = source;
+
+			int[] types = {ICMP_Header.UNREACHABLE, ICMP_Header.TIME_EXCEEDED,
+					ICMP_Header.UNREACHABLE};
+
+			for (int i = 0; i < types.length; i++) {
+				ByteBuffer buf = ByteBuffer.allocate(LENGTH);
+
+				IP.setup(buf, IP_Header.ICMP);
+				IP.setId(buf, 0);
+				IP.setSource(buf, source);
+				IP.setTotalLength(buf, LENGTH);
+				ICMP.setup(buf, types[i]);
+
+				if (i == 2) ICMP.setCode(buf, ICMP_Header.FRAGMENTATION_NEEDED);
+
+				messages[i] = buf.array();
+				ipSums[i] = Checksum.add(0, messages[i], 0, IP_Header.LENGTH);
+				icmpSums[i] = Checksum.add(0, messages[i], ICMP.offset(), 
+						LENGTH);
+			}
+		}
+	}
+}
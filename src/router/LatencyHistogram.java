@@ -0,0 +1,94 @@
+package router;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/********************************************************************
+ * LatencyHistogram.java
+ *
+ * Histogram of durations in nanoseconds with one bucket per power of
+ * two. Bucket i counts durations from 2^(i-1) up to 2^i - 1, so the
+ * error of any reported percentile is under a factor of two. Recording
+ * is a single LongAdder increment and never allocates.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class LatencyHistogram {
+
+	/** One bucket for zero, then one for each bit of a long. */
+	private static final int BUCKETS = 64;
+
+	private final LongAdder[] counts;
+
+	/****************************************************************
+	 * Constructor for an empty LatencyHistogram.
+	 ***************************************************************/
+	public LatencyHistogram() {
+		counts = new LongAdder[BUCKETS];
+
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+
+	/****************************************************************
+	 * Records one duration. Negative durations count as zero.
+	 *
+	 * @param nanos the duration in nanoseconds.
+	 ***************************************************************/
+	public void record(long nanos) {
+		int bucket = 64 - Long.numberOfLeadingZeros(Math.max(0, nanos));
+
+		counts[Math.min(bucket, BUCKETS - 1)].increment();
+	}
+
+	/****************************************************************
+	 * @return the count of every bucket, smallest first.
+	 ***************************************************************/
+	public long[] getCounts() {
+		long[] snapshot = new long[BUCKETS];
+
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts[i].sum();
+		}
+
+		return snapshot;
+	}
+
+	/****************************************************************
+	 * @param bucket index of a bucket.
+	 * @return the largest duration counted by the bucket.
+	 ***************************************************************/
+	public static long upperBound(int bucket) {
+		return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+	}
+
+	/****************************************************************
+	 * Estimates a percentile as the upper bound of the bucket it
+	 * falls in.
+	 *
+	 * @param counts bucket counts from getCounts().
+	 * @param percentile between 0 and 100.
+	 * @return the estimate in nanoseconds, or 0 if nothing was
+	 * recorded.
+	 ***************************************************************/
+	public static long percentile(long[] counts, double percentile) {
+		long total = 0;
+
+		for (long count : counts) {
+			total += count;
+		}
+
+		if (total == 0) return 0;
+
+		long rank = (long) Math.ceil(total * percentile / 100.0);
+		long seen = 0;
+
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+
+			if (seen >= rank && counts[i] > 0) return upperBound(i);
+		}
+
+		return upperBound(counts.length - 1);
+	}
+}
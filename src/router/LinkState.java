@@ -0,0 +1,918 @@
+package router;
+
+import headers.IP_Header;
+import headers.LS_Header;
+import transport.Transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import router.Log.Level;
+import router.RoutingTable.Entry;
+
+/********************************************************************
+ * LinkState.java
+ *
+ * OSPF-style link state routing between a router and the neighbors
+ * in its configuration file. Messages are IPv4 packets with the
+ * LINK_STATE protocol number, sent straight to each neighbor's "real"
+ * address. A router is known by its router ID, the first of its
+ * addresses.
+ *
+ * Routers send each neighbor a HELLO every third of an interval, and
+ * a neighbor not heard from for four of them is down. Each router
+ * floods an advertisement of its links to the neighbors which are up
+ * and of its static prefixes and addresses, when they change and
+ * every interval. A neighbor which comes up is sent every stored
+ * advertisement, and one not refreshed for three intervals is
+ * forgotten. A link is only used if both ends advertise it.
+ *
+ * Routes come from a shortest path tree rooted at the router, built
+ * with Dijkstra's algorithm. When advertisements change only the
+ * links, not the routers, the tree is updated incrementally: the
+ * subtrees under tree links which got worse are cut off and rejoined
+ * from the rest of the tree, and routers beyond links which got
+ * better are relaxed from them. Nothing else is visited. Static
+ * prefixes always win over learned ones.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class LinkState extends RoutingProtocol {
+
+	/** Distance to a router with no path to it. */
+	private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	/** Most links and prefixes in one advertisement, which keeps it
+	 * in one packet. */
+	private static final int MAX_ENTRIES = (IP_Header.MAX_LENGTH -
+			IP_Header.LENGTH - LS_Header.LENGTH) / LS_Header.ENTRY_LENGTH;
+
+	/** Least time between advertisements of the router's own links. */
+	private static final long ORIGINATE_HOLD_MILLIS = 1000;
+
+	/** Longest the routing thread sleeps, so neighbors time out on
+	 * time. */
+	private static final long TICK_MILLIS = 1000;
+
+	/** Virtual destination of every message, OSPF's group address. */
+	private static final int ALL_ROUTERS = 0xE0000005;
+
+	private static final int[] NONE = new int[0];
+
+	private final IP_Header IP = new IP_Header();
+	private final LS_Header LS = new LS_Header();
+
+	/** Cost of the link to each neighbor, by "real" address. */
+	private Map<InetAddress, Integer> neighbors;
+
+	/** Routes and addresses from the configuration file. */
+	private RoutingTable statics;
+
+	/** Keys of the static prefixes and the router's addresses, which
+	 * are never learned. */
+	private Set<Long> staticKeys;
+
+	private long intervalNanos;
+
+	/** The router's own ID, or 0 if it has no address. */
+	private int routerId;
+
+	/** Neighbors which have sent a HELLO, by "real" address. */
+	private final Map<InetAddress, Adjacency> adjacencies =
+			new HashMap<InetAddress, Adjacency>();
+
+	/** Every router known, including those whose advertisement is
+	 * gone, so links to them stay valid. */
+	private final Map<Integer, Node> nodes = new HashMap<Integer, Node>();
+
+	/** Old cost of each link changed since the tree was last updated,
+	 * by from and to router IDs. */
+	private final Map<Long, LinkChange> changes =
+			new LinkedHashMap<Long, LinkChange>();
+
+	/** Learned routes, all reachable. */
+	private Map<Long, Route> routes = new HashMap<Long, Route>();
+
+	/** Sequence number of the router's latest advertisement. */
+	private int sequence;
+
+	/** Work for the routing thread. */
+	private boolean originatePending;
+	private boolean fullPending;
+	private boolean routesPending;
+	private boolean tableChanged;
+
+	/** When the next HELLO, advertisement and refresh may be sent. */
+	private long nextHello;
+	private long nextOriginate;
+	private long nextRefresh;
+
+	private final LongAdder fullRuns = new LongAdder();
+	private final LongAdder incrementalRuns = new LongAdder();
+	private final LongAdder nodesVisited = new LongAdder();
+
+	/****************************************************************
+	 * Constructor for LinkState. Nothing is sent until start().
+	 *
+	 * @param transport the "real" network to send messages on.
+	 * @param log the router's log.
+	 * @param onChange called on the routing thread whenever the
+	 * learned routes change.
+	 ***************************************************************/
+	public LinkState(Transport transport, Log log, Runnable onChange) {
+		super(transport, log, onChange);
+
+		neighbors = Collections.emptyMap();
+		statics = new RoutingTable();
+		staticKeys = Collections.emptySet();
+		intervalNanos = TimeUnit.SECONDS.toNanos(DEFAULT_INTERVAL);
+	}
+
+	/****************************************************************
+	 * Sets the neighbors and static routes, and advertises them.
+	 * Neighbors which are gone are down straight away. If the first
+	 * address changed the router starts over with its new ID.
+	 *
+	 * @param neighbors the cost of the link to each neighbor, by its
+	 * "real" address.
+	 * @param statics the routes and addresses from the configuration
+	 * file.
+	 * @param interval seconds between advertisements.
+	 ***************************************************************/
+	@Override
+	public synchronized void configure(Map<InetAddress, Integer> neighbors,
+			RoutingTable statics, int interval) {
+		this.neighbors = neighbors;
+		this.statics = statics;
+		intervalNanos = TimeUnit.SECONDS.toNanos(Math.max(1, interval));
+
+		staticKeys = new HashSet<Long>();
+
+		for (Entry e : statics.entries()) {
+			staticKeys.add(key(e.getPrefix(), e.getLength()));
+		}
+
+		for (int local : statics.getLocalAddresses()) {
+			staticKeys.add(key(local, 32));
+		}
+
+		adjacencies.keySet().retainAll(neighbors.keySet());
+
+		if (statics.getLocalAddress() != routerId) {
+			routerId = statics.getLocalAddress();
+			nodes.clear();
+			changes.clear();
+			fullPending = true;
+
+			if (routerId == 0) {
+				log.warn("Link state routing needs an address line");
+			}
+		}
+
+		originatePending = true;
+		routesPending = true;
+		wake();
+	}
+
+	/****************************************************************
+	 * Adds every learned route to the table.
+	 *
+	 * @param table a table which has not been published yet.
+	 ***************************************************************/
+	@Override
+	public synchronized void addRoutes(RoutingTable table) {
+		for (Route r : routes.values()) {
+			table.add(r.prefix, r.length, r.nextHop);
+		}
+	}
+
+	/****************************************************************
+	 * @return the number of learned routes.
+	 ***************************************************************/
+	@Override
+	public synchronized int getRouteCount() {
+		return routes.size();
+	}
+
+	/****************************************************************
+	 * @return the number of times the shortest path tree was built
+	 * from scratch.
+	 ***************************************************************/
+	public long getFullRuns() {
+		return fullRuns.sum();
+	}
+
+	/****************************************************************
+	 * @return the number of times the shortest path tree was updated
+	 * for changed links.
+	 ***************************************************************/
+	public long getIncrementalRuns() {
+		return incrementalRuns.sum();
+	}
+
+	/****************************************************************
+	 * @return the number of routers settled by every run, full or
+	 * incremental.
+	 ***************************************************************/
+	public long getNodesVisited() {
+		return nodesVisited.sum();
+	}
+
+	@Override
+	protected void begin(long now) {
+		// Seconds since the epoch, so a restarted router's
+		// advertisements are newer than those it sent before
+		sequence = (int) (System.currentTimeMillis() / 1000);
+
+		nextHello = now;
+		nextOriginate = now;
+		nextRefresh = now;
+	}
+
+	@Override
+	protected boolean tick(long now) {
+		if (routerId == 0) return false;
+
+		if (now - nextHello >= 0) {
+			for (InetAddress neighbor : neighbors.keySet()) {
+				sendHello(neighbor);
+			}
+
+			nextHello = now + helloNanos();
+		}
+
+		expire(now);
+
+		if (now - nextRefresh >= 0) originatePending = true;
+
+		if (originatePending && now - nextOriginate >= 0) originate(now);
+
+		if (fullPending) {
+			fullSpf();
+		} else if (!changes.isEmpty()) {
+			incrementalSpf();
+		}
+
+		if (routesPending) updateRoutes();
+
+		boolean changed = tableChanged;
+		tableChanged = false;
+
+		return changed;
+	}
+
+	@Override
+	protected long waitMillis(long now) {
+		long until = nextHello - now;
+
+		if (originatePending) until = Math.min(until, nextOriginate - now);
+
+		until = Math.min(until, nextRefresh - now);
+
+		return Math.max(0, Math.min(TICK_MILLIS,
+				TimeUnit.NANOSECONDS.toMillis(until)));
+	}
+
+	/* Validates a message from a neighbor and acts on it. */
+	@Override
+	protected void handle(InetAddress sender, ByteBuffer buf, long now) {
+		if (!neighbors.containsKey(sender)) {
+			if (log.isEnabled(Level.DEBUG)) {
+				log.debug("Link state message from " +
+						sender.getHostAddress() + ", not a neighbor");
+			}
+
+			return;
+		}
+
+		if (!isValid(buf)) {
+			log.debug("Invalid link state message from " +
+					sender.getHostAddress());
+			return;
+		}
+
+		if (routerId == 0) return;
+
+		accepted();
+
+		if (LS.type(buf) == LS_Header.HELLO) {
+			hello(sender, LS.origin(buf), now);
+		} else if (LS.type(buf) == LS_Header.ADVERTISEMENT) {
+			advertisement(sender, buf, now);
+		}
+	}
+
+	/* @return true if the lengths and checksums of a message check
+	 * out. */
+	private boolean isValid(ByteBuffer buf) {
+		int length = buf.limit();
+
+		if (length < IP_Header.LENGTH + LS_Header.LENGTH) return false;
+
+		if (IP.headerLength(buf) != IP_Header.LENGTH ||
+				IP.protocol(buf) != IP_Header.LINK_STATE ||
+				IP.totalLength(buf) > length ||
+				IP.checksum(buf) != IP.calculateChecksum(buf)) {
+			return false;
+		}
+
+		return LS.version(buf) == LS_Header.VERSION &&
+				LS.end(buf) <= IP.totalLength(buf) &&
+				LS.checksum(buf) == LS.calculateChecksum(buf) &&
+				LS.origin(buf) != 0;
+	}
+
+	/* Brings up the adjacency to a neighbor, and sends it every
+	 * advertisement if it was down. */
+	private void hello(InetAddress sender, int id, long now) {
+		Adjacency adj = adjacencies.get(sender);
+
+		if (adj != null && adj.routerId == id) {
+			adj.heard = now;
+			return;
+		}
+
+		adjacencies.put(sender, new Adjacency(id, now));
+		originatePending = true;
+
+		if (log.isEnabled(Level.DEBUG)) {
+			log.debug("Link state neighbor " + sender.getHostAddress() +
+					" up");
+		}
+
+		for (Node n : nodes.values()) {
+			if (n.packet != null) send(n.packet, sender);
+		}
+	}
+
+	/* Stores an advertisement if it is newer than the one held, and
+	 * floods it on to the other neighbors. */
+	private void advertisement(InetAddress sender, ByteBuffer buf,
+			long now) {
+		int origin = LS.origin(buf);
+		int seq = LS.sequence(buf);
+
+		if (origin == routerId) {
+
+			/* An advertisement from before a restart, outdone by a
+			 * fresh one */
+			if (seq - sequence >= 0) {
+				sequence = seq;
+				originatePending = true;
+				nextOriginate = now;
+			}
+
+			return;
+		}
+
+		Node n = nodes.get(origin);
+
+		if (n != null && n.packet != null) {
+			if (seq == n.sequence) return;
+
+			// Sends the sender the newer one it is missing
+			if (seq - n.sequence < 0) {
+				send(n.packet, sender);
+				return;
+			}
+		}
+
+		byte[] packet = new byte[IP.totalLength(buf)];
+		ByteBuffer src = buf.duplicate();
+		src.limit(packet.length).position(0);
+		src.get(packet);
+
+		n = install(origin, seq, ByteBuffer.wrap(packet), now);
+		n.packet = packet;
+
+		for (Map.Entry<InetAddress, Adjacency> e : adjacencies.entrySet()) {
+			if (!e.getKey().equals(sender)) send(packet, e.getKey());
+		}
+	}
+
+	/* Sends a new advertisement of the router's links and prefixes,
+	 * and stores it. */
+	private void originate(long now) {
+		Map<Integer, Integer> links = new LinkedHashMap<Integer, Integer>();
+
+		for (Map.Entry<InetAddress, Adjacency> e : adjacencies.entrySet()) {
+			Integer cost = neighbors.get(e.getKey());
+			Integer old = links.get(e.getValue().routerId);
+
+			if (old == null || cost < old) {
+				links.put(e.getValue().routerId, cost);
+			}
+		}
+
+		List<Entry> entries = statics.entries();
+		int[] locals = statics.getLocalAddresses();
+		int count = Math.min(MAX_ENTRIES - links.size(),
+				entries.size() + locals.length);
+
+		if (count < entries.size() + locals.length) {
+			log.warn("Too many prefixes to advertise, only " + count +
+					" sent");
+		}
+
+		int length = IP_Header.LENGTH + LS_Header.LENGTH +
+				(links.size() + count) * LS_Header.ENTRY_LENGTH;
+		ByteBuffer buf = ByteBuffer.allocate(length);
+
+		setup(buf, LS_Header.ADVERTISEMENT, ++sequence);
+
+		int index = 0;
+
+		for (Map.Entry<Integer, Integer> e : links.entrySet()) {
+			LS.setLink(buf, index++, e.getKey(), e.getValue());
+		}
+
+		for (int i = 0; i < count; i++) {
+			if (i < entries.size()) {
+				Entry e = entries.get(i);
+				LS.setPrefix(buf, index, i, e.getPrefix(), e.getLength());
+			} else {
+				LS.setPrefix(buf, index, i, locals[i - entries.size()], 32);
+			}
+		}
+
+		LS.setCounts(buf, index, count);
+		finish(buf, length);
+
+		Node self = install(routerId, sequence, buf, now);
+		self.packet = buf.array();
+
+		for (InetAddress neighbor : adjacencies.keySet()) {
+			send(self.packet, neighbor);
+		}
+
+		originatePending = false;
+		nextOriginate = now +
+				TimeUnit.MILLISECONDS.toNanos(ORIGINATE_HOLD_MILLIS);
+
+		// Spread by up to a sixth either way, so routers which start
+		// together don't stay in step
+		long jitter = intervalNanos / 6;
+		nextRefresh = now + intervalNanos - jitter +
+				ThreadLocalRandom.current().nextLong(2 * jitter + 1);
+	}
+
+	/* Replaces a router's links and prefixes with those of an
+	 * advertisement, noting the links which changed. */
+	private Node install(int origin, int seq, ByteBuffer buf, long now) {
+		Node n = node(origin);
+		Map<Node, Integer> links = new LinkedHashMap<Node, Integer>();
+
+		for (int i = 0; i < LS.linkCount(buf); i++) {
+			int id = LS.neighbor(buf, i);
+
+			if (id == origin || id == 0) continue;
+
+			int cost = Math.max(1, LS.cost(buf, i));
+			Node other = node(id);
+			Integer old = links.get(other);
+
+			if (old == null || cost < old) links.put(other, cost);
+		}
+
+		int count = LS.prefixCount(buf);
+		int[] prefixes = new int[count];
+		int[] lengths = new int[count];
+
+		for (int i = 0; i < count; i++) {
+			lengths[i] = Math.min(32, LS.prefixLength(buf, i));
+			prefixes[i] = LS.prefix(buf, i) & RoutingTable.mask(lengths[i]);
+		}
+
+		setLinks(n, links);
+
+		n.sequence = seq;
+		n.received = now;
+		n.prefixes = prefixes;
+		n.lengths = lengths;
+		routesPending = true;
+
+		return n;
+	}
+
+	/* Forgets advertisements not refreshed for three intervals, and
+	 * takes down neighbors not heard from for four HELLOs. */
+	private void expire(long now) {
+		long dead = 4 * helloNanos();
+
+		Iterator<Adjacency> it = adjacencies.values().iterator();
+
+		while (it.hasNext()) {
+			if (now - it.next().heard > dead) {
+				it.remove();
+				originatePending = true;
+				routesPending = true;
+			}
+		}
+
+		for (Node n : nodes.values()) {
+			if (n.packet == null || n.id == routerId ||
+					now - n.received <= 3 * intervalNanos) {
+				continue;
+			}
+
+			setLinks(n, Collections.<Node, Integer>emptyMap());
+
+			n.packet = null;
+			n.prefixes = NONE;
+			n.lengths = NONE;
+			routesPending = true;
+		}
+	}
+
+	/* Sets the links of a router, noting the old cost of each usable
+	 * link which changes in either direction. */
+	private void setLinks(Node n, Map<Node, Integer> links) {
+		Set<Node> others = new LinkedHashSet<Node>(n.links.keySet());
+		others.addAll(links.keySet());
+
+		for (Node other : others) {
+			noteChange(n, other);
+			noteChange(other, n);
+		}
+
+		n.links = links;
+	}
+
+	/* Keeps the cost of a link before its first change. */
+	private void noteChange(Node from, Node to) {
+		long k = ((long) from.id << 32) | (to.id & 0xFFFFFFFFL);
+
+		if (!changes.containsKey(k)) {
+			changes.put(k, new LinkChange(from, to, cost(from, to)));
+		}
+	}
+
+	/* @return the cost of a link both ends advertise, or UNREACHABLE. */
+	private static int cost(Node from, Node to) {
+		Integer cost = from.links.get(to);
+
+		if (cost == null || !to.links.containsKey(from)) return UNREACHABLE;
+
+		return cost;
+	}
+
+	/* Builds the shortest path tree from scratch. */
+	private void fullSpf() {
+		for (Node n : nodes.values()) {
+			detach(n);
+		}
+
+		PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+		Node root = node(routerId);
+
+		root.distance = 0;
+		queue.add(new Candidate(root, 0));
+
+		dijkstra(queue);
+
+		changes.clear();
+		fullPending = false;
+		routesPending = true;
+		fullRuns.increment();
+	}
+
+	/* Updates the shortest path tree for the changed links. */
+	private void incrementalSpf() {
+		Set<Node> cut = new HashSet<Node>();
+		List<LinkChange> better = new ArrayList<LinkChange>();
+
+		/* Finds the subtrees under tree links which got worse */
+		for (LinkChange c : changes.values()) {
+			int now = cost(c.from, c.to);
+
+			if (now > c.cost && c.to.parent == c.from) {
+				subtree(c.to, cut);
+			} else if (now < c.cost) {
+				better.add(c);
+			}
+		}
+
+		changes.clear();
+
+		if (cut.isEmpty() && better.isEmpty()) return;
+
+		PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+
+		for (Node n : cut) {
+			detach(n);
+		}
+
+		/* Rejoins each cut router by its best link from the rest */
+		for (Node n : cut) {
+			for (Node from : n.links.keySet()) {
+				int cost = cost(from, n);
+
+				if (cut.contains(from) || cost == UNREACHABLE ||
+						from.distance == UNREACHABLE) {
+					continue;
+				}
+
+				relax(from, n, cost, queue);
+			}
+		}
+
+		for (LinkChange c : better) {
+			if (c.from.distance != UNREACHABLE) {
+				relax(c.from, c.to, cost(c.from, c.to), queue);
+			}
+		}
+
+		if (queue.isEmpty() && cut.isEmpty()) return;
+
+		dijkstra(queue);
+
+		routesPending = true;
+		incrementalRuns.increment();
+	}
+
+	/* Settles the routers in the queue and any whose path through
+	 * them is shorter. */
+	private void dijkstra(PriorityQueue<Candidate> queue) {
+		Candidate c;
+
+		while ((c = queue.poll()) != null) {
+			Node n = c.node;
+
+			if (c.distance != n.distance) continue;
+
+			nodesVisited.increment();
+
+			for (Map.Entry<Node, Integer> e : n.links.entrySet()) {
+				if (e.getKey().links.containsKey(n)) {
+					relax(n, e.getKey(), e.getValue(), queue);
+				}
+			}
+		}
+	}
+
+	/* Makes a router a child of another if the path through it is
+	 * shorter. */
+	private void relax(Node from, Node to, int cost,
+			PriorityQueue<Candidate> queue) {
+		long distance = (long) from.distance + cost;
+
+		if (distance >= to.distance) return;
+
+		if (to.parent != null) to.parent.children.remove(to);
+
+		to.parent = from;
+		to.distance = (int) distance;
+		to.firstHop = from.id == routerId ? to : from.firstHop;
+		from.children.add(to);
+
+		queue.add(new Candidate(to, to.distance));
+	}
+
+	/* Takes a router out of the tree. */
+	private static void detach(Node n) {
+		if (n.parent != null) n.parent.children.remove(n);
+
+		n.parent = null;
+		n.firstHop = null;
+		n.distance = UNREACHABLE;
+	}
+
+	/* Adds a router and everything below it in the tree to the set. */
+	private static void subtree(Node n, Set<Node> set) {
+		if (!set.add(n)) return;
+
+		for (Node child : n.children) {
+			subtree(child, set);
+		}
+	}
+
+	/* Rebuilds the learned routes from the tree, counting those which
+	 * were added, changed or lost. */
+	private void updateRoutes() {
+		routesPending = false;
+
+		Map<Integer, InetAddress> hops = new HashMap<Integer, InetAddress>();
+
+		for (Map.Entry<InetAddress, Adjacency> e : adjacencies.entrySet()) {
+			hops.put(e.getValue().routerId, e.getKey());
+		}
+
+		Map<Long, Route> next = new HashMap<Long, Route>();
+
+		for (Node n : nodes.values()) {
+			if (n.distance == UNREACHABLE || n.firstHop == null) continue;
+
+			InetAddress hop = hops.get(n.firstHop.id);
+
+			if (hop == null) continue;
+
+			for (int i = 0; i < n.prefixes.length; i++) {
+				long k = key(n.prefixes[i], n.lengths[i]);
+
+				if (staticKeys.contains(k)) continue;
+
+				Route r = next.get(k);
+
+				if (r == null || n.distance < r.metric) {
+					next.put(k, new Route(n.prefixes[i], n.lengths[i],
+							hop, n.distance));
+				}
+			}
+		}
+
+		for (Map.Entry<Long, Route> e : next.entrySet()) {
+			Route old = routes.get(e.getKey());
+
+			if (old == null || !old.nextHop.equals(e.getValue().nextHop)) {
+				changed();
+			}
+		}
+
+		for (Long k : routes.keySet()) {
+			if (!next.containsKey(k)) changed();
+		}
+
+		routes = next;
+	}
+
+	private void changed() {
+		tableChanged = true;
+		routeChanged();
+	}
+
+	private void sendHello(InetAddress neighbor) {
+		int length = IP_Header.LENGTH + LS_Header.LENGTH;
+		ByteBuffer buf = ByteBuffer.allocate(length);
+
+		setup(buf, LS_Header.HELLO, 0);
+		LS.setCounts(buf, 0, 0);
+		finish(buf, length);
+
+		send(buf.array(), neighbor);
+	}
+
+	/* Writes the headers of a message from this router. */
+	private void setup(ByteBuffer buf, int type, int seq) {
+		IP.setup(buf, IP_Header.LINK_STATE);
+		IP.setTtl(buf, 1);
+		IP.setSource(buf, routerId);
+		IP.setDestination(buf, ALL_ROUTERS);
+
+		LS.setup(buf, type, routerId, seq);
+	}
+
+	/* Fills in the lengths and checksums once the entries are
+	 * written. */
+	private void finish(ByteBuffer buf, int length) {
+		IP.setTotalLength(buf, length);
+		LS.updateChecksum(buf);
+		IP.updateChecksum(buf);
+	}
+
+	private void send(byte[] packet, InetAddress neighbor) {
+		try {
+			transport.send(ByteBuffer.wrap(packet), neighbor);
+			sent();
+		} catch (IOException e) {
+			if (log.isEnabled(Level.DEBUG)) {
+				log.debug("Link state message to " +
+						neighbor.getHostAddress() + " not sent: " +
+						e.getMessage());
+			}
+		}
+	}
+
+	private long helloNanos() {
+		return intervalNanos / 3;
+	}
+
+	private Node node(int id) {
+		Node n = nodes.get(id);
+
+		if (n == null) {
+			n = new Node(id);
+			nodes.put(id, n);
+		}
+
+		return n;
+	}
+
+	/* A router, its latest advertisement and its place in the shortest
+	 * path tree. */
+	private static final class Node {
+
+		private final int id;
+
+		/** The advertisement as sent, or null if there is none. */
+		private byte[] packet;
+
+		private int sequence;
+
+		/** When the advertisement was stored. */
+		private long received;
+
+		/** Cost of each link the router advertises. */
+		private Map<Node, Integer> links = Collections.emptyMap();
+
+		private int[] prefixes = NONE;
+
+		private int[] lengths = NONE;
+
+		private int distance = UNREACHABLE;
+
+		private Node parent;
+
+		/** The neighbor of the root the path starts through. */
+		private Node firstHop;
+
+		private final Set<Node> children = new HashSet<Node>();
+
+		private Node(int id) {
+			this.id = id;
+		}
+	}
+
+	/* A neighbor which is up. */
+	private static final class Adjacency {
+
+		private final int routerId;
+
+		/** When the last HELLO was received. */
+		private long heard;
+
+		private Adjacency(int routerId, long heard) {
+			this.routerId = routerId;
+			this.heard = heard;
+		}
+	}
+
+	/* A link whose cost changed, with the cost the tree was built
+	 * with. */
+	private static final class LinkChange {
+
+		private final Node from;
+
+		private final Node to;
+
+		private final int cost;
+
+		private LinkChange(Node from, Node to, int cost) {
+			this.from = from;
+			this.to = to;
+			this.cost = cost;
+		}
+	}
+
+	/* A router waiting to be settled at a distance. */
+	private static final class Candidate implements Comparable<Candidate> {
+
+		private final Node node;
+
+		private final int distance;
+
+		private Candidate(Node node, int distance) {
+			this.node = node;
+			this.distance = distance;
+		}
+
+		@Override
+		public int compareTo(Candidate other) {
+			return Integer.compare(distance, other.distance);
+		}
+	}
+
+	/* A learned route. */
+	private static final class Route {
+
+		private final int prefix;
+
+		private final int length;
+
+		private final InetAddress nextHop;
+
+		private final int metric;
+
+		private Route(int prefix, int length, InetAddress nextHop,
+				int metric) {
+			this.prefix = prefix;
+			this.length = length;
+			this.nextHop = nextHop;
+			this.metric = metric;
+		}
+	}
+}
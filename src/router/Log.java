@@ -0,0 +1,242 @@
+package router;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/********************************************************************
+ * Log.java
+ *
+ * Leveled logger for the router. Messages are placed in a bounded
+ * lock-free ring buffer and written to the console by a background
+ * thread, so a forwarding thread never waits on console I/O. When the
+ * ring is full new messages are dropped and counted instead.
+ *
+ * Callers should check isEnabled() before building a message on the
+ * forwarding path, so disabled levels cost nothing. close() writes
+ * what is left in the ring and stops the thread.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class Log {
+
+	/** Levels in increasing order of detail. */
+	public enum Level {
+		ERROR, WARN, INFO, DEBUG, TRACE;
+
+		/************************************************************
+		 * @param name a level name, in any case.
+		 * @return the level, or null if there is none by that name.
+		 ***********************************************************/
+		public static Level parse(String name) {
+			for (Level level : values()) {
+				if (level.name().equalsIgnoreCase(name)) return level;
+			}
+
+			return null;
+		}
+	}
+
+	/** Number of messages the ring holds. A power of two. */
+	private static final int CAPACITY = 4096;
+
+	/** How long the writer sleeps when the ring is empty. */
+	private static final long IDLE_NANOS = 1000000;
+
+	private volatile Level level;
+
+	/** Messages waiting to be written, with their level. */
+	private final AtomicReferenceArray<String> messages;
+	private final AtomicReferenceArray<Level> levels;
+
+	/** Sequence number of each slot. A slot may be written when its
+	 * sequence equals the write position, and read when it equals
+	 * the read position plus one. */
+	private final AtomicLongArray sequences;
+
+	/** Next position to write. Claimed by producers with a CAS. */
+	private final AtomicLong tail;
+
+	/** Next position to read. Only touched by the writer thread. */
+	private long head;
+
+	/** Messages dropped because the ring was full. */
+	private final AtomicLong dropped;
+
+	/** Set by close(). The writer empties the ring, then stops. */
+	private volatile boolean closed;
+
+	private final Thread writer;
+
+	/****************************************************************
+	 * Constructor for Log. Starts the writer thread.
+	 *
+	 * @param level the most detailed level to write.
+	 ***************************************************************/
+	public Log(Level level) {
+		this.level = level;
+
+		messages = new AtomicReferenceArray<String>(CAPACITY);
+		levels = new AtomicReferenceArray<Level>(CAPACITY);
+		sequences = new AtomicLongArray(CAPACITY);
+		tail = new AtomicLong();
+		dropped = new AtomicLong();
+
+		for (int i = 0; i < CAPACITY; i++) {
+			sequences.set(i, i);
+		}
+
+		writer = new Thread(new Writer(), "router-log");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/****************************************************************
+	 * @return true if messages of the given level are written.
+	 ***************************************************************/
+	public boolean isEnabled(Level level) {
+		return level.compareTo(this.level) <= 0;
+	}
+
+	public Level getLevel() {
+		return level;
+	}
+
+	public void setLevel(Level level) {
+		this.level = level;
+	}
+
+	public void error(String message) {
+		log(Level.ERROR, message);
+	}
+
+	public void warn(String message) {
+		log(Level.WARN, message);
+	}
+
+	public void info(String message) {
+		log(Level.INFO, message);
+	}
+
+	public void debug(String message) {
+		log(Level.DEBUG, message);
+	}
+
+	public void trace(String message) {
+		log(Level.TRACE, message);
+	}
+
+	/****************************************************************
+	 * @return the number of messages dropped because the ring was
+	 * full.
+	 ***************************************************************/
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/****************************************************************
+	 * Queues a message to be written, if its level is enabled. Never
+	 * blocks.
+	 *
+	 * @param level the level of the message.
+	 * @param message the message to write.
+	 ***************************************************************/
+	public void log(Level level, String message) {
+		if (!isEnabled(level)) return;
+
+		long pos = tail.get();
+
+		/* Claims a slot, or gives up if the ring is full */
+		while (true) {
+			long diff = sequences.get(index(pos)) - pos;
+
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) break;
+				pos = tail.get();
+			} else if (diff < 0) {
+				dropped.incrementAndGet();
+				return;
+			} else {
+				pos = tail.get();
+			}
+		}
+
+		int i = index(pos);
+		messages.lazySet(i, message);
+		levels.lazySet(i, level);
+
+		// Publishes the slot to the writer
+		sequences.set(i, pos + 1);
+	}
+
+	/****************************************************************
+	 * Writes every message logged so far, then stops the writer 
+	 * thread. Messages logged afterwards are not written.
+	 ***************************************************************/
+	public void close() {
+		closed = true;
+		LockSupport.unpark(writer);
+
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static int index(long pos) {
+		return (int) (pos & (CAPACITY - 1));
+	}
+
+	/* Writes queued messages to the console. */
+	private class Writer implements Runnable {
+
+		@Override
+		public void run() {
+			long reported = 0;
+
+			while (true) {
+				// Read first, so everything logged before close() is
+				// drained by this pass
+				boolean last = closed;
+				boolean wrote = false;
+
+				while (true) {
+					int i = index(head);
+
+					if (sequences.get(i) != head + 1) break;
+
+					String message = messages.get(i);
+					Level lvl = levels.get(i);
+					messages.lazySet(i, null);
+
+					// Frees the slot for the next lap of the ring
+					sequences.set(i, head + CAPACITY);
+					head++;
+
+					PrintStream out = lvl.compareTo(Level.WARN) <= 0 ?
+							System.err : System.out;
+					out.println(message);
+					wrote = true;
+				}
+
+				long lost = dropped.get();
+
+				if (lost != reported) {
+					System.err.println("-- " + (lost - reported) +
+							" log messages dropped --");
+					reported = lost;
+					wrote = true;
+				}
+
+				if (!wrote) {
+					if (last) return;
+
+					LockSupport.parkNanos(IDLE_NANOS);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,595 @@
+package router;
+
+import headers.Reassembler;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/********************************************************************
+ * Metrics.java
+ *
+ * Counters of the packets a router handles. Every counter is a
+ * LongAdder, so the forwarding threads update them without
+ * contention and without allocating. Readers get a sum which is
+ * exact once the router is idle.
+ *
+ * Registered with JMX by the router and also printed by its admin
+ * port.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class Metrics implements MetricsMBean {
+
+	/** Reasons a packet is not delivered or forwarded. */
+	public enum Drop {
+		TRUNCATED("truncated"),
+		BAD_IP_CHECKSUM("bad IP checksum"),
+		BAD_UDP_CHECKSUM("bad UDP checksum"),
+		BAD_ICMP_CHECKSUM("bad ICMP checksum"),
+		NO_ROUTE("no prefix match"),
+		TTL_EXPIRED("TTL expired"),
+		FRAGMENTATION_NEEDED("too big for the link with Don't Fragment set"),
+		QUEUE_FULL("worker queue full"),
+		EGRESS_FULL("egress queue full"),
+		SEND_FAILED("send failed"),
+		ERROR("error while handling");
+
+		private final String description;
+
+		private Drop(String description) {
+			this.description = description;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+	}
+
+	private final LongAdder receivedPackets = new LongAdder();
+	private final LongAdder receivedBytes = new LongAdder();
+
+	private final LongAdder forwardedPackets = new LongAdder();
+	private final LongAdder forwardedBytes = new LongAdder();
+
+	/** Packets addressed to the router itself. */
+	private final LongAdder deliveredPackets = new LongAdder();
+
+	/** Packets split to fit a link, and the fragments sent for them. */
+	private final LongAdder fragmentedPackets = new LongAdder();
+	private final LongAdder fragmentsSent = new LongAdder();
+
+	private final LongAdder icmpSent = new LongAdder();
+
+	/** ICMP errors not sent because RFC 1812 forbids them, or for the
+	 * rate limits. */
+	private final LongAdder icmpSuppressed = new LongAdder();
+	private final LongAdder icmpRateLimited = new LongAdder();
+
+	/** Payload checksums left unchecked by the checksum policy. */
+	private final LongAdder checksumSkipped = new LongAdder();
+
+	/** Payload checksums checked because a packet was sampled, and
+	 * how many of those were bad. */
+	private final LongAdder checksumSampled = new LongAdder();
+	private final LongAdder sampledChecksumFailures = new LongAdder();
+
+	private final LongAdder[] drops;
+
+	/** Forwarded packets and bytes for each next hop. */
+	private final ConcurrentMap<InetAddress, LongAdder[]> links =
+			new ConcurrentHashMap<InetAddress, LongAdder[]>();
+
+	/** Time from receiving a packet until it is sent or dropped. */
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/** The router's route cache, or null if it has none. */
+	private volatile RouteCache cache;
+
+	/** The router's reassembler, or null if it has none. */
+	private volatile Reassembler reassembler;
+
+	/** Packets and bytes sent in each traffic class. */
+	private final LongAdder[][] classes;
+
+	/** The router's egress queues, or null if it has none. */
+	private volatile EgressScheduler egress;
+
+	/** The router's routing protocol, or null if it has none. */
+	private volatile RoutingProtocol routing;
+
+	/****************************************************************
+	 * Constructor for Metrics with every counter at zero.
+	 ***************************************************************/
+	public Metrics() {
+		drops = new LongAdder[Drop.values().length];
+
+		for (int i = 0; i < drops.length; i++) {
+			drops[i] = new LongAdder();
+		}
+
+		classes = new LongAdder[TrafficClass.values().length][2];
+
+		for (LongAdder[] counters : classes) {
+			counters[0] = new LongAdder();
+			counters[1] = new LongAdder();
+		}
+	}
+
+	/****************************************************************
+	 * Sets the route cache whose hits and misses are reported.
+	 *
+	 * @param cache the cache, or null if there is none.
+	 ***************************************************************/
+	public void setRouteCache(RouteCache cache) {
+		this.cache = cache;
+	}
+
+	/****************************************************************
+	 * Sets the reassembler whose counters are reported.
+	 *
+	 * @param reassembler the reassembler, or null if there is none.
+	 ***************************************************************/
+	public void setReassembler(Reassembler reassembler) {
+		this.reassembler = reassembler;
+	}
+
+	/****************************************************************
+	 * Sets the egress queues whose counters are reported.
+	 *
+	 * @param egress the queues, or null if there are none.
+	 ***************************************************************/
+	public void setEgress(EgressScheduler egress) {
+		this.egress = egress;
+	}
+
+	/****************************************************************
+	 * Sets the routing protocol whose counters are reported.
+	 *
+	 * @param routing the protocol, or null if there is none.
+	 ***************************************************************/
+	public void setRouting(RoutingProtocol routing) {
+		this.routing = routing;
+	}
+
+	public void received(int bytes) {
+		receivedPackets.increment();
+		receivedBytes.add(bytes);
+	}
+
+	public void forwarded(InetAddress nextHop, int bytes) {
+		forwardedPackets.increment();
+		forwardedBytes.add(bytes);
+
+		LongAdder[] link = links.get(nextHop);
+
+		if (link == null) {
+			LongAdder[] added = {new LongAdder(), new LongAdder()};
+			link = links.putIfAbsent(nextHop, added);
+
+			if (link == null) link = added;
+		}
+
+		link[0].increment();
+		link[1].add(bytes);
+	}
+
+	/****************************************************************
+	 * @param trafficClass the class of a packet sent on a link.
+	 * @param bytes the length of the packet.
+	 ***************************************************************/
+	public void sent(TrafficClass trafficClass, int bytes) {
+		LongAdder[] counters = classes[trafficClass.ordinal()];
+		counters[0].increment();
+		counters[1].add(bytes);
+	}
+
+	public void delivered() {
+		deliveredPackets.increment();
+	}
+
+	/****************************************************************
+	 * @param fragments number of fragments a packet was split into.
+	 * Each is also counted as forwarded.
+	 ***************************************************************/
+	public void fragmented(int fragments) {
+		fragmentedPackets.increment();
+		fragmentsSent.add(fragments);
+	}
+
+	public void icmpSent() {
+		icmpSent.increment();
+	}
+
+	public void icmpSuppressed() {
+		icmpSuppressed.increment();
+	}
+
+	public void icmpRateLimited() {
+		icmpRateLimited.increment();
+	}
+
+	public void checksumSkipped() {
+		checksumSkipped.increment();
+	}
+
+	public void checksumSampled() {
+		checksumSampled.increment();
+	}
+
+	public void sampledChecksumFailure() {
+		sampledChecksumFailures.increment();
+	}
+
+	public void dropped(Drop reason) {
+		drops[reason.ordinal()].increment();
+	}
+
+	/****************************************************************
+	 * @param nanos time taken to handle one packet.
+	 ***************************************************************/
+	public void latency(long nanos) {
+		latency.record(nanos);
+	}
+
+	/****************************************************************
+	 * @return the number of packets dropped for the given reason.
+	 ***************************************************************/
+	public long getDrops(Drop reason) {
+		return drops[reason.ordinal()].sum();
+	}
+
+	@Override
+	public long getReceivedPackets() {
+		return receivedPackets.sum();
+	}
+
+	@Override
+	public long getReceivedBytes() {
+		return receivedBytes.sum();
+	}
+
+	@Override
+	public long getForwardedPackets() {
+		return forwardedPackets.sum();
+	}
+
+	@Override
+	public long getForwardedBytes() {
+		return forwardedBytes.sum();
+	}
+
+	@Override
+	public long getDeliveredPackets() {
+		return deliveredPackets.sum();
+	}
+
+	@Override
+	public long getFragmentedPackets() {
+		return fragmentedPackets.sum();
+	}
+
+	@Override
+	public long getFragmentsSent() {
+		return fragmentsSent.sum();
+	}
+
+	@Override
+	public long getIcmpSent() {
+		return icmpSent.sum();
+	}
+
+	@Override
+	public long getIcmpSuppressed() {
+		return icmpSuppressed.sum();
+	}
+
+	@Override
+	public long getIcmpRateLimited() {
+		return icmpRateLimited.sum();
+	}
+
+	@Override
+	public long getChecksumSkipped() {
+		return checksumSkipped.sum();
+	}
+
+	@Override
+	public long getChecksumSampled() {
+		return checksumSampled.sum();
+	}
+
+	@Override
+	public long getSampledChecksumFailures() {
+		return sampledChecksumFailures.sum();
+	}
+
+	@Override
+	public long getTruncatedDrops() {
+		return getDrops(Drop.TRUNCATED);
+	}
+
+	@Override
+	public long getBadIpChecksumDrops() {
+		return getDrops(Drop.BAD_IP_CHECKSUM);
+	}
+
+	@Override
+	public long getBadUdpChecksumDrops() {
+		return getDrops(Drop.BAD_UDP_CHECKSUM);
+	}
+
+	@Override
+	public long getBadIcmpChecksumDrops() {
+		return getDrops(Drop.BAD_ICMP_CHECKSUM);
+	}
+
+	@Override
+	public long getNoRouteDrops() {
+		return getDrops(Drop.NO_ROUTE);
+	}
+
+	@Override
+	public long getTtlExpiredDrops() {
+		return getDrops(Drop.TTL_EXPIRED);
+	}
+
+	@Override
+	public long getFragmentationNeededDrops() {
+		return getDrops(Drop.FRAGMENTATION_NEEDED);
+	}
+
+	@Override
+	public long getQueueFullDrops() {
+		return getDrops(Drop.QUEUE_FULL);
+	}
+
+	@Override
+	public long getEgressFullDrops() {
+		return getDrops(Drop.EGRESS_FULL);
+	}
+
+	@Override
+	public long getSendFailedDrops() {
+		return getDrops(Drop.SEND_FAILED);
+	}
+
+	@Override
+	public long getErrorDrops() {
+		return getDrops(Drop.ERROR);
+	}
+
+	@Override
+	public long getRouteCacheHits() {
+		RouteCache c = cache;
+		return c == null ? 0 : c.getHits();
+	}
+
+	@Override
+	public long getRouteCacheMisses() {
+		RouteCache c = cache;
+		return c == null ? 0 : c.getMisses();
+	}
+
+	@Override
+	public long getReassembledPackets() {
+		Reassembler r = reassembler;
+		return r == null ? 0 : r.getReassembled();
+	}
+
+	@Override
+	public long getReassemblyTimeouts() {
+		Reassembler r = reassembler;
+		return r == null ? 0 : r.getTimedOut();
+	}
+
+	@Override
+	public long getReassemblyEvictions() {
+		Reassembler r = reassembler;
+		return r == null ? 0 : r.getEvicted();
+	}
+
+	@Override
+	public long getRoutingUpdatesSent() {
+		RoutingProtocol r = routing;
+		return r == null ? 0 : r.getUpdatesSent();
+	}
+
+	@Override
+	public long getRoutingUpdatesReceived() {
+		RoutingProtocol r = routing;
+		return r == null ? 0 : r.getUpdatesReceived();
+	}
+
+	@Override
+	public long getLearnedRoutes() {
+		RoutingProtocol r = routing;
+		return r == null ? 0 : r.getRouteCount();
+	}
+
+	@Override
+	public long getRouteChanges() {
+		RoutingProtocol r = routing;
+		return r == null ? 0 : r.getRouteChanges();
+	}
+
+	@Override
+	public long getLastRouteChange() {
+		RoutingProtocol r = routing;
+		return r == null ? 0 : r.getLastChange();
+	}
+
+	@Override
+	public long getRoutingCpuNanos() {
+		RoutingProtocol r = routing;
+		return r == null ? 0 : r.getCpuNanos();
+	}
+
+	@Override
+	public long getSpfFullRuns() {
+		RoutingProtocol r = routing;
+		return r instanceof LinkState ? ((LinkState) r).getFullRuns() : 0;
+	}
+
+	@Override
+	public long getSpfIncrementalRuns() {
+		RoutingProtocol r = routing;
+		return r instanceof LinkState ? 
+				((LinkState) r).getIncrementalRuns() : 0;
+	}
+
+	@Override
+	public long getSpfNodesVisited() {
+		RoutingProtocol r = routing;
+		return r instanceof LinkState ? ((LinkState) r).getNodesVisited() : 0;
+	}
+
+	@Override
+	public long getInteractivePackets() {
+		return getClassPackets(TrafficClass.INTERACTIVE);
+	}
+
+	@Override
+	public long getNormalPackets() {
+		return getClassPackets(TrafficClass.NORMAL);
+	}
+
+	@Override
+	public long getBulkPackets() {
+		return getClassPackets(TrafficClass.BULK);
+	}
+
+	/****************************************************************
+	 * @return the number of packets sent in the given class.
+	 ***************************************************************/
+	public long getClassPackets(TrafficClass trafficClass) {
+		return classes[trafficClass.ordinal()][0].sum();
+	}
+
+	@Override
+	public long getEgressQueuedPackets() {
+		EgressScheduler e = egress;
+		return e == null ? 0 : e.getQueuedPackets();
+	}
+
+	@Override
+	public long getSendBlocks() {
+		EgressScheduler e = egress;
+		return e == null ? 0 : e.getSendBlocks();
+	}
+
+	@Override
+	public long getShaperWaits() {
+		EgressScheduler e = egress;
+		return e == null ? 0 : e.getShaperWaits();
+	}
+
+	@Override
+	public long getEgressQueueBytes() {
+		EgressScheduler e = egress;
+		return e == null ? 0 : e.getQueueBytes();
+	}
+
+	@Override
+	public long getLatencyP50() {
+		return LatencyHistogram.percentile(latency.getCounts(), 50);
+	}
+
+	@Override
+	public long getLatencyP99() {
+		return LatencyHistogram.percentile(latency.getCounts(), 99);
+	}
+
+	@Override
+	public long getLatencyP999() {
+		return LatencyHistogram.percentile(latency.getCounts(), 99.9);
+	}
+
+	@Override
+	public long[] getLatencyHistogram() {
+		return latency.getCounts();
+	}
+
+	/****************************************************************
+	 * Formats every counter as plain text, one per line.
+	 *
+	 * @return the report.
+	 ***************************************************************/
+	@Override
+	public String getReport() {
+		StringBuilder str = new StringBuilder();
+
+		line(str, "received.packets", getReceivedPackets());
+		line(str, "received.bytes", getReceivedBytes());
+		line(str, "forwarded.packets", getForwardedPackets());
+		line(str, "forwarded.bytes", getForwardedBytes());
+		line(str, "delivered.packets", getDeliveredPackets());
+		line(str, "fragmented.packets", getFragmentedPackets());
+		line(str, "fragmented.fragments", getFragmentsSent());
+		line(str, "icmp.sent", getIcmpSent());
+		line(str, "icmp.suppressed", getIcmpSuppressed());
+		line(str, "icmp.rate_limited", getIcmpRateLimited());
+		line(str, "checksum.skipped", getChecksumSkipped());
+		line(str, "checksum.sampled", getChecksumSampled());
+		line(str, "checksum.sampled_failures", getSampledChecksumFailures());
+
+		for (Drop reason : Drop.values()) {
+			line(str, "dropped." + reason.name().toLowerCase(),
+					getDrops(reason));
+		}
+
+		for (Map.Entry<InetAddress, LongAdder[]> e : links.entrySet()) {
+			String hop = e.getKey().getHostAddress();
+			line(str, "link." + hop + ".packets", e.getValue()[0].sum());
+			line(str, "link." + hop + ".bytes", e.getValue()[1].sum());
+		}
+
+		for (TrafficClass c : TrafficClass.values()) {
+			String name = c.name().toLowerCase();
+			line(str, "class." + name + ".packets", getClassPackets(c));
+			line(str, "class." + name + ".bytes", 
+					classes[c.ordinal()][1].sum());
+		}
+
+		line(str, "egress.queued", getEgressQueuedPackets());
+		line(str, "egress.queue_bytes", getEgressQueueBytes());
+		line(str, "egress.shaper_waits", getShaperWaits());
+		line(str, "egress.send_blocked", getSendBlocks());
+		line(str, "route_cache.hits", getRouteCacheHits());
+		line(str, "route_cache.misses", getRouteCacheMisses());
+		line(str, "reassembly.packets", getReassembledPackets());
+		line(str, "reassembly.timeouts", getReassemblyTimeouts());
+		line(str, "reassembly.evictions", getReassemblyEvictions());
+		line(str, "routing.updates_sent", getRoutingUpdatesSent());
+		line(str, "routing.updates_received", getRoutingUpdatesReceived());
+		line(str, "routing.learned_routes", getLearnedRoutes());
+		line(str, "routing.route_changes", getRouteChanges());
+		line(str, "routing.last_change_ms", getLastRouteChange());
+		line(str, "routing.cpu_ns", getRoutingCpuNanos());
+		line(str, "routing.spf_full", getSpfFullRuns());
+		line(str, "routing.spf_incremental", getSpfIncrementalRuns());
+		line(str, "routing.spf_nodes", getSpfNodesVisited());
+
+		long[] counts = latency.getCounts();
+
+		line(str, "latency.p50_ns", LatencyHistogram.percentile(counts, 50));
+		line(str, "latency.p99_ns", LatencyHistogram.percentile(counts, 99));
+		line(str, "latency.p999_ns",
+				LatencyHistogram.percentile(counts, 99.9));
+
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] == 0) continue;
+
+			line(str, "latency.le_" + LatencyHistogram.upperBound(i) + "_ns",
+					counts[i]);
+		}
+
+		return str.toString();
+	}
+
+	private static void line(StringBuilder str, String name, long value) {
+		str.append(name).append(' ').append(value).append('\n');
+	}
+}
@@ -0,0 +1,131 @@
+package router;
+
+/********************************************************************
+ * MetricsMBean.java
+ *
+ * JMX management interface of the router's Metrics.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public interface MetricsMBean {
+
+	long getReceivedPackets();
+
+	long getReceivedBytes();
+
+	long getForwardedPackets();
+
+	long getForwardedBytes();
+
+	long getDeliveredPackets();
+
+	long getFragmentedPackets();
+
+	long getFragmentsSent();
+
+	long getIcmpSent();
+
+	long getIcmpSuppressed();
+
+	long getIcmpRateLimited();
+
+	long getChecksumSkipped();
+
+	long getChecksumSampled();
+
+	long getSampledChecksumFailures();
+
+	long getTruncatedDrops();
+
+	long getBadIpChecksumDrops();
+
+	long getBadUdpChecksumDrops();
+
+	long getBadIcmpChecksumDrops();
+
+	long getNoRouteDrops();
+
+	long getTtlExpiredDrops();
+
+	long getFragmentationNeededDrops();
+
+	long getQueueFullDrops();
+
+	long getEgressFullDrops();
+
+	long getSendFailedDrops();
+
+	/** Packets which threw an unexpected exception while handled. */
+	long getErrorDrops();
+
+	/** Packets sent in each traffic class. */
+	long getInteractivePackets();
+
+	long getNormalPackets();
+
+	long getBulkPackets();
+
+	/** Packets which waited for a busy link, and the bytes waiting
+	 * now. */
+	long getEgressQueuedPackets();
+
+	long getEgressQueueBytes();
+
+	/** Times a link with a rate waited for it to allow the next 
+	 * packet. */
+	long getShaperWaits();
+
+	/** Times the socket was too busy to take a packet, which then 
+	 * waited in the queues. */
+	long getSendBlocks();
+
+	long getRouteCacheHits();
+
+	long getRouteCacheMisses();
+
+	/** Packets put back together from fragments addressed to the
+	 * router, and partial packets given up on. */
+	long getReassembledPackets();
+
+	long getReassemblyTimeouts();
+
+	long getReassemblyEvictions();
+
+	/** Routing protocol messages, and the reachable routes learned 
+	 * from them. */
+	long getRoutingUpdatesSent();
+
+	long getRoutingUpdatesReceived();
+
+	long getLearnedRoutes();
+
+	/** Learned routes added, changed or lost, and the wall clock time
+	 * in milliseconds of the last, to measure convergence. */
+	long getRouteChanges();
+
+	long getLastRouteChange();
+
+	/** CPU time spent on the routing protocol. */
+	long getRoutingCpuNanos();
+
+	/** Shortest path tree runs of link state routing, from scratch 
+	 * and incremental, and the routers they settled. */
+	long getSpfFullRuns();
+
+	long getSpfIncrementalRuns();
+
+	long getSpfNodesVisited();
+
+	/** Latency percentiles in nanoseconds, from the histogram. */
+	long getLatencyP50();
+
+	long getLatencyP99();
+
+	long getLatencyP999();
+
+	/** Per packet latency histogram, one power of two per bucket. */
+	long[] getLatencyHistogram();
+
+	/** The same text the admin port returns. */
+	String getReport();
+}
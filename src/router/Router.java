@@ -1,22 +1,39 @@
 package router;
 
+import headers.Fragmenter;
 import headers.ICMP_Header;
 import headers.IP_Header;
+import headers.Reassembler;
 import headers.UDP_Header;
+import transport.BufferPool;
+import transport.Transport;
+import transport.UdpTransport;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import router.Log.Level;
+import router.Metrics.Drop;
 
 /********************************************************************
  * Router.java
@@ -29,36 +46,177 @@ import java.util.Scanner;
  *******************************************************************/
 public class Router {
 	
-	private final int PORT = 1618;
+	private static final int PORT = 1618;
+	
+	/** Size of the receive buffers, the largest possible datagram. */
+	private final int BUFFER_SIZE = 65535;
+	
+	/** Most receive buffers kept idle in the pool, and most received
+	 * packets waiting for the workers together. Every waiting packet 
+	 * holds a buffer, so this also bounds their direct memory. */
+	private final int POOL_SIZE = 256;
+	
+	/** Default number of entries in the route cache. */
+	private final int DEFAULT_CACHE_SIZE = 4096;
+	
+	/** Default ICMP error limits per second, in total and per source. */
+	private final int DEFAULT_ICMP_RATE = 100;
+	private final int DEFAULT_ICMP_SOURCE_RATE = 10;
+	
+	/** Default memory for partial packets and how long to wait for
+	 * the rest of one, in milliseconds. */
+	private final int DEFAULT_REASSEMBLY_MEMORY = 4 * 1024 * 1024;
+	private final int DEFAULT_REASSEMBLY_TIMEOUT = 30000;
+	
+	/** Default burst of a shaped link, in milliseconds at its rate. */
+	private final int DEFAULT_BURST_MILLIS = 10;
 	
 	/** Path to the configuration files. */
 	private final String PATH = "config/";
 	
 	private int router_number;
 	
-	/** HashMap where the Key is a prefix in the format: IPv4/prefix_length.
-	 * The value is the "real" IPv4 address associated with the prefix. */
-	private HashMap<String, InetAddress> prefixes;
+	/** Longest prefix match table which maps virtual prefixes to the
+	 * "real" IPv4 address associated with the prefix. A new table is
+	 * built whenever the routes change and swapped in with a single
+	 * volatile write, so packet handling never locks. */
+	private volatile RoutingTable prefixes;
+	
+	/** The routes, addresses and MTUs of the configuration file. The
+	 * table in use is a copy with the learned routes added. */
+	private RoutingTable staticRoutes;
+	
+	/** Learns routes from the neighboring routers. */
+	private RoutingProtocol routing;
+	
+	/** Queues packets for links which are busy sending. */
+	private EgressScheduler egress;
+	
+	/** Most bytes queued for each link. */
+	private int egressQueue;
+	
+	/** Seconds between full routing updates. */
+	private int routingInterval;
+	
+	/** True to use link state routing rather than distance vector. */
+	private boolean linkState;
+	
+	/** Which checksums to verify by source prefix. Swapped in along 
+	 * with the table. */
+	private volatile ChecksumPolicy checksumPolicy;
+	
+	/** Held while building and swapping in a new table. */
+	private final Object tableLock = new Object();
 	
-	private ArrayList<InetAddress> routerAddresses;
+	/** Recent lookups in front of the table, or null if disabled. */
+	private RouteCache cache;
 	
-	private DatagramSocket routerSocket;
+	/** The "real" network the router sends and receives on. */
+	private Transport transport;
+	
+	/** Reusable direct buffers for received and generated packets. */
+	private BufferPool pool;
+	
+	/** Number of threads handling received packets. When 1, packets
+	 * are handled on the thread which receives them. */
+	private int workers;
+	
+	/** Most packets received per wakeup by the single threaded loop.
+	 * When 1, each packet is sent before the next is received. */
+	private int batchSize;
+	
+	/** Console output. Per packet tracing is off by default. */
+	private final Log log = new Log(Level.INFO);
+	
+	/** Counters of handled packets, also published over JMX. */
+	private final Metrics metrics = new Metrics();
+	
+	/** Local TCP port printing the metrics, or 0 for none. */
+	private int adminPort;
+	
+	/** Views of the headers in packets handled by this router. */
+	private final IP_Header IP = new IP_Header();
+	private final UDP_Header UDP = new UDP_Header();
+	private final ICMP_Header ICMP = new ICMP_Header();
+	
+	/** Most ICMP errors sent per second, in total and to a source. */
+	private int icmpRate;
+	private int icmpSourceRate;
+	
+	/** Builds and rate limits the ICMP errors this router sends. */
+	private IcmpGenerator icmp;
+	
+	/** Memory and timeout for reassembling packets to the router. */
+	private int reassemblyMemory;
+	private int reassemblyTimeout;
+	
+	/** Puts fragments addressed to the router back together. */
+	private Reassembler reassembler;
 	
 	/****************************************************************
 	 * Constructor for Router. Creates the router socket
 	 * 
+	 * @param router_number the number of this router
 	 * @throws SocketException if the port is in use
 	 ***************************************************************/
 	public Router(int router_number) throws SocketException, Exception {
-		routerSocket = new DatagramSocket(PORT);
-		
-		prefixes = new HashMap<String, InetAddress>();
-		routerAddresses = new ArrayList<InetAddress>();
+		this(router_number, new UdpTransport(PORT));
+	}
+	
+	/****************************************************************
+	 * Constructor for a Router on the given transport.
+	 * 
+	 * @param router_number the number of this router
+	 * @param transport the "real" network to send and receive on.
+	 * @throws Exception if there is something wrong with the 
+	 * configuration file for the given router number
+	 ***************************************************************/
+	public Router(int router_number, Transport transport) throws Exception {
+		this.transport = transport;
+		pool = new BufferPool(BUFFER_SIZE, POOL_SIZE);
+		
+		workers = 1;
+		batchSize = 1;
+		cache = new RouteCache(DEFAULT_CACHE_SIZE);
+		icmpRate = DEFAULT_ICMP_RATE;
+		icmpSourceRate = DEFAULT_ICMP_SOURCE_RATE;
+		reassemblyMemory = DEFAULT_REASSEMBLY_MEMORY;
+		reassemblyTimeout = DEFAULT_REASSEMBLY_TIMEOUT;
+		routingInterval = RoutingProtocol.DEFAULT_INTERVAL;
+		egressQueue = EgressScheduler.DEFAULT_QUEUE_BYTES;
 		
 		setRouterNumber(router_number);
-		readAddresses();
+		icmp = new IcmpGenerator(icmpRate, icmpSourceRate);
+		reassembler = new Reassembler(reassemblyMemory, reassemblyTimeout);
+		metrics.setRouteCache(cache);
+		metrics.setReassembler(reassembler);
+		
+		egress = new EgressScheduler(transport, metrics, log, egressQueue);
+		egress.setRates(readRates());
+		metrics.setEgress(egress);
+		
+		Runnable onChange = new Runnable() {
+			@Override
+			public void run() {
+				installRoutes();
+			}
+		};
+		
+		if (linkState) {
+			routing = new LinkState(transport, log, onChange);
+		} else {
+			routing = new DistanceVector(transport, log, onChange);
+		}
+		
+		routing.configure(readNeighbors(), staticRoutes, routingInterval);
+		metrics.setRouting(routing);
 		
 		printWelcomeMessage();
+		
+		watchConfigFile();
+		registerMetrics();
+		startAdminServer();
+		routing.start();
 	}
 	
 	private void printWelcomeMessage() {
@@ -71,9 +229,15 @@ public class Router {
 		String msg = String.format("%15s   %-15s", "-Prefixes-","-Address-");
 		System.out.println(msg);
 		
-		for (String prefix : prefixes.keySet()) {
-			String dst = prefixes.get(prefix).getHostAddress();
-			msg = String.format("%14s -> %-15s", prefix, dst);
+		for (RoutingTable.Entry e : prefixes.entries()) {
+			StringBuilder dst = new StringBuilder();
+			
+			for (InetAddress hop : e.getNextHops()) {
+				if (dst.length() > 0) dst.append(", ");
+				dst.append(hop.getHostAddress());
+			}
+			
+			msg = String.format("%18s -> %-15s", e, dst);
 			System.out.println(msg);
 		}
 		
@@ -89,198 +253,713 @@ public class Router {
 	 ***************************************************************/
 	private void setRouterNumber(int router_number) throws Exception {
 		this.router_number = router_number;
-		readPrefixes();
+		staticRoutes = readTable();
+		prefixes = staticRoutes;
+		checksumPolicy = readChecksumPolicy();
+		readSettings();
 	}
 	
-	private DatagramPacket receivePacket() throws IOException {
-		byte[] buffer = new byte[65535];
+	/****************************************************************
+	 * @return path of the configuration file of this router.
+	 ***************************************************************/
+	private String getConfigPath() {
+		return PATH + "router-" + router_number + ".txt";
+	}
+	
+	/****************************************************************
+	 * Builds a new routing table from the configuration file, with
+	 * the router's addresses and link MTUs.
+	 * 
+	 * @return the new table.
+	 * @throws Exception if there is any issue with the configuration
+	 * file. (not found, improperly formatted, etc.)
+	 ***************************************************************/
+	private RoutingTable readTable() throws Exception {
+		RoutingTable table = new RoutingTable();
 		
-		DatagramPacket recvPacket = new DatagramPacket(buffer, buffer.length);
-		routerSocket.receive(recvPacket);
+		readPrefixes(table);
+		readAddresses(table);
+		readMtus(table);
+		
+		return table;
+	}
+	
+	/****************************************************************
+	 * Rereads the routes, addresses, neighbors and link rates from 
+	 * the configuration file and swaps them in. Packets already being 
+	 * handled finish with the old table. If the file can't be read 
+	 * the current table is kept.
+	 ***************************************************************/
+	public void reload() {
+		synchronized (tableLock) {
+			try {
+				RoutingTable table = readTable();
+				ChecksumPolicy policy = readChecksumPolicy();
+				Map<InetAddress, Integer> neighbors = readNeighbors();
+				Map<InetAddress, EgressScheduler.Rate> rates = readRates();
 				
-		return recvPacket;
+				staticRoutes = table;
+				checksumPolicy = policy;
+				routing.configure(neighbors, table, routingInterval);
+				installRoutes();
+				egress.setRates(rates);
+				
+				log.info("-- Reloaded " + getConfigPath() + ": " + 
+						table.size() + " prefixes --");
+			} catch (Exception e) {
+				log.warn("Reload of " + getConfigPath() + 
+						" failed, keeping current routes: " + e);
+			}
+		}
+	}
+	
+	/****************************************************************
+	 * Swaps in a new table holding the static routes and those 
+	 * learned from the neighbors.
+	 ***************************************************************/
+	private void installRoutes() {
+		synchronized (tableLock) {
+			RoutingTable table = staticRoutes.copy();
+			routing.addRoutes(table);
+			prefixes = table;
+			
+			// Entries of the old table are stale anyway, this just
+			// frees them sooner
+			if (cache != null) cache.invalidate();
+		}
+	}
+	
+	/****************************************************************
+	 * Starts a thread which reloads the routes whenever the 
+	 * configuration file changes.
+	 ***************************************************************/
+	private void watchConfigFile() {
+		try {
+			Runnable onChange = new Runnable() {
+				@Override
+				public void run() {
+					reload();
+				}
+			};
+			
+			Thread t = new Thread(new ConfigWatcher(getConfigPath(), onChange),
+					"router-config");
+			t.setDaemon(true);
+			t.start();
+		} catch (IOException e) {
+			log.warn("Not watching " + getConfigPath() + ": " + e);
+		}
+	}
+	
+	/****************************************************************
+	 * Registers the metrics with the platform MBean server as
+	 * router:type=Metrics,router=N. A router with the same number
+	 * created earlier in this JVM is replaced.
+	 ***************************************************************/
+	private void registerMetrics() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(
+					"router:type=Metrics,router=" + router_number);
+			
+			if (server.isRegistered(name)) server.unregisterMBean(name);
+			
+			server.registerMBean(metrics, name);
+		} catch (JMException e) {
+			log.warn("Metrics not registered with JMX: " + e);
+		}
+	}
+	
+	/****************************************************************
+	 * Starts a thread serving the metrics as plain text on the admin
+	 * port, if one is configured.
+	 ***************************************************************/
+	private void startAdminServer() {
+		if (adminPort == 0) return;
+		
+		try {
+			Thread t = new Thread(new AdminServer(adminPort, metrics), 
+					"router-admin");
+			t.setDaemon(true);
+			t.start();
+			
+			log.info("-- Metrics on localhost:" + adminPort + " --");
+		} catch (IOException e) {
+			log.warn("Admin port " + adminPort + " not opened: " + e);
+		}
+	}
+	
+	/****************************************************************
+	 * Closes the transport, which ends begin(), then writes out the
+	 * rest of the log.
+	 * 
+	 * @throws IOException if the transport fails to close.
+	 ***************************************************************/
+	public void close() throws IOException {
+		try {
+			routing.close();
+			transport.close();
+		} finally {
+			log.close();
+		}
+	}
+	
+	/****************************************************************
+	 * @return the counters of packets handled by this router.
+	 ***************************************************************/
+	public Metrics getMetrics() {
+		return metrics;
+	}
+	
+	/****************************************************************
+	 * Receives the next packet into a buffer from the pool. The 
+	 * buffer is flipped so the packet is between 0 and its limit.
+	 * Routing messages are handed to the routing protocol instead.
+	 * 
+	 * @return the buffer holding the packet.
+	 * @throws IOException if the transport fails.
+	 ***************************************************************/
+	private ByteBuffer receivePacket() throws IOException {
+		while (true) {
+			ByteBuffer buf = pool.acquire();
+			InetAddress sender;
+			
+			try {
+				sender = transport.receive(buf);
+			} catch (IOException e) {
+				pool.release(buf);
+				throw e;
+			}
+			
+			buf.flip();
+			metrics.received(buf.limit());
+			
+			if (!isRouting(buf, sender)) return buf;
+			
+			pool.release(buf);
+		}
+	}
+	
+	/****************************************************************
+	 * Receives a waiting packet into a buffer from the pool without
+	 * blocking. The buffer is flipped so the packet is between 0 and
+	 * its limit.
+	 * 
+	 * @return the buffer holding the packet, or null if no packet 
+	 * was waiting.
+	 * @throws IOException if the transport fails.
+	 ***************************************************************/
+	private ByteBuffer pollPacket() throws IOException {
+		while (true) {
+			ByteBuffer buf = pool.acquire();
+			InetAddress sender;
+			
+			try {
+				sender = transport.poll(buf);
+			} catch (IOException e) {
+				pool.release(buf);
+				throw e;
+			}
+			
+			if (sender == null) {
+				pool.release(buf);
+				return null;
+			}
+			
+			buf.flip();
+			metrics.received(buf.limit());
+			
+			if (!isRouting(buf, sender)) return buf;
+			
+			pool.release(buf);
+		}
+	}
+	
+	/****************************************************************
+	 * Hands a routing message to the routing protocol, which copies
+	 * it and handles it on its own thread.
+	 * 
+	 * @param buf the buffer holding the packet.
+	 * @param sender the "real" address the packet came from.
+	 * @return true if the packet was a routing message, and its 
+	 * buffer may be reused.
+	 ***************************************************************/
+	private boolean isRouting(ByteBuffer buf, InetAddress sender) {
+		if (buf.limit() < IP_Header.LENGTH) return false;
+		
+		int protocol = IP.protocol(buf);
+		
+		if (protocol != IP_Header.DISTANCE_VECTOR && 
+				protocol != IP_Header.LINK_STATE) {
+			return false;
+		}
+		
+		// The protocol drops the other protocol's messages
+		routing.receive(buf, sender);
+		
+		return true;
 	}
 	
-	private void handlePacket() throws IOException {
-		DatagramPacket recvPacket = receivePacket();
-		byte[] data = recvPacket.getData();
+	/****************************************************************
+	 * Handles the packet in the buffer and forwards it if needed.
+	 * Forwarded packets are sent from the same buffer.
+	 * 
+	 * @param buf the buffer holding the packet.
+	 * @throws IOException if the packet is invalid or can't be sent.
+	 ***************************************************************/
+	void handlePacket(ByteBuffer buf) throws IOException {
+		InetAddress realDstIP = routePacket(buf);
+		
+		if (realDstIP != null) {
+			sendPacket(buf, realDstIP);
+		}
+	}
+	
+	/****************************************************************
+	 * Sends a packet prepared by routePacket through the egress queue
+	 * of its traffic class. Packets larger than the MTU of the link 
+	 * are sent in fragments.
+	 * 
+	 * @param buf the buffer holding the packet.
+	 * @param realDstIP the "real" address to forward to.
+	 * @throws IOException if the packet can't be sent.
+	 ***************************************************************/
+	private void sendPacket(ByteBuffer buf, InetAddress realDstIP) 
+			throws IOException {
+		
+		int length = buf.remaining();
+		int mtu = prefixes.getMtu(realDstIP);
+		
+		if (length > mtu) {
+			sendFragments(buf, realDstIP, mtu);
+			return;
+		}
+		
+		/* Forwards the packet from the buffer it arrived in, unless the
+		 * link is busy and a copy has to wait */
+		boolean sent;
+		
+		try {
+			sent = egress.send(buf, realDstIP, TrafficClass.of(IP.tos(buf)));
+		} catch (IOException e) {
+			metrics.dropped(Drop.SEND_FAILED);
+			throw e;
+		}
+		
+		if (sent && log.isEnabled(Level.TRACE)) {
+			log.trace("Sent message to " + realDstIP.getHostAddress());
+		}
+	}
+	
+	/****************************************************************
+	 * Sends a packet too big for the link in fragments, each written
+	 * into a buffer from the pool in turn. A packet with the Don't 
+	 * Fragment flag is dropped instead and the source told the MTU.
+	 * 
+	 * @param buf the buffer holding the packet.
+	 * @param realDstIP the "real" address to forward to.
+	 * @param mtu the MTU of the link to realDstIP.
+	 * @throws IOException if a fragment can't be sent.
+	 ***************************************************************/
+	private void sendFragments(ByteBuffer buf, InetAddress realDstIP, 
+			int mtu) throws IOException {
+		
+		if (IP.dontFragment(buf)) {
+			log.debug("Packet of " + buf.remaining() + 
+					" bytes too big for MTU " + mtu);
+			metrics.dropped(Drop.FRAGMENTATION_NEEDED);
+			sendICMP(ICMP_Header.UNREACHABLE, buf, mtu);
+			return;
+		}
+		
+		int count = Fragmenter.count(buf, mtu);
+		TrafficClass trafficClass = TrafficClass.of(IP.tos(buf));
+		ByteBuffer fragment = pool.acquire();
+		
+		try {
+			for (int i = 0; i < count; i++) {
+				Fragmenter.write(buf, mtu, i, fragment);
+				egress.send(fragment, realDstIP, trafficClass);
+			}
+		} catch (IOException e) {
+			metrics.dropped(Drop.SEND_FAILED);
+			throw e;
+		} finally {
+			pool.release(fragment);
+		}
+		
+		metrics.fragmented(count);
+		
+		if (log.isEnabled(Level.TRACE)) {
+			log.trace("Sent message to " + realDstIP.getHostAddress() + 
+					" in " + count + " fragments");
+		}
+	}
+	
+	/****************************************************************
+	 * Validates the packet in the buffer, then delivers it locally,
+	 * answers it with an ICMP message or prepares it to be forwarded.
+	 * Packets to forward are patched in place, and the buffer's 
+	 * position and limit are set around the packet.
+	 * 
+	 * @param buf the buffer holding the packet.
+	 * @return the "real" address to forward to, or null if the packet
+	 * needs no forwarding.
+	 * @throws IOException if the packet is invalid.
+	 ***************************************************************/
+	private InetAddress routePacket(ByteBuffer buf) throws IOException {
+		
+		/* Checks that the whole IPv4 header arrived */
+		if (buf.limit() < IP_Header.LENGTH) {
+			metrics.dropped(Drop.TRUNCATED);
+			throw new IOException("Truncated packet: " + buf.limit() + 
+					" bytes");
+		}
 				
-		String src = translateIP(data, 12);
+		if (log.isEnabled(Level.TRACE)) {
+			log.trace("\nReceived packet from " + 
+					IP_Header.addressToString(IP.source(buf)));
+		}
 		
-		System.out.println("\nReceived packet from " + src);
+		int data_length = IP.totalLength(buf);
 		
-		int data_length = (int) (((data[2] << 8) | (data[3] & 0xFF)) & 0xFFFF);
-
-		// Validates the checksums
-		validateChecksumIP(data, 0, 20);
+		if (data_length > buf.limit()) {
+			metrics.dropped(Drop.TRUNCATED);
+			throw new IOException("Truncated packet: Got " + buf.limit() + 
+					" of " + data_length + " bytes");
+		}
 		
-		int protocol = (int) (data[9] & 0xFF);
-		final int UDP = 17;
-		final int ICMP = 1;
+		int header_length = IP.headerLength(buf);
 		
-		if (protocol == UDP) {
-			System.out.println("IPv4 Protocol 17: UDP");
-			validateChecksumUDP(data, 20, data_length);
-		} else if (protocol == ICMP) {
-			System.out.println("IPv4 Protocol 1: ICMP");
-			validateChecksumICMP(data, 20, 56);
+		/* Checks that the header length fits inside the packet */
+		if (header_length < IP_Header.LENGTH || header_length > data_length) {
+			metrics.dropped(Drop.TRUNCATED);
+			throw new IOException("Bad IP header length: " + header_length + 
+					" of " + data_length + " bytes");
 		}
+
+		// The IPv4 header is always validated, it is rewritten below
+		validateChecksumIP(buf);
 		
-		String dest = translateIP(data, 16);
+		int destIP = IP.destination(buf);
+		
+		/* One table is used for the whole packet, even if a new one
+		 * is swapped in meanwhile. */
+		RoutingTable table = prefixes;
+		boolean local = table.isLocal(destIP);
+		boolean fragment = IP.isFragment(buf);
+		
+		// The payload checksum of a fragment covers data in the other
+		// fragments, so only whole packets can be validated
+		if (!fragment) {
+			validatePayload(buf, data_length, local);
+		}
 		
 		/* Checks if the destination is this router */
-		for (InetAddress addr : routerAddresses) {
-
-			if (addr.getHostAddress().equals(dest)) {
-				printMessage(data, data_length, src);
-				return;
+		if (local) {
+			if (fragment) {
+				deliverFragment(buf);
+			} else {
+				metrics.delivered();
+				printMessage(buf, data_length);
 			}
+			
+			return null;
 		}
 		
-		InetAddress realDstIP = findMatch(dest);
+		InetAddress realDstIP = findMatch(table, destIP, 
+				flowHash(buf, table, fragment));
 		
 		/* If no prefix match was found, the sender must be notified. */
 		if (realDstIP == null) {
-			System.out.println("No prefix match for: " + dest);
-			sendICMP(ICMP_Header.UNREACHABLE, data, src);
-			return;
+			if (log.isEnabled(Level.DEBUG)) {
+				log.debug("No prefix match for: " + 
+						IP_Header.addressToString(destIP));
+			}
+			
+			metrics.dropped(Drop.NO_ROUTE);
+			sendICMP(ICMP_Header.UNREACHABLE, buf);
+			return null;
 		}
 		
-		System.out.println("Found prexif for " + dest + " -> " + 
-				realDstIP.getHostAddress());
+		if (log.isEnabled(Level.TRACE)) {
+			log.trace("Found prefix for " + 
+					IP_Header.addressToString(destIP) + " -> " + 
+					realDstIP.getHostAddress());
+		}
 		
-		int TTL = (int) (data[8] & 0xFF);
+		int TTL = IP.ttl(buf);
 		
 		/* Check if the TTL has expired*/
 		if (TTL <= 0) { 
-			System.out.println("TTL Expired");
-			sendICMP(ICMP_Header.TIME_EXCEEDED, data, src);
-			return;
+			log.debug("TTL Expired");
+			metrics.dropped(Drop.TTL_EXPIRED);
+			sendICMP(ICMP_Header.TIME_EXCEEDED, buf);
+			return null;
 		}
 		
-		// Decrements the TTL
-		TTL--;
-		data[8] = (byte) TTL;		
+		// Patches the TTL and checksum in place, the packet is sent 
+		// from this buffer without copying
+		IP.decrementTtl(buf);
 		
-		// Updates the checksum
-		int newChecksum = IP_Header.calculateChecksum(data, 0, 20);
-		data[10] = (byte) (newChecksum >>> 8);
-		data[11] = (byte) (newChecksum);
+		buf.position(0);
+		buf.limit(data_length);
 		
-		DatagramPacket sendPkt = new DatagramPacket(data, data_length, 
-				realDstIP, PORT);
+		return realDstIP;
+	}	
+	
+	/****************************************************************
+	 * Finds the "real" address of the longest prefix matching the
+	 * given virtual destination.
+	 * 
+	 * @param table the routing table to search.
+	 * @param dest the virtual destination IPv4 address as an int.
+	 * @return the address to forward to, or null if nothing matches.
+	 ***************************************************************/
+	private InetAddress findMatch(RoutingTable table, int dest) {
+		if (cache != null) {
+			return cache.lookup(table, dest);
+		}
 		
-		/* Forwards the packet */
-		routerSocket.send(sendPkt);
+		return table.lookup(dest);
+	}
+	
+	/****************************************************************
+	 * Finds the "real" address of the longest prefix matching the
+	 * given virtual destination. If the prefix has several equal 
+	 * cost next hops, the flow's hash picks one.
+	 * 
+	 * @param table the routing table to search.
+	 * @param dest the virtual destination IPv4 address as an int.
+	 * @param flow hash of the packet's flow.
+	 * @return the address to forward to, or null if nothing matches.
+	 ***************************************************************/
+	private InetAddress findMatch(RoutingTable table, int dest, int flow) {
+		if (cache != null) {
+			return cache.lookup(table, dest, flow);
+		}
 		
-		System.out.println("Sent message to " + realDstIP.getHostAddress());
-	}	
+		return table.lookup(dest, flow);
+	}
 	
-	private InetAddress findMatch(String dest) {
-		InetAddress realDstIP = null;
-		int prefixLength = 0;
+	/****************************************************************
+	 * Hashes the addresses, protocol and UDP ports of a packet, so 
+	 * every packet of a flow takes the same path. Fragments are 
+	 * hashed without ports, which only the first one carries. The 
+	 * hash is seeded with the router's address, so routers in a row
+	 * don't all split flows the same way.
+	 * 
+	 * @param buf the buffer holding the packet.
+	 * @param table the routing table, for the router's address.
+	 * @param fragment true if the packet is a fragment.
+	 * @return the hash of the packet's flow.
+	 ***************************************************************/
+	private int flowHash(ByteBuffer buf, RoutingTable table, 
+			boolean fragment) {
+		int hash = mix(table.getLocalAddress(), IP.source(buf));
+		hash = mix(hash, IP.destination(buf));
+		hash = mix(hash, IP.protocol(buf));
+		
+		if (!fragment && IP.protocol(buf) == IP_Header.UDP && 
+				buf.limit() >= IP_Header.LENGTH + UDP_Header.LENGTH) {
+			hash = mix(hash, (UDP.srcPort(buf) << 16) | UDP.dstPort(buf));
+		}
 		
-		/* Finds the best matching prefix for the destination IP */
-		for (String prefix : prefixes.keySet()) {
-			
-			String[] prefixArr = prefix.split("\\.");
-			String[] destArr = dest.split("\\.");
-			
-			String p = "";
-			dest = "";
-			
-			for (int i = 0; i < prefixArr.length; i++) {
-				p += String.format("%3s", prefixArr[i]).replace(' ', '0');
-			}
-			
-			for (int i = 0; i < destArr.length; i++) {
-				dest += String.format("%3s", destArr[i]).replace(' ', '0');
-			}
+		// Final avalanche of MurmurHash3
+		hash ^= hash >>> 16;
+		hash *= 0x85EBCA6B;
+		hash ^= hash >>> 13;
+		hash *= 0xC2B2AE35;
+		
+		return hash ^ (hash >>> 16);
+	}
+	
+	/* Mixes one word into the hash, as a MurmurHash3 round does. */
+	private static int mix(int hash, int word) {
+		word *= 0xCC9E2D51;
+		word = Integer.rotateLeft(word, 15);
+		word *= 0x1B873593;
+		
+		hash ^= word;
+		hash = Integer.rotateLeft(hash, 13);
+		
+		return hash * 5 + 0xE6546B64;
+	}
+	
+	/****************************************************************
+	 * Adds a fragment addressed to this router to its packet, and 
+	 * delivers the packet once every fragment has arrived.
+	 * 
+	 * @param buf the buffer holding the fragment.
+	 * @throws IOException if the reassembled packet is invalid.
+	 ***************************************************************/
+	private void deliverFragment(ByteBuffer buf) throws IOException {
+		ByteBuffer packet = reassembler.add(buf);
+		
+		if (packet == null) return;
+		
+		try {
+			int end = packet.limit();
 			
-			if (dest.startsWith(p) && p.length() > prefixLength) {
-				realDstIP = prefixes.get(prefix);
-				prefixLength = prefix.length();
-			}
+			validatePayload(packet, end, true);
+			metrics.delivered();
+			printMessage(packet, end);
+		} finally {
+			reassembler.release(packet);
 		}
-		
-		return realDstIP;
 	}
 	
-	private void printMessage(byte[] data, int end, String srcIP) {
-		System.out.print("Message: ");
+	private void printMessage(ByteBuffer data, int end) {
+		if (!log.isEnabled(Level.INFO)) return;
+		
+		int start = IP_Header.LENGTH + UDP_Header.LENGTH;
+		
+		if (end < start) return;
+		
+		// Decodes the text straight from the packet buffer
+		ByteBuffer payload = data.duplicate();
+		payload.limit(end).position(start);
+		
+		log.info("Message: " + StandardCharsets.UTF_8.decode(payload));
+	}
+
+	/****************************************************************
+	 * Validates the UDP or ICMP checksum of the packet if the 
+	 * checksum policy for its source asks for it. Packets for this
+	 * router are always validated. The lengths are always checked.
+	 * 
+	 * @param buf the buffer holding the packet.
+	 * @param end index of the last byte of the packet (exclusive).
+	 * @param local true if the packet is addressed to this router.
+	 * @throws IOException if the packet is too short, or the checksum
+	 * is checked and wrong.
+	 ***************************************************************/
+	private void validatePayload(ByteBuffer buf, int end, boolean local) 
+			throws IOException {
+		int protocol = IP.protocol(buf);
 		
-		String str = "";
+		if (protocol != IP_Header.UDP && protocol != IP_Header.ICMP) return;
 		
-		for (int i = 28; i < end; i++) {
-			str += (char) (data[i] & 0xFF);
+		checkPayloadLength(buf, protocol, end);
+		
+		ChecksumPolicy policy = checksumPolicy;
+		int src = IP.source(buf);
+		
+		ChecksumPolicy.Mode mode = local ? 
+				ChecksumPolicy.Mode.ALL : policy.modeFor(src);
+		boolean sampled = mode == ChecksumPolicy.Mode.SAMPLED;
+		
+		if (mode == ChecksumPolicy.Mode.IP_ONLY || 
+				(sampled && !policy.checkPayload(src))) {
+			metrics.checksumSkipped();
+			return;
 		}
 		
-		System.out.println(str);
+		if (sampled) metrics.checksumSampled();
+		
+		try {
+			if (protocol == IP_Header.UDP) {
+				log.trace("IPv4 Protocol 17: UDP");
+				validateChecksumUDP(buf);
+			} else {
+				log.trace("IPv4 Protocol 1: ICMP");
+				validateChecksumICMP(buf, end);
+			}
+		} catch (IOException e) {
+			if (sampled) metrics.sampledChecksumFailure();
+			throw e;
+		}
 	}
 
-	private void validateChecksumIP(byte[] data, int start, int end) 
+	/****************************************************************
+	 * Checks that the UDP or ICMP header, and the data the UDP length
+	 * field claims, lie inside the packet before any checksum reads
+	 * them.
+	 * 
+	 * @param buf the buffer holding the packet.
+	 * @param protocol UDP or ICMP.
+	 * @param end index of the last byte of the packet (exclusive).
+	 * @throws IOException if the packet is too short.
+	 ***************************************************************/
+	private void checkPayloadLength(ByteBuffer buf, int protocol, int end) 
 			throws IOException {
-		System.out.print("Checking IP Checksum... ");
+		boolean fits;
 		
-		int checksumIndex = start + 10;
+		if (protocol == IP_Header.UDP) {
+			fits = end <= buf.limit() && 
+					end >= UDP.offset() + UDP_Header.LENGTH;
+			
+			if (fits) {
+				int udpLength = UDP.length(buf);
+				
+				fits = udpLength >= UDP_Header.LENGTH && 
+						UDP.offset() + udpLength <= end;
+			}
+		} else {
+			fits = end <= buf.limit() && 
+					end >= ICMP.offset() + ICMP_Header.LENGTH;
+		}
 		
-		int storedChecksum = (int) (((data[checksumIndex] << 8) | 
-							 (data[checksumIndex + 1] & 0xFF)) & 0xFFFF);
-		int calculatedChecksum = IP_Header.calculateChecksum(data, start, end);
+		if (!fits) {
+			metrics.dropped(Drop.TRUNCATED);
+			throw new IOException("Truncated " + 
+					(protocol == IP_Header.UDP ? "UDP" : "ICMP") + 
+					" packet: " + end + " bytes");
+		}
+	}
+	
+	private void validateChecksumIP(ByteBuffer data) throws IOException {
+		int storedChecksum = IP.checksum(data);
+		int calculatedChecksum = IP.calculateChecksum(data);
 		
 		if (storedChecksum != calculatedChecksum) {
+			metrics.dropped(Drop.BAD_IP_CHECKSUM);
 			throw new IOException("Bad IP Checksum: Got " + storedChecksum + 
 					" Expected " + calculatedChecksum);
 		}
 		
-		System.out.println("Good");
+		log.trace("Checking IP Checksum... Good");
 	}
 	
-	private void validateChecksumUDP(byte[] data, int start, int end) 
-			throws IOException {
-		System.out.print("Checking UDP Checksum... ");
-		
-		int checksumIndex = start + 6;
-		
-		int storedChecksum = (int) (((data[checksumIndex] << 8) | 
-							 (data[checksumIndex + 1] & 0xFF)) & 0xFFFF);
-		int calculatedChecksum = UDP_Header.calculateChecksum(data, start, end);
+	private void validateChecksumUDP(ByteBuffer data) throws IOException {
+		int storedChecksum = UDP.checksum(data);
+		int calculatedChecksum = UDP.calculateChecksum(data, IP);
 		
 		if (storedChecksum != calculatedChecksum) {
+			metrics.dropped(Drop.BAD_UDP_CHECKSUM);
 			throw new IOException("Bad UDP Checksum: Got " + storedChecksum + 
 					" Expected " + calculatedChecksum);
 		}
 		
-		System.out.println("Good");
+		log.trace("Checking UDP Checksum... Good");
 	}
 	
-	private void validateChecksumICMP(byte[] data, int start, int end) 
+	private void validateChecksumICMP(ByteBuffer data, int end) 
 			throws IOException {
-		System.out.print("Checking ICMP Checksum... ");
-				
-		int checksumIndex = start + 2;
-		
-		int storedChecksum = (int) (((data[checksumIndex] << 8) | 
-							 (data[checksumIndex + 1] & 0xFF)) & 0xFFFF);
-		int calculatedChecksum = 
-				ICMP_Header.calculateChecksum(data, start, end);
+		int storedChecksum = ICMP.checksum(data);
+		int calculatedChecksum = ICMP.calculateChecksum(data, end);
 		
 		if (storedChecksum != calculatedChecksum) {
+			metrics.dropped(Drop.BAD_ICMP_CHECKSUM);
 			throw new IOException("Bad ICMP Checksum: Got " + storedChecksum + 
 					" Expected " + calculatedChecksum);
 		}
 		
-		System.out.println("Good");
+		log.trace("Checking ICMP Checksum... Good");
 	}
 	
 	/****************************************************************
-	 * Reads the configuration file based on the router_number.
+	 * Reads the prefixes from the configuration file based on the 
+	 * router_number. Each is "prefix PREFIX ADDRESS...", and a prefix
+	 * given more than one next hop, on one line or several, spreads 
+	 * its flows over them.
 	 * 
+	 * @param table the table to add the prefixes to.
 	 * @throws Exception if there is any issue with the configuration
 	 * file. (not found, improperly formatted, etc.)
 	 ***************************************************************/
-	private void readPrefixes() throws Exception {
-		String path = PATH + "router-" + router_number + ".txt";
+	private void readPrefixes(RoutingTable table) throws Exception {
+		String path = getConfigPath();
 				
 		BufferedReader br = new BufferedReader(new FileReader(path));
 		String line;
@@ -294,99 +973,325 @@ public class Router {
 			String[] splitStr = line.split(" ");
 
 			/* Skips improperly formated lines */
-			if (splitStr.length != 3) continue;
+			if (splitStr.length < 3) continue;
 			
-			String key = splitStr[1];
-			String[] keySplit = key.split("/");
+			int[] prefix = RoutingTable.parsePrefix(splitStr[1]);
 			
 			/* Skips improperly formated prefixes */
-			if (keySplit.length != 2) continue;
+			if (prefix == null) continue;
 			
-			int prefixLength = Integer.parseInt(keySplit[1]);
-			prefixLength /= 8; // in bytes
+			/* Each next hop is another equal cost path */
+			for (int i = 2; i < splitStr.length; i++) {
+				InetAddress value = null;
+				
+				/* Skips invalid IPv4 addresses */
+				try {
+					value = InetAddress.getByName(splitStr[i]);
+				} catch (UnknownHostException e) {
+					continue;
+				}
+				
+				table.addPath(prefix[0], prefix[1], value);
+			}
+		}
+		
+		br.close();
+	}
+	
+	/****************************************************************
+	 * Sends an ICMP message back to the source of the given packet.
+	 * The message quotes the IPv4 and UDP headers of the packet. No
+	 * message is sent about packets RFC 1812 forbids errors for, or
+	 * when over the ICMP rate limits.
+	 * 
+	 * @param type UNREACHABLE or TIME_EXCEEDED.
+	 * @param data the packet which caused the message.
+	 ***************************************************************/
+	private void sendICMP(int type, ByteBuffer data) 
+			throws IOException {
+		sendICMP(type, data, 0);
+	}
+	
+	/****************************************************************
+	 * Sends an ICMP message back to the source of the given packet,
+	 * as sendICMP(type, data) does.
+	 * 
+	 * @param type UNREACHABLE or TIME_EXCEEDED.
+	 * @param data the packet which caused the message.
+	 * @param mtu the MTU of the next link, to send Fragmentation
+	 * Needed as the UNREACHABLE message. 0 for Host Unknown.
+	 ***************************************************************/
+	private void sendICMP(int type, ByteBuffer data, int mtu) 
+			throws IOException {
+		if (!icmp.isAllowed(data)) {
+			metrics.icmpSuppressed();
+			return;
+		}
+		
+		RoutingTable table = prefixes;
+		
+		int virtSrc = IP.source(data);
+		InetAddress sender = findMatch(table, virtSrc);
+		
+		/* No route back to the sender either */
+		if (sender == null) {
+			if (log.isEnabled(Level.DEBUG)) {
+				log.debug("No route for ICMP to " + 
+						IP_Header.addressToString(virtSrc));
+			}
 			
-			String[] ipSplit = keySplit[0].split("\\.");
+			return;
+		}
+		
+		if (!icmp.tryAcquire(virtSrc)) {
+			metrics.icmpRateLimited();
+			return;
+		}
+		
+		// Fills in a copy of the template for this type
+		ByteBuffer packet = pool.acquire();
+		
+		if (mtu > 0) {
+			icmp.buildFragmentationNeeded(packet, data, 
+					table.getLocalAddress(), mtu);
+		} else {
+			icmp.build(packet, type, data, table.getLocalAddress());
+		}
+		
+		try {
+			transport.send(packet, sender);
+		} finally {
+			pool.release(packet);
+		}
+		
+		metrics.icmpSent();
+		
+		if (log.isEnabled(Level.DEBUG)) {
+			log.debug("Sent ICMP type " + type + " to " + 
+					IP_Header.addressToString(virtSrc));
+		}
+	}
+	
+	/****************************************************************
+	 * Reads the checksum policy lines of the configuration file. 
+	 * Each is "checksum MODE [N] [PREFIX]", where MODE is "all", "ip" 
+	 * or "sample" followed by N to check 1 in N packets. Without a 
+	 * prefix the line applies to every source. Malformed lines are 
+	 * skipped with a warning giving their line number.
+	 * 
+	 * @return the new policy.
+	 * @throws Exception if there is any issue with the configuration
+	 * file. (not found, improperly formatted, etc.)
+	 ***************************************************************/
+	private ChecksumPolicy readChecksumPolicy() throws Exception {
+		ChecksumPolicy policy = new ChecksumPolicy();
+		String path = getConfigPath();
+		
+		BufferedReader br = new BufferedReader(new FileReader(path));
+		String line;
+		
+		int number = 0;
+		
+		/* Reads the file line-by-line */
+		while ((line = br.readLine()) != null) {
+			number++;
 			
-			/* Skips improperly formatted IPv4 addresses in the prefix */
-			if (ipSplit.length != 4) continue;
-			key = "";
+			if (!line.startsWith("checksum ")) continue;
 			
-			/* Rebuilds prefix with only the relevant bytes. 
-			 * Example: "10.2.0.0/16" -> "10.2" */
-			for (int i = 0; i < prefixLength; i++) {
-				key += "." + ipSplit[i];
-			}
+			String[] strArr = line.trim().split(" +");
+			ChecksumPolicy.Mode mode = strArr.length < 2 ? 
+					null : ChecksumPolicy.Mode.parse(strArr[1]);
 			
-			InetAddress value = null;			
+			int next = 2;
+			int rate = 1;
+			int[] prefix = {0, 0};
 			
-			/* Skips invalid IPv4 addresses */
 			try {
-				value = InetAddress.getByName(splitStr[2]);
-			} catch (UnknownHostException e) {
+				if (mode == ChecksumPolicy.Mode.SAMPLED) {
+					rate = Integer.parseInt(strArr[next++]);
+				}
+				
+				if (strArr.length > next) {
+					prefix = RoutingTable.parsePrefix(strArr[next]);
+				}
+			} catch (RuntimeException e) {
+				mode = null;
+			}
+			
+			/* Skips improperly formated lines, saying which */
+			if (mode == null || prefix == null || rate < 1) {
+				log.warn(path + ":" + number + 
+						": skipped malformed checksum line \"" + line + "\"");
 				continue;
 			}
 			
-			prefixes.put(key.substring(1), value);
+			policy.add(prefix[0], prefix[1], mode, rate);
 		}
 		
 		br.close();
+		
+		return policy;
 	}
 	
-	private void sendICMP(int type, byte[] data, String src) 
-			throws IOException {
-		byte[] ipUDP = new byte[28];
-		
-		for (int i = 0; i < ipUDP.length; i++) {
-			ipUDP[i] = data[i];
-		}
+	/****************************************************************
+	 * Reads the optional settings lines of the configuration file.
+	 * "workers N" is the number of threads which handle received 
+	 * packets. "batch K" is the most packets the single threaded loop
+	 * receives per wakeup. "log LEVEL" sets the console log level, 
+	 * one of error, warn, info, debug or trace. "cache N" sets the 
+	 * number of route cache entries, 0 turns the cache off. 
+	 * "admin PORT" serves the metrics as text on a localhost port.
+	 * "icmp-rate N" and "icmp-source-rate N" limit the ICMP errors 
+	 * sent per second in total and to one source, 0 for no limit.
+	 * "reassembly-memory BYTES" and "reassembly-timeout MS" limit the
+	 * memory for fragments of packets to the router and how long the
+	 * rest of a packet is waited for. "routing link-state" switches 
+	 * from distance vector to link state routing, and
+	 * "routing-interval SECONDS" is the time between full routing 
+	 * updates. "egress-queue BYTES" limits the packets waiting for 
+	 * each busy link.
+	 * 
+	 * @throws Exception if there is any issue with the configuration
+	 * file. (not found, improperly formatted, etc.)
+	 ***************************************************************/
+	private void readSettings() throws Exception {
+		String path = getConfigPath();
 		
-		InetAddress sender = findMatch(src); 
+		BufferedReader br = new BufferedReader(new FileReader(path));
+		String line;
 		
-		InetAddress virtSrc = InetAddress.getByName(src);
+		/* Reads the file line-by-line */
+		while ((line = br.readLine()) != null) {
+			String[] strArr = line.split(" ");
+			
+			/* Skips lines which aren't a setting and its value */
+			if (strArr.length != 2) continue;
+			
+			if (strArr[0].equals("workers")) {
+				workers = Math.max(1, Integer.parseInt(strArr[1]));
+			} else if (strArr[0].equals("batch")) {
+				batchSize = Math.max(1, Integer.parseInt(strArr[1]));
+			} else if (strArr[0].equals("cache")) {
+				int size = Integer.parseInt(strArr[1]);
+				cache = size > 0 ? new RouteCache(size) : null;
+			} else if (strArr[0].equals("icmp-rate")) {
+				icmpRate = Math.max(0, Integer.parseInt(strArr[1]));
+			} else if (strArr[0].equals("icmp-source-rate")) {
+				icmpSourceRate = Math.max(0, Integer.parseInt(strArr[1]));
+			} else if (strArr[0].equals("reassembly-memory")) {
+				reassemblyMemory = Math.max(0, Integer.parseInt(strArr[1]));
+			} else if (strArr[0].equals("reassembly-timeout")) {
+				reassemblyTimeout = Math.max(0, Integer.parseInt(strArr[1]));
+			} else if (strArr[0].equals("routing")) {
+				linkState = strArr[1].equals("link-state");
+			} else if (strArr[0].equals("routing-interval")) {
+				routingInterval = Math.max(1, Integer.parseInt(strArr[1]));
+			} else if (strArr[0].equals("egress-queue")) {
+				egressQueue = Math.max(0, Integer.parseInt(strArr[1]));
+			} else if (strArr[0].equals("admin")) {
+				adminPort = Integer.parseInt(strArr[1]);
+			} else if (strArr[0].equals("log")) {
+				Level level = Level.parse(strArr[1]);
+				
+				if (level != null) log.setLevel(level);
+			}
+		}
 		
-		IP_Header ipHeader = new IP_Header(1);
-		ipHeader.setDestination(virtSrc);
-		ipHeader.setSource(routerAddresses.get(0));
-		ipHeader.setDataSize(36);
-		String ipBits = ipHeader.getBitString();
+		br.close();
+	}
+	
+	/****************************************************************
+	 * Reads the virtual addresses of this router from the 
+	 * configuration file based on the router_number.
+	 * 
+	 * @param table the table to add the addresses to.
+	 * @throws Exception if there is any issue with the configuration
+	 * file. (not found, improperly formatted, etc.)
+	 ***************************************************************/
+	private void readAddresses(RoutingTable table) throws Exception {
+		String path = getConfigPath();
 		
-		byte[] ipBytes = new byte[20];
+		BufferedReader br = new BufferedReader(new FileReader(path));
+		String line;
 		
-		/* Converts the bit strings into bytes and adds them
-		 * to the byte array. */
-		for (int i = 0; i < ipBytes.length; i++) {
-			int start = i * 8;
-			int end = start + 8;
+		/* Reads the file line-by-line */
+		while ((line = br.readLine()) != null) {
+			
+			if (!line.startsWith("address ")) continue;
 			
-			String octet = ipBits.substring(start, end);
+			String[] strArr = line.split(" ");
+			InetAddress addr = null;
 			
-			ipBytes[i] = (byte) Integer.parseInt(octet, 2);
+			try {
+				addr = InetAddress.getByName(strArr[1]);
+			} catch (UnknownHostException e) {
+				continue;
+			}
+			
+			table.addLocal(IP_Header.addressToInt(addr));
 		}
 		
-		ICMP_Header icmp = new ICMP_Header(type);
-		byte[] icmpBytes = icmp.getBytes(ipUDP);
-		icmpBytes = icmp.getBytes(ipUDP); // Need this twice!
-				
-		byte[] packetBytes = new byte[ipBytes.length + icmpBytes.length];
+		br.close();
+	}
+	
+	/****************************************************************
+	 * Reads the neighbor lines of the configuration file. Each is 
+	 * "neighbor ADDRESS [COST]", where ADDRESS is the "real" address 
+	 * of a router to exchange routes with and COST the cost of the 
+	 * link to it, 1 by default.
+	 * 
+	 * @return the cost of the link to each neighbor.
+	 * @throws Exception if there is any issue with the configuration
+	 * file. (not found, improperly formatted, etc.)
+	 ***************************************************************/
+	private Map<InetAddress, Integer> readNeighbors() throws Exception {
+		Map<InetAddress, Integer> neighbors = 
+				new LinkedHashMap<InetAddress, Integer>();
+		String path = getConfigPath();
 		
-		for (int i = 0; i < ipBytes.length; i++) {
-			packetBytes[i] = ipBytes[i];
-		}
+		BufferedReader br = new BufferedReader(new FileReader(path));
+		String line;
 		
-		for (int i = 0; i < icmpBytes.length; i++) {
-			packetBytes[i + ipBytes.length] = icmpBytes[i];
+		/* Reads the file line-by-line */
+		while ((line = br.readLine()) != null) {
+			
+			if (!line.startsWith("neighbor ")) continue;
+			
+			String[] strArr = line.split(" ");
+			InetAddress addr = null;
+			
+			try {
+				addr = InetAddress.getByName(strArr[1]);
+			} catch (UnknownHostException e) {
+				continue;
+			}
+			
+			int cost = 1;
+			
+			if (strArr.length > 2) {
+				cost = Integer.parseInt(strArr[2]);
+				cost = Math.max(1, Math.min(DistanceVector.INFINITY - 1, cost));
+			}
+			
+			neighbors.put(addr, cost);
 		}
 		
-		DatagramPacket sendPkt = new DatagramPacket(packetBytes, 
-				packetBytes.length, sender, PORT);
-		
-		routerSocket.send(sendPkt);
+		br.close();
 		
-		System.out.println("Sent ICMP type " + type + " to " + src);
+		return neighbors;
 	}
 	
-	private void readAddresses() throws Exception {
-		String path = PATH + "router-" + router_number + ".txt";
+	/****************************************************************
+	 * Reads the link MTU lines of the configuration file. Each is
+	 * "mtu ADDRESS BYTES", where ADDRESS is the "real" address of a
+	 * next hop. Links without one carry any packet.
+	 * 
+	 * @param table the table to set the MTUs in.
+	 * @throws Exception if there is any issue with the configuration
+	 * file. (not found, improperly formatted, etc.)
+	 ***************************************************************/
+	private void readMtus(RoutingTable table) throws Exception {
+		String path = getConfigPath();
 		
 		BufferedReader br = new BufferedReader(new FileReader(path));
 		String line;
@@ -394,9 +1299,13 @@ public class Router {
 		/* Reads the file line-by-line */
 		while ((line = br.readLine()) != null) {
 			
-			if (!line.startsWith("address ")) continue;
+			if (!line.startsWith("mtu ")) continue;
 			
 			String[] strArr = line.split(" ");
+			
+			/* Skips improperly formated lines */
+			if (strArr.length != 3) continue;
+			
 			InetAddress addr = null;
 			
 			try {
@@ -405,38 +1314,269 @@ public class Router {
 				continue;
 			}
 			
-			routerAddresses.add(addr);
+			table.setMtu(addr, Integer.parseInt(strArr[2]));
 		}
 		
 		br.close();
 	}
 	
 	/****************************************************************
-	 * Converts the 4 bytes from the given starting index into
-	 * IPv4 format as a String.
+	 * Reads the link rate lines of the configuration file. Each is
+	 * "rate ADDRESS BYTES_PER_SECOND [BURST_BYTES]", where ADDRESS is
+	 * the "real" address of a next hop. Packets beyond the rate are 
+	 * delayed, not dropped. The burst is 10 ms at the rate by 
+	 * default.
 	 * 
-	 * @param data the byte array containing the IPv4 address.
-	 * @param start the index of the first byte of the address.
-	 * @return String representation of the address.
+	 * @return the rate of each shaped link.
+	 * @throws Exception if there is any issue with the configuration
+	 * file. (not found, improperly formatted, etc.)
 	 ***************************************************************/
-	private String translateIP(byte[] data, int start) {
-		String ip = "";
+	private Map<InetAddress, EgressScheduler.Rate> readRates() 
+			throws Exception {
+		Map<InetAddress, EgressScheduler.Rate> rates = 
+				new LinkedHashMap<InetAddress, EgressScheduler.Rate>();
+		String path = getConfigPath();
+		
+		BufferedReader br = new BufferedReader(new FileReader(path));
+		String line;
 		
-		for (int i = 0; i < 4; i++) {
-			ip += "." + Integer.toString((int) (data[i + start] & 0xFF));
+		/* Reads the file line-by-line */
+		while ((line = br.readLine()) != null) {
+			
+			if (!line.startsWith("rate ")) continue;
+			
+			String[] strArr = line.split(" ");
+			
+			/* Skips improperly formated lines */
+			if (strArr.length < 3) continue;
+			
+			InetAddress addr = null;
+			
+			try {
+				addr = InetAddress.getByName(strArr[1]);
+			} catch (UnknownHostException e) {
+				continue;
+			}
+			
+			long rate = Long.parseLong(strArr[2]);
+			long burst = rate * DEFAULT_BURST_MILLIS / 1000;
+			
+			if (strArr.length > 3) {
+				burst = Long.parseLong(strArr[3]);
+			}
+			
+			if (rate > 0) {
+				rates.put(addr, new EgressScheduler.Rate(rate, 
+						(int) Math.min(Integer.MAX_VALUE, burst)));
+			}
 		}
 		
-		return ip.substring(1);
+		br.close();
+		
+		return rates;
 	}
 	
+	/****************************************************************
+	 * Receives and handles packets until the router is closed. With
+	 * more than one worker this thread only receives, and each packet
+	 * is handed to a worker picked by its virtual source address so 
+	 * that packets from one host stay in order.
+	 ***************************************************************/
 	public void begin() {
+		if (workers == 1 && batchSize > 1) {
+			beginBatched();
+			return;
+		}
+		
+		if (workers == 1) {
+			while(true) {
+				try {
+					processPacket(receivePacket());
+				} catch (ClosedChannelException e) {
+					return;
+				} catch (IOException e) {
+					log.warn(e.getMessage());
+					continue;
+				}
+			}
+		}
+		
+		List<BlockingQueue<ByteBuffer>> queues = 
+				new ArrayList<BlockingQueue<ByteBuffer>>();
+		
+		// The queues share the pool, so a burst is dropped instead of 
+		// allocating ever more buffers
+		int queueSize = Math.max(1, POOL_SIZE / workers);
+		
+		for (int i = 0; i < workers; i++) {
+			BlockingQueue<ByteBuffer> queue = 
+					new ArrayBlockingQueue<ByteBuffer>(queueSize);
+			queues.add(queue);
+			
+			Thread t = new Thread(new Worker(queue), "router-worker-" + i);
+			t.setDaemon(true);
+			t.start();
+		}
+		
 		while(true) {
+			ByteBuffer packet;
+			
 			try {
-				handlePacket();
+				packet = receivePacket();
+			} catch (ClosedChannelException e) {
+				return;
 			} catch (IOException e) {
-				System.err.println(e.getMessage());
+				log.warn(e.getMessage());
 				continue;
 			}
+			
+			int src = packet.limit() >= IP_Header.LENGTH ? IP.source(packet) : 0;
+			int hash = (src ^ (src >>> 16)) & 0x7FFFFFFF;
+			
+			/* Drops the packet rather than stalling every worker */
+			if (!queues.get(hash % workers).offer(packet)) {
+				pool.release(packet);
+				metrics.dropped(Drop.QUEUE_FULL);
+				log.warn("Worker queue full, packet dropped");
+			}
+		}
+	}
+	
+	/****************************************************************
+	 * Receives and handles packets until the router is closed, in 
+	 * batches of up to batchSize. The first packet of a batch is 
+	 * waited for, then any others already waiting are drained without
+	 * blocking. The whole batch is validated and looked up before all
+	 * of it is sent.
+	 ***************************************************************/
+	private void beginBatched() {
+		ByteBuffer[] batch = new ByteBuffer[batchSize];
+		InetAddress[] nextHops = new InetAddress[batchSize];
+		TrafficClass[] classes = new TrafficClass[batchSize];
+		TrafficClass[] order = TrafficClass.values();
+		long[] starts = new long[batchSize];
+		
+		while(true) {
+			int count = 0;
+			
+			/* Fills the batch */
+			try {
+				ByteBuffer buf = receivePacket();
+				batch[count++] = buf;
+				
+				while (count < batchSize) {
+					buf = pollPacket();
+					
+					if (buf == null) break;
+					
+					batch[count++] = buf;
+				}
+			} catch (ClosedChannelException e) {
+				if (count == 0) return;
+			} catch (IOException e) {
+				log.warn(e.getMessage());
+			}
+			
+			/* Validates and looks up every packet */
+			for (int i = 0; i < count; i++) {
+				starts[i] = System.nanoTime();
+				
+				try {
+					nextHops[i] = routePacket(batch[i]);
+				} catch (IOException e) {
+					nextHops[i] = null;
+					log.warn(e.getMessage());
+				} catch (RuntimeException e) {
+					nextHops[i] = null;
+					handleError(e);
+				}
+				
+				/* Packets delivered or dropped are done with */
+				if (nextHops[i] == null) {
+					metrics.latency(System.nanoTime() - starts[i]);
+				} else {
+					classes[i] = TrafficClass.of(IP.tos(batch[i]));
+				}
+			}
+			
+			/* Flushes the sends, the most urgent class first */
+			for (TrafficClass trafficClass : order) {
+				for (int i = 0; i < count; i++) {
+					if (nextHops[i] == null || classes[i] != trafficClass) {
+						continue;
+					}
+					
+					try {
+						sendPacket(batch[i], nextHops[i]);
+					} catch (IOException e) {
+						log.warn(e.getMessage());
+					} catch (RuntimeException e) {
+						handleError(e);
+					} finally {
+						metrics.latency(System.nanoTime() - starts[i]);
+						nextHops[i] = null;
+						classes[i] = null;
+					}
+				}
+			}
+			
+			/* Recycles the buffers */
+			for (int i = 0; i < count; i++) {
+				pool.release(batch[i]);
+				batch[i] = null;
+			}
+		}
+	}
+	
+	/****************************************************************
+	 * Handles a received packet, then returns its buffer to the pool.
+	 * 
+	 * @param buf the buffer holding the packet.
+	 ***************************************************************/
+	private void processPacket(ByteBuffer buf) {
+		long start = System.nanoTime();
+		
+		try {
+			handlePacket(buf);
+		} catch (IOException e) {
+			log.warn(e.getMessage());
+		} catch (RuntimeException e) {
+			handleError(e);
+		} finally {
+			metrics.latency(System.nanoTime() - start);
+			pool.release(buf);
+		}
+	}
+	
+	/****************************************************************
+	 * Drops a packet which threw while being handled, so one bad 
+	 * packet can't end the thread handling every other.
+	 * 
+	 * @param e what the packet threw.
+	 ***************************************************************/
+	private void handleError(RuntimeException e) {
+		metrics.dropped(Drop.ERROR);
+		log.warn("Dropped packet: " + e);
+	}
+	
+	/* Handles the packets placed in its queue by the receive thread. */
+	private class Worker implements Runnable {
+		
+		private final BlockingQueue<ByteBuffer> queue;
+		
+		private Worker(BlockingQueue<ByteBuffer> queue) {
+			this.queue = queue;
+		}
+		
+		@Override
+		public void run() {
+			while(true) {
+				try {
+					processPacket(queue.take());
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
 		}
 	}
 	
@@ -469,8 +1609,21 @@ public class Router {
 			System.err.println(message);
 		}
 		
-		if (router != null) 
+		if (router != null) {
+			final Router started = router;
+			
+			// Flushes the log when the router is stopped with Ctrl-C
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					try {
+						started.close();
+					} catch (IOException e) {}
+				}
+			});
+			
 			router.begin();
+		}
 		
 	}
 }
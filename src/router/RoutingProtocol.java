@@ -0,0 +1,318 @@
+package router;
+
+import transport.Transport;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/********************************************************************
+ * RoutingProtocol.java
+ *
+ * Base of the dynamic routing protocols, which learn routes from the
+ * neighbors in a router's configuration file. 
+ *
+ * All of a protocol's work is done on a thread of its own. Forwarding
+ * threads only queue received messages for it, and when the routes
+ * change the router is called back to swap in a new table, so 
+ * forwarding never waits for routing. Subclasses are only ever called
+ * with the protocol's lock held.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public abstract class RoutingProtocol implements Runnable {
+
+	/** Default seconds between full updates. */
+	public static final int DEFAULT_INTERVAL = 30;
+
+	/** Most received messages waiting for the routing thread. */
+	private static final int QUEUE_SIZE = 256;
+
+	protected final Transport transport;
+
+	protected final Log log;
+
+	/** Called on the routing thread when the learned routes change. */
+	private final Runnable onChange;
+
+	/** Received messages waiting for the routing thread. */
+	private final BlockingQueue<Update> received;
+
+	private Thread thread;
+
+	private volatile boolean closed;
+
+	/** Measures the CPU time of the routing thread. */
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	private final LongAdder updatesSent = new LongAdder();
+	private final LongAdder updatesReceived = new LongAdder();
+	private final LongAdder routeChanges = new LongAdder();
+	private final LongAdder cpuNanos = new LongAdder();
+
+	/** Wall clock time of the last route change, in milliseconds. */
+	private volatile long lastChange;
+
+	/****************************************************************
+	 * Constructor for RoutingProtocol. Nothing is sent until start().
+	 *
+	 * @param transport the "real" network to send messages on.
+	 * @param log the router's log.
+	 * @param onChange called on the routing thread whenever the 
+	 * learned routes change.
+	 ***************************************************************/
+	protected RoutingProtocol(Transport transport, Log log, 
+			Runnable onChange) {
+		this.transport = transport;
+		this.log = log;
+		this.onChange = onChange;
+
+		received = new ArrayBlockingQueue<Update>(QUEUE_SIZE);
+	}
+
+	/****************************************************************
+	 * Sets the neighbors and static routes. The routing thread is 
+	 * woken to tell the neighbors.
+	 *
+	 * @param neighbors the cost of the link to each neighbor, by its
+	 * "real" address.
+	 * @param statics the routes and addresses from the configuration
+	 * file, which always win over learned ones.
+	 * @param interval seconds between full updates.
+	 ***************************************************************/
+	public abstract void configure(Map<InetAddress, Integer> neighbors,
+			RoutingTable statics, int interval);
+
+	/****************************************************************
+	 * Adds every reachable learned route to the table.
+	 *
+	 * @param table a table which has not been published yet.
+	 ***************************************************************/
+	public abstract void addRoutes(RoutingTable table);
+
+	/****************************************************************
+	 * @return the number of reachable learned routes.
+	 ***************************************************************/
+	public abstract int getRouteCount();
+
+	/****************************************************************
+	 * Called once on the routing thread before any message.
+	 *
+	 * @param now the current System.nanoTime().
+	 ***************************************************************/
+	protected abstract void begin(long now);
+
+	/****************************************************************
+	 * Handles a received message.
+	 *
+	 * @param sender the "real" address the message came from.
+	 * @param buf the message, from 0 to its limit.
+	 * @param now the current System.nanoTime().
+	 ***************************************************************/
+	protected abstract void handle(InetAddress sender, ByteBuffer buf, 
+			long now);
+
+	/****************************************************************
+	 * Does the timed work after the waiting messages are handled.
+	 *
+	 * @param now the current System.nanoTime().
+	 * @return true if the learned routes changed since the last call.
+	 ***************************************************************/
+	protected abstract boolean tick(long now);
+
+	/****************************************************************
+	 * @param now the current System.nanoTime().
+	 * @return how long the routing thread may sleep before the next
+	 * tick, in milliseconds.
+	 ***************************************************************/
+	protected abstract long waitMillis(long now);
+
+	/****************************************************************
+	 * Starts the routing thread.
+	 ***************************************************************/
+	public synchronized void start() {
+		if (thread != null) return;
+
+		thread = new Thread(this, "router-routing");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/****************************************************************
+	 * Stops the routing thread.
+	 ***************************************************************/
+	public synchronized void close() {
+		closed = true;
+
+		if (thread != null) thread.interrupt();
+	}
+
+	/****************************************************************
+	 * Queues a received message for the routing thread. Never blocks,
+	 * the message is dropped if the queue is full.
+	 *
+	 * @param buf the buffer holding the packet from 0 to its limit.
+	 * It is copied, so may be reused straight away.
+	 * @param sender the "real" address the packet came from.
+	 ***************************************************************/
+	public void receive(ByteBuffer buf, InetAddress sender) {
+		ByteBuffer src = buf.duplicate();
+		src.position(0);
+
+		byte[] data = new byte[src.remaining()];
+		src.get(data);
+
+		if (!received.offer(new Update(sender, data))) {
+			log.debug("Routing queue full, update dropped");
+		}
+	}
+
+	/****************************************************************
+	 * @return the number of messages sent.
+	 ***************************************************************/
+	public long getUpdatesSent() {
+		return updatesSent.sum();
+	}
+
+	/****************************************************************
+	 * @return the number of valid messages received from neighbors.
+	 ***************************************************************/
+	public long getUpdatesReceived() {
+		return updatesReceived.sum();
+	}
+
+	/****************************************************************
+	 * @return the number of times a learned route was added, changed
+	 * or lost.
+	 ***************************************************************/
+	public long getRouteChanges() {
+		return routeChanges.sum();
+	}
+
+	/****************************************************************
+	 * @return the wall clock time of the last route change in 
+	 * milliseconds, or 0 if there has been none.
+	 ***************************************************************/
+	public long getLastChange() {
+		return lastChange;
+	}
+
+	/****************************************************************
+	 * @return the CPU time the routing thread has used handling and
+	 * sending messages and swapping in tables, in nanoseconds.
+	 ***************************************************************/
+	public long getCpuNanos() {
+		return cpuNanos.sum();
+	}
+
+	@Override
+	public void run() {
+		synchronized (this) {
+			begin(System.nanoTime());
+		}
+
+		while (!closed) {
+			Update update;
+
+			try {
+				long wait;
+
+				synchronized (this) {
+					wait = waitMillis(System.nanoTime());
+				}
+
+				update = received.poll(Math.max(0, wait), 
+						TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			long start = cpuTime();
+			boolean changed;
+
+			synchronized (this) {
+				long now = System.nanoTime();
+
+				/* Handles every message waiting, then ticks once */
+				while (update != null) {
+					if (update.data != null) {
+						handle(update.sender, ByteBuffer.wrap(update.data), 
+								now);
+					}
+
+					update = received.poll();
+				}
+
+				changed = tick(now);
+			}
+
+			// Outside the lock, the router takes its table lock
+			if (changed) onChange.run();
+
+			cpuNanos.add(cpuTime() - start);
+		}
+	}
+
+	/****************************************************************
+	 * Wakes the routing thread to tick.
+	 ***************************************************************/
+	protected void wake() {
+		received.offer(new Update(null, null));
+	}
+
+	/****************************************************************
+	 * Counts a message sent.
+	 ***************************************************************/
+	protected void sent() {
+		updatesSent.increment();
+	}
+
+	/****************************************************************
+	 * Counts a valid message received.
+	 ***************************************************************/
+	protected void accepted() {
+		updatesReceived.increment();
+	}
+
+	/****************************************************************
+	 * Counts a learned route added, changed or lost.
+	 ***************************************************************/
+	protected void routeChanged() {
+		routeChanges.increment();
+		lastChange = System.currentTimeMillis();
+	}
+
+	private long cpuTime() {
+		if (threads.isCurrentThreadCpuTimeSupported()) {
+			return threads.getCurrentThreadCpuTime();
+		}
+
+		return System.nanoTime();
+	}
+
+	/****************************************************************
+	 * @return a key identifying a prefix and its length.
+	 ***************************************************************/
+	protected static long key(int prefix, int length) {
+		return ((prefix & 0xFFFFFFFFL) << 6) | length;
+	}
+
+	/* A received message, or an empty one to wake the thread. */
+	private static final class Update {
+
+		private final InetAddress sender;
+
+		private final byte[] data;
+
+		private Update(InetAddress sender, byte[] data) {
+			this.sender = sender;
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,495 @@
+package router;
+
+import headers.IP_Header;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/********************************************************************
+ * RoutingTable.java
+ *
+ * Longest prefix match table for the router. Prefixes are stored
+ * as 32-bit ints with their real bit length in a path-compressed
+ * binary trie, so a lookup visits at most one node per branching
+ * point and never allocates. The table also holds the virtual
+ * addresses of the router itself and the MTU of each link.
+ *
+ * A prefix may have several equal cost next hops. Each flow is kept
+ * on one of them by a hash of its addresses and ports, so packets of
+ * a flow are not reordered, while flows are spread evenly.
+ *
+ * A table is filled by one thread and then published to the
+ * forwarding threads, after which it is never modified. Changes are
+ * made by building a new table and swapping it in.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class RoutingTable {
+
+	/** Root of the trie. Always the zero length prefix. */
+	private final Node root;
+
+	/** Number of prefixes stored in the table. */
+	private int size;
+
+	/** The virtual addresses of the router as ints. */
+	private int[] localAddresses;
+
+	/** MTU of the links to next hops which have one configured. */
+	private final Map<InetAddress, Integer> mtus;
+
+	/****************************************************************
+	 * Constructor for an empty RoutingTable.
+	 ***************************************************************/
+	public RoutingTable() {
+		root = new Node(0, 0);
+		size = 0;
+		localAddresses = new int[0];
+		mtus = new HashMap<InetAddress, Integer>();
+	}
+
+	/****************************************************************
+	 * Adds a prefix to the table. Any bits of the prefix beyond the
+	 * given length are ignored. Adding a prefix that is already in
+	 * the table replaces its next hops.
+	 *
+	 * @param prefix the IPv4 prefix as an int.
+	 * @param length the number of significant bits (0 to 32).
+	 * @param nextHop the "real" address associated with the prefix.
+	 ***************************************************************/
+	public void add(int prefix, int length, InetAddress nextHop) {
+		Node node = insert(prefix, length);
+
+		if (node.nextHops == null) size++;
+
+		node.nextHops = new InetAddress[] {nextHop};
+	}
+
+	/****************************************************************
+	 * Adds an equal cost next hop to a prefix, adding the prefix if
+	 * it is not in the table yet. A next hop the prefix already has
+	 * is not added again.
+	 *
+	 * @param prefix the IPv4 prefix as an int.
+	 * @param length the number of significant bits (0 to 32).
+	 * @param nextHop the "real" address of another path to the prefix.
+	 ***************************************************************/
+	public void addPath(int prefix, int length, InetAddress nextHop) {
+		Node node = insert(prefix, length);
+
+		if (node.nextHops == null) {
+			node.nextHops = new InetAddress[] {nextHop};
+			size++;
+			return;
+		}
+
+		for (InetAddress hop : node.nextHops) {
+			if (hop.equals(nextHop)) return;
+		}
+
+		// Copied rather than grown in place, so a published array is
+		// never changed
+		InetAddress[] grown = Arrays.copyOf(node.nextHops,
+				node.nextHops.length + 1);
+		grown[node.nextHops.length] = nextHop;
+		node.nextHops = grown;
+	}
+
+	/****************************************************************
+	 * Finds the node of a prefix, adding it and any branching node 
+	 * needed above it if it is not in the trie. A new node has no
+	 * next hops.
+	 *
+	 * @return the node of the prefix.
+	 ***************************************************************/
+	private Node insert(int prefix, int length) {
+		if (length < 0 || length > 32) {
+			throw new IllegalArgumentException(
+					"Invalid prefix length: " + length);
+		}
+
+		prefix &= mask(length);
+
+		Node node = root;
+
+		while (true) {
+
+			/* The prefix ends at this node */
+			if (node.length == length) return node;
+
+			int bit = bitAt(prefix, node.length);
+			Node child = node.children[bit];
+
+			/* Nothing on this side yet, hang a new leaf */
+			if (child == null) {
+				child = new Node(prefix, length);
+				node.children[bit] = child;
+				return child;
+			}
+
+			int common = commonLength(child.prefix, child.length,
+					prefix, length);
+
+			/* The child is a prefix of the new prefix, keep walking */
+			if (common == child.length) {
+				node = child;
+				continue;
+			}
+
+			/* The paths diverge inside the child's compressed edge,
+			 * so a branching node is inserted at the split point. */
+			Node split = new Node(prefix & mask(common), common);
+			split.children[bitAt(child.prefix, common)] = child;
+			node.children[bit] = split;
+
+			if (common == length) return split;
+
+			Node leaf = new Node(prefix, length);
+			split.children[bitAt(prefix, common)] = leaf;
+
+			return leaf;
+		}
+	}
+
+	/****************************************************************
+	 * Finds the next hop of the longest prefix which matches the
+	 * given destination. If the prefix has several, the first is
+	 * returned.
+	 *
+	 * @param dest the destination IPv4 address as an int.
+	 * @return the next hop, or null if no prefix matches.
+	 ***************************************************************/
+	public InetAddress lookup(int dest) {
+		InetAddress[] paths = paths(dest);
+
+		return paths == null ? null : paths[0];
+	}
+
+	/****************************************************************
+	 * Finds the next hop of the longest prefix which matches the
+	 * given destination, choosing between equal cost next hops by the
+	 * hash of the packet's flow.
+	 *
+	 * @param dest the destination IPv4 address as an int.
+	 * @param flow hash of the packet's flow.
+	 * @return the next hop, or null if no prefix matches.
+	 ***************************************************************/
+	public InetAddress lookup(int dest, int flow) {
+		InetAddress[] paths = paths(dest);
+
+		return paths == null ? null : select(paths, flow);
+	}
+
+	/****************************************************************
+	 * Finds every next hop of the longest prefix which matches the
+	 * given destination. The array is the table's own and must not be
+	 * changed.
+	 *
+	 * @param dest the destination IPv4 address as an int.
+	 * @return the next hops, or null if no prefix matches.
+	 ***************************************************************/
+	InetAddress[] paths(int dest) {
+		InetAddress[] best = null;
+		Node node = root;
+
+		while (node != null) {
+
+			/* Stops once the destination leaves the compressed path */
+			if (((dest ^ node.prefix) & mask(node.length)) != 0) break;
+
+			if (node.nextHops != null) best = node.nextHops;
+
+			if (node.length == 32) break;
+
+			node = node.children[bitAt(dest, node.length)];
+		}
+
+		return best;
+	}
+
+	/****************************************************************
+	 * Chooses one of several next hops for a flow. The hash is scaled
+	 * onto the number of paths rather than taken modulo it, so every
+	 * path gets an even share of the hash values.
+	 *
+	 * @param paths the next hops of a prefix.
+	 * @param flow hash of the packet's flow.
+	 * @return the next hop for the flow.
+	 ***************************************************************/
+	static InetAddress select(InetAddress[] paths, int flow) {
+		if (paths.length == 1) return paths[0];
+
+		return paths[(int) (((flow & 0xFFFFFFFFL) * paths.length) >>> 32)];
+	}
+
+	/****************************************************************
+	 * Adds a virtual address of the router itself.
+	 *
+	 * @param addr the IPv4 address as an int.
+	 ***************************************************************/
+	public void addLocal(int addr) {
+		int[] grown = Arrays.copyOf(localAddresses, localAddresses.length + 1);
+		grown[localAddresses.length] = addr;
+		localAddresses = grown;
+	}
+
+	/****************************************************************
+	 * @param addr an IPv4 address as an int.
+	 * @return true if the address belongs to the router itself.
+	 ***************************************************************/
+	public boolean isLocal(int addr) {
+		for (int local : localAddresses) {
+			if (local == addr) return true;
+		}
+
+		return false;
+	}
+
+	/****************************************************************
+	 * @return the virtual addresses of the router as ints.
+	 ***************************************************************/
+	public int[] getLocalAddresses() {
+		return localAddresses.clone();
+	}
+
+	/****************************************************************
+	 * @return the first virtual address of the router, used as the
+	 * source of packets it creates. 0 if it has none.
+	 ***************************************************************/
+	public int getLocalAddress() {
+		return localAddresses.length == 0 ? 0 : localAddresses[0];
+	}
+
+	/****************************************************************
+	 * Sets the MTU of the link to a next hop. Values below the
+	 * minimum every link must carry are raised to it.
+	 *
+	 * @param nextHop the "real" address of the next hop.
+	 * @param mtu the largest packet the link carries, in bytes.
+	 ***************************************************************/
+	public void setMtu(InetAddress nextHop, int mtu) {
+		mtus.put(nextHop, Math.min(IP_Header.MAX_LENGTH,
+				Math.max(IP_Header.MIN_MTU, mtu)));
+	}
+
+	/****************************************************************
+	 * @param nextHop the "real" address of a next hop.
+	 * @return the MTU of the link to it, IP_Header.MAX_LENGTH if none
+	 * is configured.
+	 ***************************************************************/
+	public int getMtu(InetAddress nextHop) {
+		if (mtus.isEmpty()) return IP_Header.MAX_LENGTH;
+
+		Integer mtu = mtus.get(nextHop);
+
+		return mtu == null ? IP_Header.MAX_LENGTH : mtu;
+	}
+
+	/****************************************************************
+	 * @return the number of prefixes in the table.
+	 ***************************************************************/
+	public int size() {
+		return size;
+	}
+
+	/****************************************************************
+	 * @return every prefix in the table, in address order.
+	 ***************************************************************/
+	public List<Entry> entries() {
+		List<Entry> entries = new ArrayList<Entry>(size);
+
+		List<Node> stack = new ArrayList<Node>();
+		stack.add(root);
+
+		/* Pre-order walk, zero side first */
+		while (!stack.isEmpty()) {
+			Node node = stack.remove(stack.size() - 1);
+
+			if (node.nextHops != null) {
+				entries.add(new Entry(node.prefix, node.length, 
+						node.nextHops));
+			}
+
+			if (node.children[1] != null) stack.add(node.children[1]);
+			if (node.children[0] != null) stack.add(node.children[0]);
+		}
+
+		return entries;
+	}
+
+	/****************************************************************
+	 * Returns the contents of the table in address order. Keys are
+	 * in the format: IPv4/prefix_length.
+	 *
+	 * @return map of every prefix to its first next hop.
+	 ***************************************************************/
+	public Map<String, InetAddress> toMap() {
+		Map<String, InetAddress> map =
+				new LinkedHashMap<String, InetAddress>();
+
+		for (Entry e : entries()) {
+			map.put(e.toString(), e.getNextHop());
+		}
+
+		return map;
+	}
+
+	/****************************************************************
+	 * @return a new table with the same prefixes, addresses and MTUs,
+	 * which may be added to before it is published.
+	 ***************************************************************/
+	public RoutingTable copy() {
+		RoutingTable table = new RoutingTable();
+
+		for (Entry e : entries()) {
+			table.insert(e.prefix, e.length).nextHops = e.nextHops;
+			table.size++;
+		}
+
+		table.localAddresses = localAddresses;
+		table.mtus.putAll(mtus);
+
+		return table;
+	}
+
+	/****************************************************************
+	 * Parses a prefix in the format IPv4/prefix_length into its
+	 * address and length. "default" is accepted for 0.0.0.0/0.
+	 *
+	 * @param str the prefix string.
+	 * @return two element array holding the prefix and its length,
+	 * or null if the string is improperly formatted.
+	 ***************************************************************/
+	public static int[] parsePrefix(String str) {
+		if (str.equals("default")) return new int[] {0, 0};
+
+		String[] split = str.split("/");
+
+		if (split.length != 2) return null;
+
+		String[] octets = split[0].split("\\.");
+
+		if (octets.length != 4) return null;
+
+		try {
+			int length = Integer.parseInt(split[1]);
+
+			if (length < 0 || length > 32) return null;
+
+			int prefix = 0;
+
+			for (int i = 0; i < octets.length; i++) {
+				int octet = Integer.parseInt(octets[i]);
+
+				if (octet < 0 || octet > 255) return null;
+
+				prefix = (prefix << 8) | octet;
+			}
+
+			return new int[] {prefix & mask(length), length};
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/****************************************************************
+	 * @param length number of leading one bits.
+	 * @return the network mask for the given prefix length.
+	 ***************************************************************/
+	static int mask(int length) {
+		return length == 0 ? 0 : -1 << (32 - length);
+	}
+
+	/****************************************************************
+	 * @return the bit of the address at the given index, counting
+	 * from the most significant bit.
+	 ***************************************************************/
+	private static int bitAt(int address, int index) {
+		return (address >>> (31 - index)) & 1;
+	}
+
+	/****************************************************************
+	 * @return the number of leading bits two prefixes share, limited
+	 * to the shorter of the two.
+	 ***************************************************************/
+	private static int commonLength(int a, int aLength, int b,
+			int bLength) {
+		int common = Integer.numberOfLeadingZeros(a ^ b);
+
+		return Math.min(common, Math.min(aLength, bLength));
+	}
+
+	/****************************************************************
+	 * A prefix and its next hops, as returned by entries().
+	 ***************************************************************/
+	public static final class Entry {
+
+		private final int prefix;
+
+		private final int length;
+
+		private final InetAddress[] nextHops;
+
+		private Entry(int prefix, int length, InetAddress[] nextHops) {
+			this.prefix = prefix;
+			this.length = length;
+			this.nextHops = nextHops;
+		}
+
+		public int getPrefix() {
+			return prefix;
+		}
+
+		public int getLength() {
+			return length;
+		}
+
+		/************************************************************
+		 * @return the first next hop of the prefix.
+		 ***********************************************************/
+		public InetAddress getNextHop() {
+			return nextHops[0];
+		}
+
+		/************************************************************
+		 * @return every equal cost next hop of the prefix.
+		 ***********************************************************/
+		public List<InetAddress> getNextHops() {
+			return Collections.unmodifiableList(Arrays.asList(nextHops));
+		}
+
+		/************************************************************
+		 * @return the prefix in the format IPv4/prefix_length.
+		 ***********************************************************/
+		@Override
+		public String toString() {
+			return IP_Header.addressToString(prefix) + "/" + length;
+		}
+	}
+
+	/* A node in the trie. Nodes without next hops only exist
+	 * where two paths branch. */
+	private static class Node {
+
+		private final int prefix;
+
+		private final int length;
+
+		/** Equal cost next hops, or null if the node is not a prefix
+		 * in the table. Replaced whole, never changed in place. */
+		private InetAddress[] nextHops;
+
+		private final Node[] children = new Node[2];
+
+		private Node(int prefix, int length) {
+			this.prefix = prefix;
+			this.length = length;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package router;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/********************************************************************
+ * TokenBucket.java
+ *
+ * Lock-free token bucket. Tokens are added at a fixed rate up to a
+ * burst size, and each permitted event takes one. The bucket is kept
+ * as the time at which it will next be full (the generic cell rate
+ * algorithm), so taking a token is one compare-and-set and nothing is
+ * refilled on a timer. Tokens may also be taken several at a time,
+ * such as one per byte of a packet. Times are kept in 1/256ths of a
+ * nanosecond, so a token costing a fraction of a nanosecond, or not
+ * a whole number of them, is not rounded off the rate. That leaves
+ * about a year before the difference of two times could wrap.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class TokenBucket {
+
+	/** Bits of fraction in the times kept. */
+	private static final int FRACTION_BITS = 8;
+
+	/** Time to earn one token. */
+	private final long interval;
+
+	/** How far ahead of now the bucket may be drawn, the burst. */
+	private final long tolerance;
+
+	/** Time at which every token taken so far has been earned back. */
+	private final AtomicLong full;
+
+	/****************************************************************
+	 * Constructor for a full TokenBucket.
+	 *
+	 * @param rate tokens earned per second, above 0.
+	 * @param burst most tokens the bucket holds, at least 1.
+	 ***************************************************************/
+	public TokenBucket(double rate, int burst) {
+		interval = Math.max(1, 
+				Math.round(1e9 * (1L << FRACTION_BITS) / rate));
+		tolerance = (long) Math.min(Long.MAX_VALUE / 4, 
+				(double) interval * Math.max(1, burst));
+		full = new AtomicLong(now());
+	}
+
+	/****************************************************************
+	 * Takes a token if one is available. Never blocks.
+	 *
+	 * @return true if a token was taken.
+	 ***************************************************************/
+	public boolean tryAcquire() {
+		return tryAcquire(1);
+	}
+
+	/****************************************************************
+	 * Takes tokens if enough are available. Never blocks. A full
+	 * bucket gives any number, going into debt for those beyond the
+	 * burst, so that nothing waits forever.
+	 *
+	 * @param tokens the number of tokens to take.
+	 * @return true if the tokens were taken.
+	 ***************************************************************/
+	public boolean tryAcquire(int tokens) {
+		long now = now();
+
+		while (true) {
+			long current = full.get();
+			long start = current - now > 0 ? current : now;
+			long next = start + interval * tokens;
+
+			if (next - now > tolerance && current - now > 0) return false;
+
+			if (full.compareAndSet(current, next)) return true;
+		}
+	}
+
+	/****************************************************************
+	 * @param tokens a number of tokens.
+	 * @return nanoseconds until tryAcquire could take them, 0 if it
+	 * could now.
+	 ***************************************************************/
+	public long waitNanos(int tokens) {
+		long ahead = full.get() - now();
+
+		if (ahead <= 0) return 0;
+
+		long wait = Math.max(0, Math.min(ahead, 
+				ahead + interval * tokens - tolerance));
+
+		// Rounds up to whole nanoseconds
+		return (wait + (1L << FRACTION_BITS) - 1) >>> FRACTION_BITS;
+	}
+
+	/* @return the time now in fractions of a nanosecond. Only the 
+	 * differences between times are used, so wrapping is harmless. */
+	private static long now() {
+		return System.nanoTime() << FRACTION_BITS;
+	}
+}
@@ -0,0 +1,60 @@
+package router;
+
+/********************************************************************
+ * TrafficClass.java
+ *
+ * The classes a router's egress queues are divided into, from the
+ * DSCP in the top six bits of a packet's TOS byte. The classes are 
+ * in order of urgency, and each gets a share of a busy link in 
+ * proportion to its weight.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public enum TrafficClass {
+
+	/** Expedited Forwarding, Class Selectors 5 to 7 and Assured
+	 * Forwarding class 4: chat, voice and network control. */
+	INTERACTIVE(4),
+
+	/** Everything not marked otherwise. */
+	NORMAL(2),
+
+	/** Class Selector 1 and Lower Effort: bulk transfers. */
+	BULK(1);
+
+	private final int weight;
+
+	private TrafficClass(int weight) {
+		this.weight = weight;
+	}
+
+	/****************************************************************
+	 * @return the class's share of a busy link, relative to the 
+	 * others.
+	 ***************************************************************/
+	public int getWeight() {
+		return weight;
+	}
+
+	/****************************************************************
+	 * @param tos the TOS byte of a packet.
+	 * @return the class of the packet.
+	 ***************************************************************/
+	public static TrafficClass of(int tos) {
+		switch (tos >>> 2) {
+		case 46: // EF
+		case 40: // CS5
+		case 48: // CS6
+		case 56: // CS7
+		case 34: // AF41
+		case 36: // AF42
+		case 38: // AF43
+			return INTERACTIVE;
+		case 8:  // CS1
+		case 1:  // LE
+			return BULK;
+		default:
+			return NORMAL;
+		}
+	}
+}
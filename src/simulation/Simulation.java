@@ -0,0 +1,400 @@
+package simulation;
+
+import client.Client;
+import client.MessageListener;
+import router.LatencyHistogram;
+import router.Router;
+import transport.MemoryNetwork;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/********************************************************************
+ * Simulation.java
+ *
+ * Runs a whole topology of routers and hosts inside one JVM, on a
+ * MemoryNetwork instead of UDP. config/simulation.txt gives the 
+ * "real" address of each router and host, and every node reads its
+ * usual config/router-N.txt or config/host-N.txt.
+ *
+ * awaitConvergence() waits for the routers to stop learning routes
+ * from each other. run() measures throughput and latency: each host sends to the 
+ * virtual address of the next host in the file, the last to the 
+ * first, keeping a fixed window of messages in flight. As long as 
+ * the windows fit in the queues nothing is dropped, so every run
+ * sends the same packets over the same paths.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class Simulation {
+
+	/** Path to the configuration files. */
+	private final String PATH = "config/";
+
+	/** Bytes at the start of each payload: send time and sender. */
+	private static final int STAMP_LENGTH = 12;
+
+	/** How long a sender waits for its window before giving up. */
+	private static final long WINDOW_TIMEOUT_MILLIS = 2000;
+
+	private final MemoryNetwork network;
+
+	private final List<Router> routers = new ArrayList<Router>();
+
+	private final List<Client> hosts = new ArrayList<Client>();
+
+	/****************************************************************
+	 * Constructor for Simulation. Creates every router and host in 
+	 * config/simulation.txt on the given network.
+	 *
+	 * @param network the network to run on.
+	 * @throws Exception if there is any issue with the configuration
+	 * files. (not found, improperly formatted, etc.)
+	 ***************************************************************/
+	public Simulation(MemoryNetwork network) throws Exception {
+		this.network = network;
+
+		readConfigFile();
+	}
+
+	/****************************************************************
+	 * Reads config/simulation.txt. Each line is "router N ADDRESS" or
+	 * "host N ADDRESS", where ADDRESS is the "real" address the node
+	 * is bound to on the network.
+	 *
+	 * @throws Exception if there is any issue with the configuration
+	 * files. (not found, improperly formatted, etc.)
+	 ***************************************************************/
+	private void readConfigFile() throws Exception {
+		BufferedReader br = new BufferedReader(
+				new FileReader(PATH + "simulation.txt"));
+		String line;
+
+		/* Reads the file line-by-line */
+		while ((line = br.readLine()) != null) {
+			String[] strArr = line.split(" ");
+
+			/* Skips lines which aren't a node */
+			if (strArr.length != 3) continue;
+
+			int number = Integer.parseInt(strArr[1]);
+			InetAddress address = InetAddress.getByName(strArr[2]);
+
+			if (strArr[0].equals("router")) {
+				routers.add(new Router(number, network.open(address)));
+			} else if (strArr[0].equals("host")) {
+				Client client = new Client(network.open(address));
+				client.setHostNumber(number);
+				hosts.add(client);
+			}
+		}
+
+		br.close();
+	}
+
+	/****************************************************************
+	 * Starts a thread for each router and the I/O thread of each 
+	 * host.
+	 ***************************************************************/
+	public void start() {
+		for (int i = 0; i < routers.size(); i++) {
+			final Router router = routers.get(i);
+
+			Thread t = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					router.begin();
+				}
+			}, "sim-router-" + (i + 1));
+			t.setDaemon(true);
+			t.start();
+		}
+
+		for (Client host : hosts) {
+			host.start();
+		}
+	}
+
+	/****************************************************************
+	 * Stops every router and host.
+	 *
+	 * @throws IOException if a transport fails to close.
+	 ***************************************************************/
+	public void close() throws IOException {
+		for (Router router : routers) {
+			router.close();
+		}
+
+		for (Client host : hosts) {
+			host.close();
+		}
+	}
+
+	/****************************************************************
+	 * Waits until no router's learned routes have changed for the 
+	 * given time.
+	 *
+	 * @param quietMillis how long the routes must stay the same.
+	 * @return the wall clock time of the last route change in 
+	 * milliseconds, or 0 if no routes were learned.
+	 * @throws InterruptedException if interrupted while waiting.
+	 ***************************************************************/
+	public long awaitConvergence(long quietMillis) 
+			throws InterruptedException {
+		long changes = -1;
+		long stableSince = System.currentTimeMillis();
+
+		while (true) {
+			long total = 0;
+			long last = 0;
+
+			for (Router router : routers) {
+				total += router.getMetrics().getRouteChanges();
+				last = Math.max(last, router.getMetrics().getLastRouteChange());
+			}
+
+			long now = System.currentTimeMillis();
+
+			if (total != changes) {
+				changes = total;
+				stableSince = now;
+			} else if (now - stableSince >= quietMillis) {
+				return last;
+			}
+
+			Thread.sleep(10);
+		}
+	}
+
+	public List<Router> getRouters() {
+		return routers;
+	}
+
+	public List<Client> getHosts() {
+		return hosts;
+	}
+
+	public MemoryNetwork getNetwork() {
+		return network;
+	}
+
+	/****************************************************************
+	 * Sends messages around the ring of hosts and waits for them to
+	 * arrive. Each payload starts with its send time, so latency is
+	 * measured from sendMessage() to the receiving listener.
+	 *
+	 * @param messages the number of messages each host sends.
+	 * @param size the payload size in bytes, at least 12.
+	 * @param window the most messages each host has in flight.
+	 * @return the measurements.
+	 * @throws InterruptedException if interrupted while waiting.
+	 ***************************************************************/
+	public Result run(final int messages, int size, int window) 
+			throws InterruptedException {
+		final int count = hosts.size();
+		final int payloadSize = Math.max(STAMP_LENGTH, size);
+
+		final LatencyHistogram latency = new LatencyHistogram();
+		final LongAdder received = new LongAdder();
+		final LongAdder sent = new LongAdder();
+
+		final Semaphore[] windows = new Semaphore[count];
+		List<MessageListener> listeners = new ArrayList<MessageListener>();
+
+		for (int i = 0; i < count; i++) {
+			windows[i] = new Semaphore(window);
+
+			MessageListener listener = new MessageListener() {
+				@Override
+				public void messageReceived(InetAddress source, 
+						ByteBuffer payload) {
+					if (payload.remaining() < STAMP_LENGTH) return;
+
+					int start = payload.position();
+					latency.record(System.nanoTime() - 
+							payload.getLong(start));
+					received.increment();
+
+					// Opens the sender's window again
+					windows[payload.getInt(start + 8)].release();
+				}
+
+				@Override
+				public void icmpReceived(int type, InetAddress source, 
+						InetAddress destination) {}
+
+				@Override
+				public void listenerFailed(RuntimeException e) {}
+			};
+
+			hosts.get(i).addMessageListener(listener);
+			listeners.add(listener);
+		}
+
+		final CountDownLatch done = new CountDownLatch(count);
+		long begin = System.nanoTime();
+
+		for (int i = 0; i < count; i++) {
+			final int index = i;
+			final Client host = hosts.get(i);
+			final InetAddress dst = hosts.get((i + 1) % count).getAddress();
+
+			Thread t = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					ByteBuffer payload = ByteBuffer.allocate(payloadSize);
+
+					for (int b = STAMP_LENGTH; b < payloadSize; b++) {
+						payload.put(b, (byte) ('a' + b % 26));
+					}
+
+					payload.putInt(8, index);
+
+					try {
+						for (int m = 0; m < messages; m++) {
+							if (!windows[index].tryAcquire(
+									WINDOW_TIMEOUT_MILLIS, 
+									TimeUnit.MILLISECONDS)) {
+								break;
+							}
+
+							payload.putLong(0, System.nanoTime());
+							host.sendMessage(payload, dst);
+							sent.increment();
+						}
+					} catch (InterruptedException e) {
+						// Stops sending
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "sim-host-" + (i + 1));
+			t.setDaemon(true);
+			t.start();
+		}
+
+		done.await();
+
+		/* Waits for the messages still in flight */
+		for (int i = 0; i < count; i++) {
+			if (windows[i].tryAcquire(window, WINDOW_TIMEOUT_MILLIS, 
+					TimeUnit.MILLISECONDS)) {
+				windows[i].release(window);
+			}
+		}
+
+		long elapsed = System.nanoTime() - begin;
+
+		for (int i = 0; i < count; i++) {
+			hosts.get(i).removeMessageListener(listeners.get(i));
+		}
+
+		return new Result(sent.sum(), received.sum(), payloadSize, 
+				elapsed, latency.getCounts());
+	}
+
+	/* The measurements of one run. */
+	public static final class Result {
+
+		private final long sent;
+
+		private final long received;
+
+		private final int size;
+
+		private final long elapsedNanos;
+
+		private final long[] latency;
+
+		private Result(long sent, long received, int size, 
+				long elapsedNanos, long[] latency) {
+			this.sent = sent;
+			this.received = received;
+			this.size = size;
+			this.elapsedNanos = elapsedNanos;
+			this.latency = latency;
+		}
+
+		public long getSent() {
+			return sent;
+		}
+
+		public long getReceived() {
+			return received;
+		}
+
+		/********************************************************
+		 * @return messages received per second.
+		 *******************************************************/
+		public double getThroughput() {
+			return received * 1e9 / elapsedNanos;
+		}
+
+		/********************************************************
+		 * @param percentile the percentile, from 0 to 100.
+		 * @return the latency in nanoseconds.
+		 *******************************************************/
+		public long getLatency(double percentile) {
+			return LatencyHistogram.percentile(latency, percentile);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("sent %d, received %d in %.3f s%n" + 
+					"%.0f messages/s, %.1f MB/s of payload%n" + 
+					"latency p50 %d ns, p99 %d ns, p99.9 %d ns", 
+					sent, received, elapsedNanos / 1e9, getThroughput(),
+					getThroughput() * size / 1e6, getLatency(50), 
+					getLatency(99), getLatency(99.9));
+		}
+	}
+
+	/****************************************************************
+	 * Runs the topology and prints the measurements. Must be run from
+	 * the top of the repository.
+	 *
+	 * @param args optional messages per host, payload size and 
+	 * window, by default 100000, 64 and 64.
+	 ***************************************************************/
+	public static void main(String[] args) throws Exception {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int size = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		int window = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+		Simulation sim = new Simulation(new MemoryNetwork());
+
+		long begin = System.currentTimeMillis();
+		sim.start();
+
+		// Longer than the hold between triggered updates
+		long converged = sim.awaitConvergence(1500);
+
+		if (converged != 0) {
+			System.out.println("\nroutes converged in " + 
+					(converged - begin) + " ms");
+		}
+
+		// Warms up the JIT with a short run first
+		sim.run(Math.min(messages, 10000), size, window);
+
+		Result result = sim.run(messages, size, window);
+
+		System.out.println();
+		System.out.println(result);
+		System.out.println("network: " + sim.getNetwork().getDelivered() + 
+				" delivered, " + sim.getNetwork().getUnreachable() + 
+				" unreachable, " + sim.getNetwork().getOverflowed() + 
+				" overflowed");
+
+		sim.close();
+	}
+}
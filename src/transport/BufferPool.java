@@ -0,0 +1,68 @@
+package transport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/********************************************************************
+ * BufferPool.java
+ *
+ * Pool of reusable direct ByteBuffers of a single size. A new buffer
+ * is only allocated when the pool is empty, so once enough buffers
+ * are in circulation acquiring and releasing does not allocate. The
+ * pool is safe to share between threads.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class BufferPool {
+
+	/** Capacity in bytes of every buffer in the pool. */
+	private final int bufferSize;
+
+	/** Buffers waiting to be reused. */
+	private final ArrayBlockingQueue<ByteBuffer> free;
+
+	/****************************************************************
+	 * Constructor for BufferPool.
+	 *
+	 * @param bufferSize capacity in bytes of each buffer.
+	 * @param maxIdle the most buffers kept for reuse. Buffers released
+	 * while this many are idle are left to the garbage collector.
+	 ***************************************************************/
+	public BufferPool(int bufferSize, int maxIdle) {
+		this.bufferSize = bufferSize;
+
+		free = new ArrayBlockingQueue<ByteBuffer>(maxIdle);
+	}
+
+	/****************************************************************
+	 * @return a cleared buffer from the pool, or a new one if the
+	 * pool is empty.
+	 ***************************************************************/
+	public ByteBuffer acquire() {
+		ByteBuffer buf = free.poll();
+
+		if (buf == null) {
+			buf = ByteBuffer.allocateDirect(bufferSize);
+		}
+
+		return buf;
+	}
+
+	/****************************************************************
+	 * Returns a buffer to the pool. The buffer must not be used by
+	 * the caller afterwards.
+	 *
+	 * @param buf a buffer acquired from this pool.
+	 ***************************************************************/
+	public void release(ByteBuffer buf) {
+		buf.clear();
+		free.offer(buf);
+	}
+
+	/****************************************************************
+	 * @return capacity in bytes of every buffer in the pool.
+	 ***************************************************************/
+	public int getBufferSize() {
+		return bufferSize;
+	}
+}
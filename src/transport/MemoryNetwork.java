@@ -0,0 +1,128 @@
+package transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/********************************************************************
+ * MemoryNetwork.java
+ *
+ * A "real" network inside one JVM. Each MemoryTransport opened on it
+ * is bound to an address, and datagrams sent to that address are 
+ * copied into its queue. Like UDP, datagrams to an address nobody is
+ * bound to or to a full queue are dropped, and only counted.
+ *
+ * Lets a whole topology of routers and clients run in one process.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class MemoryNetwork {
+
+	/** Default number of datagrams each transport queues. */
+	public static final int DEFAULT_QUEUE_SIZE = 4096;
+
+	private final int queueSize;
+
+	/** Transports by the address they are bound to. */
+	private final ConcurrentHashMap<InetAddress, MemoryTransport> nodes;
+
+	private final LongAdder delivered = new LongAdder();
+
+	/** Datagrams to an unbound address, and to a full queue. */
+	private final LongAdder unreachable = new LongAdder();
+	private final LongAdder overflowed = new LongAdder();
+
+	/****************************************************************
+	 * Constructor for a MemoryNetwork with the default queue size.
+	 ***************************************************************/
+	public MemoryNetwork() {
+		this(DEFAULT_QUEUE_SIZE);
+	}
+
+	/****************************************************************
+	 * Constructor for MemoryNetwork.
+	 *
+	 * @param queueSize the most datagrams waiting for each transport.
+	 ***************************************************************/
+	public MemoryNetwork(int queueSize) {
+		this.queueSize = queueSize;
+
+		nodes = new ConcurrentHashMap<InetAddress, MemoryTransport>();
+	}
+
+	/****************************************************************
+	 * Opens a transport bound to the given address.
+	 *
+	 * @param address the "real" address of the new node.
+	 * @return the transport.
+	 * @throws IOException if a transport is already bound to the 
+	 * address.
+	 ***************************************************************/
+	public MemoryTransport open(InetAddress address) throws IOException {
+		MemoryTransport transport = 
+				new MemoryTransport(this, address, queueSize);
+
+		if (nodes.putIfAbsent(address, transport) != null) {
+			throw new IOException("Address in use: " + 
+					address.getHostAddress());
+		}
+
+		return transport;
+	}
+
+	/****************************************************************
+	 * @return the number of datagrams queued for a transport.
+	 ***************************************************************/
+	public long getDelivered() {
+		return delivered.sum();
+	}
+
+	/****************************************************************
+	 * @return the number of datagrams sent to an address no 
+	 * transport is bound to.
+	 ***************************************************************/
+	public long getUnreachable() {
+		return unreachable.sum();
+	}
+
+	/****************************************************************
+	 * @return the number of datagrams dropped because the queue of 
+	 * the transport they were sent to was full.
+	 ***************************************************************/
+	public long getOverflowed() {
+		return overflowed.sum();
+	}
+
+	/****************************************************************
+	 * Copies a datagram into the queue of the transport bound to the
+	 * destination, or drops it.
+	 *
+	 * @param src the buffer holding the datagram. Its position is 
+	 * moved to its limit.
+	 * @param source the address of the sending transport.
+	 * @param dst the address to send to.
+	 ***************************************************************/
+	void send(ByteBuffer src, InetAddress source, InetAddress dst) {
+		byte[] data = new byte[src.remaining()];
+		src.get(data);
+
+		MemoryTransport node = nodes.get(dst);
+
+		if (node == null) {
+			unreachable.increment();
+		} else if (node.enqueue(source, data)) {
+			delivered.increment();
+		} else {
+			overflowed.increment();
+		}
+	}
+
+	/****************************************************************
+	 * Unbinds a closed transport's address.
+	 ***************************************************************/
+	void remove(MemoryTransport transport) {
+		nodes.remove(transport.getAddress(), transport);
+	}
+}
@@ -0,0 +1,140 @@
+package transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/********************************************************************
+ * MemoryTransport.java
+ *
+ * Transport over a MemoryNetwork. Received datagrams wait in a 
+ * bounded queue, and sending copies the datagram straight into the
+ * queue of the destination. Safe to use from any number of threads.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class MemoryTransport implements Transport {
+
+	/** Queued to wake receivers once the transport is closed. */
+	private static final Datagram CLOSED = new Datagram(null, new byte[0]);
+
+	private final MemoryNetwork network;
+
+	/** The address this transport is bound to. */
+	private final InetAddress address;
+
+	private final ArrayBlockingQueue<Datagram> queue;
+
+	private volatile boolean closed;
+
+	/****************************************************************
+	 * Constructor for MemoryTransport. Use MemoryNetwork.open().
+	 ***************************************************************/
+	MemoryTransport(MemoryNetwork network, InetAddress address, 
+			int queueSize) {
+		this.network = network;
+		this.address = address;
+
+		queue = new ArrayBlockingQueue<Datagram>(queueSize);
+	}
+
+	/****************************************************************
+	 * @return the address this transport is bound to.
+	 ***************************************************************/
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	@Override
+	public InetAddress receive(ByteBuffer dst) throws IOException {
+		Datagram datagram;
+
+		try {
+			datagram = queue.take();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+
+		return copy(datagram, dst);
+	}
+
+	@Override
+	public InetAddress poll(ByteBuffer dst) throws IOException {
+		Datagram datagram = queue.poll();
+
+		return datagram == null ? null : copy(datagram, dst);
+	}
+
+	@Override
+	public void send(ByteBuffer src, InetAddress dst) throws IOException {
+		if (closed) throw new ClosedChannelException();
+
+		network.send(src, address, dst);
+	}
+
+	/****************************************************************
+	 * Sends a datagram as send() does. The network never pushes back,
+	 * a datagram for a full queue is dropped on arrival.
+	 ***************************************************************/
+	@Override
+	public boolean trySend(ByteBuffer src, InetAddress dst) 
+			throws IOException {
+		send(src, dst);
+		return true;
+	}
+
+	/****************************************************************
+	 * Closes the transport and unbinds its address. Blocked and later
+	 * receives throw ClosedChannelException.
+	 ***************************************************************/
+	@Override
+	public void close() {
+		closed = true;
+		network.remove(this);
+
+		// Makes room so the marker always fits
+		queue.clear();
+		queue.offer(CLOSED);
+	}
+
+	/****************************************************************
+	 * Queues a datagram sent to this transport.
+	 *
+	 * @return false if the queue is full or the transport closed.
+	 ***************************************************************/
+	boolean enqueue(InetAddress source, byte[] data) {
+		return !closed && queue.offer(new Datagram(source, data));
+	}
+
+	/* Copies a datagram into the buffer, discarding what doesn't
+	 * fit. */
+	private InetAddress copy(Datagram datagram, ByteBuffer dst) 
+			throws IOException {
+		if (datagram == CLOSED) {
+			// Leaves the marker for any other receiver
+			queue.offer(CLOSED);
+			throw new ClosedChannelException();
+		}
+
+		dst.put(datagram.data, 0, Math.min(datagram.data.length, 
+				dst.remaining()));
+
+		return datagram.source;
+	}
+
+	/* A datagram waiting to be received. */
+	private static final class Datagram {
+
+		private final InetAddress source;
+
+		private final byte[] data;
+
+		private Datagram(InetAddress source, byte[] data) {
+			this.source = source;
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+/********************************************************************
+ * Transport.java
+ *
+ * The "real" network underneath the virtual network. Every node
+ * listens on the same port, so a peer is identified by its address
+ * alone. Datagrams are read from and written to ByteBuffers so that
+ * a received buffer can be sent on without copying.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public interface Transport extends Closeable {
+
+	/****************************************************************
+	 * Blocks until a datagram arrives and copies it into the given
+	 * buffer, starting at its position. Bytes which do not fit in
+	 * the remaining space are discarded.
+	 *
+	 * @param dst the buffer to receive into.
+	 * @return the address of the sender.
+	 * @throws IOException if the transport fails or is closed.
+	 ***************************************************************/
+	InetAddress receive(ByteBuffer dst) throws IOException;
+
+	/****************************************************************
+	 * Copies a waiting datagram into the given buffer without
+	 * blocking. Bytes which do not fit in the remaining space are
+	 * discarded.
+	 *
+	 * @param dst the buffer to receive into.
+	 * @return the address of the sender, or null if no datagram was
+	 * waiting.
+	 * @throws IOException if the transport fails or is closed.
+	 ***************************************************************/
+	InetAddress poll(ByteBuffer dst) throws IOException;
+
+	/****************************************************************
+	 * Sends the remaining bytes of the buffer as one datagram.
+	 *
+	 * @param src the buffer holding the datagram.
+	 * @param dst the address of the peer to send to.
+	 * @throws IOException if the datagram could not be sent.
+	 ***************************************************************/
+	void send(ByteBuffer src, InetAddress dst) throws IOException;
+
+	/****************************************************************
+	 * Sends the remaining bytes of the buffer as one datagram if the
+	 * network can take it now.
+	 *
+	 * @param src the buffer holding the datagram.
+	 * @param dst the address of the peer to send to.
+	 * @return false if the network is busy, in which case nothing was
+	 * sent and the buffer is unchanged.
+	 * @throws IOException if the datagram could not be sent.
+	 ***************************************************************/
+	boolean trySend(ByteBuffer src, InetAddress dst) throws IOException;
+}
@@ -0,0 +1,183 @@
+package transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.ConcurrentHashMap;
+
+/********************************************************************
+ * UdpTransport.java
+ *
+ * Transport over UDP using a DatagramChannel. Receiving and sending
+ * go straight between the channel and the caller's buffers, which
+ * is cheapest when those buffers are direct.
+ *
+ * The channel is non-blocking so that waiting datagrams can be 
+ * drained with poll(). A blocking receive() waits on a selector, and
+ * should only be called from one thread at a time. send() blocks as
+ * a blocking socket would, waiting on a second selector while the 
+ * socket send buffer is full, and trySend() never blocks.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class UdpTransport implements Transport {
+
+	/** Longest wait for room before trying again, in case another
+	 * sender took the wakeup. */
+	private static final long WRITE_WAIT_MILLIS = 10;
+
+	/** The port every peer listens on. */
+	private final int port;
+
+	private final DatagramChannel channel;
+
+	/** Wakes receive() when a datagram arrives. */
+	private final Selector selector;
+
+	/** Wakes send() when the socket send buffer has room again. */
+	private final Selector writeSelector;
+
+	/** Socket addresses of the peers sent to so far, so that sending
+	 * does not allocate one per datagram. */
+	private final ConcurrentHashMap<InetAddress, InetSocketAddress> peers;
+
+	/****************************************************************
+	 * Constructor for UdpTransport. Binds the channel to the port.
+	 *
+	 * @param port the port to listen on and send to.
+	 * @throws IOException if the port is in use.
+	 ***************************************************************/
+	public UdpTransport(int port) throws IOException {
+		this.port = port;
+
+		peers = new ConcurrentHashMap<InetAddress, InetSocketAddress>();
+
+		channel = DatagramChannel.open();
+		channel.bind(new InetSocketAddress(port));
+		channel.configureBlocking(false);
+
+		selector = Selector.open();
+		channel.register(selector, SelectionKey.OP_READ);
+
+		writeSelector = Selector.open();
+		channel.register(writeSelector, SelectionKey.OP_WRITE);
+	}
+
+	@Override
+	public InetAddress receive(ByteBuffer dst) throws IOException {
+		InetAddress sender;
+
+		/* Waits for the channel to become readable until a datagram
+		 * is actually received. */
+		while ((sender = poll(dst)) == null) {
+			try {
+				selector.select();
+				selector.selectedKeys().clear();
+			} catch (ClosedSelectorException e) {
+				throw new ClosedChannelException();
+			}
+		}
+
+		return sender;
+	}
+
+	@Override
+	public InetAddress poll(ByteBuffer dst) throws IOException {
+		InetSocketAddress sender = (InetSocketAddress) channel.receive(dst);
+
+		return sender == null ? null : sender.getAddress();
+	}
+
+	/****************************************************************
+	 * Sends the remaining bytes of the buffer as one datagram. While
+	 * the socket send buffer is full this waits for it to have room,
+	 * as a blocking socket would, rather than dropping the datagram.
+	 ***************************************************************/
+	@Override
+	public void send(ByteBuffer src, InetAddress dst) throws IOException {
+		while (!trySend(src, dst)) {
+			awaitWritable();
+		}
+	}
+
+	/****************************************************************
+	 * Sends the remaining bytes of the buffer as one datagram, unless
+	 * the socket send buffer is full.
+	 ***************************************************************/
+	@Override
+	public boolean trySend(ByteBuffer src, InetAddress dst) 
+			throws IOException {
+		int length = src.remaining();
+
+		return channel.send(src, peer(dst)) > 0 || length == 0;
+	}
+
+	/****************************************************************
+	 * Sets the size of the socket's receive buffer (SO_RCVBUF), which
+	 * holds datagrams until they are received. The operating system
+	 * may round or cap the size.
+	 *
+	 * @param bytes the requested size.
+	 * @throws IOException if the option can't be set.
+	 ***************************************************************/
+	public void setReceiveBufferSize(int bytes) throws IOException {
+		channel.setOption(StandardSocketOptions.SO_RCVBUF, bytes);
+	}
+
+	/****************************************************************
+	 * @return the actual size of the socket's receive buffer.
+	 * @throws IOException if the option can't be read.
+	 ***************************************************************/
+	public int getReceiveBufferSize() throws IOException {
+		return channel.getOption(StandardSocketOptions.SO_RCVBUF);
+	}
+
+	/****************************************************************
+	 * @return the underlying channel.
+	 ***************************************************************/
+	public DatagramChannel getChannel() {
+		return channel;
+	}
+
+	@Override
+	public void close() throws IOException {
+		selector.close();
+		writeSelector.close();
+		channel.close();
+	}
+
+	/* Waits until the socket may have room to send, or a short while.
+	 * Senders take turns, so each wakeup is seen by one of them. */
+	private void awaitWritable() throws IOException {
+		try {
+			synchronized (writeSelector) {
+				writeSelector.select(WRITE_WAIT_MILLIS);
+				writeSelector.selectedKeys().clear();
+			}
+		} catch (ClosedSelectorException e) {
+			throw new ClosedChannelException();
+		}
+	}
+
+	/****************************************************************
+	 * @param addr the address of a peer.
+	 * @return the socket address of the peer's port.
+	 ***************************************************************/
+	private InetSocketAddress peer(InetAddress addr) {
+		InetSocketAddress peer = peers.get(addr);
+
+		if (peer == null) {
+			peer = new InetSocketAddress(addr, port);
+			peers.putIfAbsent(addr, peer);
+		}
+
+		return peer;
+	}
+}
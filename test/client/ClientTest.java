@@ -0,0 +1,222 @@
+package client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import headers.IP_Header;
+import headers.UDP_Header;
+import transport.Transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/********************************************************************
+ * ClientTest.java
+ *
+ * Tests sending through a transport whose send buffer fills up, as
+ * a socket's does when the router falls behind.
+ *
+ * @version Oct 18, 2026
+ *******************************************************************/
+public class ClientTest {
+
+	/** Bytes the transport holds until the router reads them, like
+	 * SO_SNDBUF. */
+	private static final int SEND_BUFFER = 64 * 1024;
+
+	/** Longest wait for a batch to be written, in seconds. */
+	private static final int TIMEOUT = 30;
+
+	private BufferedTransport transport;
+
+	private Client client;
+
+	@Before
+	public void setUp() throws Exception {
+		transport = new BufferedTransport(SEND_BUFFER);
+		client = new Client(transport);
+		client.setHostNumber(1);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		client.close();
+	}
+
+	@Test
+	public void sendBatchLargerThanSendBufferDeliversEveryMessage()
+			throws Exception {
+		int count = 2000;
+		InetAddress dst = InetAddress.getByName("10.2.0.1");
+
+		List<Message> messages = new ArrayList<Message>();
+		StringBuilder padding = new StringBuilder();
+
+		for (int i = 0; i < 500; i++) {
+			padding.append('x');
+		}
+
+		for (int i = 0; i < count; i++) {
+			messages.add(new Message(dst, i + " " + padding));
+		}
+
+		BitSet arrived = new BitSet(count);
+		Router router = new Router(transport, count, arrived);
+		router.start();
+
+		client.sendBatch(messages).get(TIMEOUT, TimeUnit.SECONDS);
+
+		router.join(TimeUnit.SECONDS.toMillis(TIMEOUT));
+		assertNull(router.failure);
+		assertFalse(router.isAlive());
+		assertEquals(count, arrived.cardinality());
+		assertTrue("send buffer never filled", transport.waits > 0);
+	}
+
+	/****************************************************************
+	 * Reads packets from the transport slowly, so that the client
+	 * keeps finding the send buffer full, and records which
+	 * messages arrived.
+	 ***************************************************************/
+	private static class Router extends Thread {
+
+		private final BufferedTransport transport;
+
+		private final int count;
+
+		private final BitSet arrived;
+
+		private volatile Exception failure;
+
+		Router(BufferedTransport transport, int count, BitSet arrived) {
+			super("test-router");
+			this.transport = transport;
+			this.count = count;
+			this.arrived = arrived;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (int i = 0; i < count; i++) {
+					if (i % 100 == 0) Thread.sleep(1);
+
+					byte[] packet = transport.take();
+					int start = IP_Header.LENGTH + UDP_Header.LENGTH;
+					String text = new String(packet, start,
+							packet.length - start, StandardCharsets.UTF_8);
+
+					arrived.set(Integer.parseInt(
+							text.substring(0, text.indexOf(' '))));
+				}
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+	}
+
+	/****************************************************************
+	 * Transport whose sent datagrams wait in a bounded buffer until
+	 * taken. send() blocks while the buffer is full, as
+	 * UdpTransport's does, and nothing is ever received.
+	 ***************************************************************/
+	private static class BufferedTransport implements Transport {
+
+		private final int capacity;
+
+		private final ArrayDeque<byte[]> buffered = new ArrayDeque<byte[]>();
+
+		private int used;
+
+		private boolean closed;
+
+		/** Times send() found the buffer full and waited. */
+		private volatile int waits;
+
+		BufferedTransport(int capacity) {
+			this.capacity = capacity;
+		}
+
+		synchronized byte[] take() throws InterruptedException {
+			while (buffered.isEmpty()) {
+				wait();
+			}
+
+			byte[] data = buffered.poll();
+			used -= data.length;
+			notifyAll();
+
+			return data;
+		}
+
+		@Override
+		public synchronized InetAddress receive(ByteBuffer dst)
+				throws IOException {
+			try {
+				while (!closed) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			throw new ClosedChannelException();
+		}
+
+		@Override
+		public InetAddress poll(ByteBuffer dst) {
+			return null;
+		}
+
+		@Override
+		public synchronized void send(ByteBuffer src, InetAddress dst)
+				throws IOException {
+			try {
+				while (!trySend(src, dst)) {
+					waits++;
+					wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ClosedChannelException();
+			}
+		}
+
+		@Override
+		public synchronized boolean trySend(ByteBuffer src,
+				InetAddress dst) throws IOException {
+			if (closed) throw new ClosedChannelException();
+
+			if (used + src.remaining() > capacity) return false;
+
+			byte[] data = new byte[src.remaining()];
+			src.get(data);
+			buffered.add(data);
+			used += data.length;
+			notifyAll();
+
+			return true;
+		}
+
+		@Override
+		public synchronized void close() {
+			closed = true;
+			notifyAll();
+		}
+	}
+}